@@ -0,0 +1,23 @@
+package edu.yu.cs.intro.orderManagement;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+/**
+ * Entry point of the benchmarks jar. Runs whatever JMH is told to on the command line (everything by
+ default) with the gc profiler on, so every result comes with its allocation rate, and writes the results
+ to jmh-result.json for before/after comparisons.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        Options options=new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
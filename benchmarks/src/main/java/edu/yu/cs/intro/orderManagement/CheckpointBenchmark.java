@@ -0,0 +1,55 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Startup cost: building a system through the constructor against loading the same system from a
+ checkpoint, and the cost of writing the checkpoint
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=2)
+@Measurement(iterations=5)
+@Fork(value=1,jvmArgsAppend={"-Xms2g","-Xmx2g"})
+public class CheckpointBenchmark {
+    @Param({"100000","1000000"})
+    public int catalogSize;
+    @Param({"10000"})
+    public int providerCount;
+    private Set<Product> products;
+    private Set<ServiceProvider> providers;
+    private OrderManagementSystem system;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.products=Fixtures.products(catalogSize);
+        this.providers=Fixtures.providers(providerCount);
+        this.system=new OrderManagementSystem(products,Fixtures.DEFAULT_STOCK,providers);
+        this.file=Files.createTempFile("checkpoint",".bin");
+        Checkpoint.write(system,file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public OrderManagementSystem construct() {
+        return new OrderManagementSystem(products,Fixtures.DEFAULT_STOCK,Fixtures.providers(providerCount));
+    }
+
+    @Benchmark
+    public OrderManagementSystem load() {
+        return Checkpoint.load(file);
+    }
+
+    @Benchmark
+    public void write() {
+        Checkpoint.write(system,file);
+    }
+}
@@ -0,0 +1,51 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * What counting demand with a {@link DemandTracker} costs on {@link OrderManagementSystem#placeOrder(Order)},
+ with product orders so every line is counted
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class DemandBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+    @Param({"false","true"})
+    public boolean tracked;
+    private OrderManagementSystem system;
+    private Order[] orders;
+    private DemandTracker tracker;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.system=Fixtures.system(CATALOG,PROVIDERS);
+        if(tracked) {
+            this.tracker=new DemandTracker(system);
+        }
+        this.orders=Fixtures.orders("PRODUCTS",ORDERS,4,CATALOG,42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if(tracker!=null) {
+            tracker.close();
+        }
+    }
+
+    @Benchmark
+    public boolean placeOrder() {
+        Order order=orders[next++&(ORDERS-1)];
+        try {
+            system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+}
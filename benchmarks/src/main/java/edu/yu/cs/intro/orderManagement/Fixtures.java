@@ -0,0 +1,101 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * Builds the catalogs, providers and orders the benchmarks run against. Everything is generated from a
+ fixed seed so runs are comparable.
+ */
+public class Fixtures {
+    /**
+     * number of distinct services offered across all providers
+     */
+    public static final int SERVICE_COUNT=32;
+    /**
+     * stock level every product starts at, high enough that most orders are filled from stock
+     */
+    public static final int DEFAULT_STOCK=1000;
+
+    public static Set<Product> products(int catalogSize) {
+        Set<Product> products=new HashSet<>();
+        for(int i=1;i<=catalogSize;i++) {
+            products.add(new Product("product"+i,1+i%100,i));
+        }
+        return products;
+    }
+
+    public static Service service(int serviceNumber) {
+        return new Service(10+serviceNumber,1+serviceNumber%3,serviceNumber,"service"+serviceNumber);
+    }
+
+    /**
+     * @param id
+     * @return a provider offering one to three services, picked from the id
+     */
+    public static ServiceProvider provider(int id) {
+        return provider(id,1);
+    }
+
+    /**
+     * @param id
+     * @param groups number of groups to split the services into, must divide {@link #SERVICE_COUNT}
+     * @return a provider offering one to three services, picked from the id, all from the group the id falls
+     in, so providers of different groups never share a service
+     */
+    public static ServiceProvider provider(int id, int groups) {
+        int group=id%groups;
+        int perGroup=SERVICE_COUNT/groups;
+        Set<Service> services=new HashSet<>();
+        services.add(service(1+group+groups*(id%perGroup)));
+        services.add(service(1+group+groups*((id*7)%perGroup)));
+        if(id%3==0) {
+            services.add(service(1+group+groups*((id*13)%perGroup)));
+        }
+        return new ServiceProvider("provider"+id,id,services);
+    }
+
+    public static Set<ServiceProvider> providers(int providerCount) {
+        return providers(providerCount,1);
+    }
+
+    /**
+     * @param providerCount
+     * @param groups see {@link #provider(int, int)}
+     */
+    public static Set<ServiceProvider> providers(int providerCount, int groups) {
+        Set<ServiceProvider> providers=new HashSet<>();
+        for(int i=1;i<=providerCount;i++) {
+            providers.add(provider(i,groups));
+        }
+        return providers;
+    }
+
+    public static OrderManagementSystem system(int catalogSize, int providerCount) {
+        return new OrderManagementSystem(products(catalogSize),DEFAULT_STOCK,providers(providerCount));
+    }
+
+    /**
+     * @param kind PRODUCTS, SERVICES or MIXED
+     * @param count number of orders to build
+     * @param lines order lines per order
+     * @param catalogSize products are picked from 1..catalogSize
+     * @param seed
+     */
+    public static Order[] orders(String kind, int count, int lines, int catalogSize, long seed) {
+        Random random=new Random(seed);
+        Order[] orders=new Order[count];
+        for(int i=0;i<count;i++) {
+            Order order=new Order();
+            for(int line=0;line<lines;line++) {
+                boolean service="SERVICES".equals(kind)||("MIXED".equals(kind)&&line%2==1);
+                if(service) {
+                    order.addToOrder(service(1+random.nextInt(SERVICE_COUNT)),1);
+                }
+                else {
+                    int number=1+random.nextInt(catalogSize);
+                    order.addToOrder(new Product("product"+number,1+number%100,number),1+random.nextInt(5));
+                }
+            }
+            orders[i]=order;
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,73 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * What keeping an {@link OrderHistory} costs on {@link OrderManagementSystem#placeOrder(Order)}, with mixed
+ orders so records have products, services and providers, and what its queries cost once it holds them
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+    @Param({"false","true"})
+    public boolean history;
+    private OrderManagementSystem system;
+    private Order[] orders;
+    private OrderHistory orderHistory;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.system=Fixtures.system(CATALOG,PROVIDERS);
+        if(history) {
+            this.orderHistory=new OrderHistory();
+            system.setHistory(orderHistory);
+        }
+        this.orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+    }
+
+    @Benchmark
+    public boolean placeOrder() {
+        Order order=orders[next++&(ORDERS-1)];
+        try {
+            system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A history that already holds the given number of orders
+     */
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({"100000"})
+        public int recorded;
+        private OrderHistory history;
+        private int product;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            OrderManagementSystem system=Fixtures.system(CATALOG,PROVIDERS);
+            this.history=new OrderHistory();
+            system.setHistory(history);
+            Order[] orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+            for(int i=0;history.size()<recorded;i++) {
+                system.tryPlaceOrder(orders[i&(ORDERS-1)]);
+            }
+            this.product=orders[0].productNumberAt(0);
+        }
+    }
+
+    @Benchmark
+    public long unitsSold(Filled filled) {
+        return filled.history.unitsSold(filled.product,0,Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Boot from files: importing the catalog from CSV and from the binary form, against building the sets the
+ constructor takes and constructing the system from them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=2)
+@Measurement(iterations=5)
+@Fork(value=1,jvmArgsAppend={"-Xms2g","-Xmx2g"})
+public class ImportBenchmark {
+    @Param({"100000","1000000"})
+    public int catalogSize;
+    @Param({"10000"})
+    public int providerCount;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory=Files.createTempDirectory("import");
+        Set<Product> products=Fixtures.products(catalogSize);
+        Set<ServiceProvider> providers=Fixtures.providers(providerCount);
+        Set<Service> services=new HashSet<>();
+        try(BufferedWriter out=Files.newBufferedWriter(directory.resolve("products.csv"))) {
+            for(Product p:products) {
+                out.write(p.getItemNumber()+","+p.getDescription()+","+p.getPrice()+"\n");
+            }
+        }
+        try(BufferedWriter out=Files.newBufferedWriter(directory.resolve("providers.csv"))) {
+            for(ServiceProvider sp:providers) {
+                StringBuilder line=new StringBuilder().append(sp.getId()).append(',').append(sp.getName()).append(',');
+                for(Service s:sp.getServices()) {
+                    line.append(s.getItemNumber()).append(' ');
+                    services.add(s);
+                }
+                out.write(line.append('\n').toString());
+            }
+        }
+        try(BufferedWriter out=Files.newBufferedWriter(directory.resolve("services.csv"))) {
+            for(Service s:services) {
+                out.write(s.getItemNumber()+","+s.getPricePerHourInCents()/100.0+","+s.getNumberOfHours()+","+s.getDescription()+"\n");
+            }
+        }
+        CatalogImporter.writeProducts(products,directory.resolve("products.bin"));
+        CatalogImporter.writeServices(services,directory.resolve("services.bin"));
+        CatalogImporter.writeProviders(providers,directory.resolve("providers.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(directory)) {
+            for(Path f:files) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public OrderManagementSystem constructFromSets() {
+        return new OrderManagementSystem(Fixtures.products(catalogSize),Fixtures.DEFAULT_STOCK,Fixtures.providers(providerCount));
+    }
+
+    @Benchmark
+    public OrderManagementSystem importCsv() {
+        return CatalogImporter.importCatalog(directory.resolve("products.csv"),directory.resolve("services.csv"),
+                directory.resolve("providers.csv"),Fixtures.DEFAULT_STOCK).getSystem();
+    }
+
+    @Benchmark
+    public OrderManagementSystem importBinary() {
+        return CatalogImporter.importCatalog(directory.resolve("products.bin"),directory.resolve("services.bin"),
+                directory.resolve("providers.bin"),Fixtures.DEFAULT_STOCK).getSystem();
+    }
+}
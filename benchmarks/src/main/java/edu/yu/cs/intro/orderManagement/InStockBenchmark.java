@@ -0,0 +1,53 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Listing what is in stock right now, on a catalog where only some of the products have any stock left
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class InStockBenchmark {
+    @Param({"200000"})
+    public int catalogSize;
+    @Param({"1","50"})
+    public int inStockPercent;
+    private Warehouse warehouse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.warehouse=new Warehouse();
+        for(Product p:Fixtures.products(catalogSize)) {
+            warehouse.addNewProductToWarehouse(p,Fixtures.DEFAULT_STOCK);
+        }
+        Random random=new Random(42);
+        for(int productNumber=1;productNumber<=catalogSize;productNumber++) {
+            if(random.nextInt(100)>=inStockPercent) {
+                warehouse.fulfill(productNumber,Fixtures.DEFAULT_STOCK);
+            }
+        }
+    }
+
+    @Benchmark
+    public int getInStockCount() {
+        return warehouse.getInStockCount();
+    }
+
+    @Benchmark
+    public Set<Product> getAllProductsInCatalog() {
+        return warehouse.getAllProductsInCatalog();
+    }
+
+    @Benchmark
+    public long iterateInStock() {
+        long sum=0;
+        for(Product p:warehouse.getProductsInStock()) {
+            sum+=p.getItemNumber();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,115 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Cost of journaling orders, with and without forcing every commit to disk, and how fast a journal replays
+ into a freshly constructed system. The journaling benchmark runs on several threads so that group commit
+ has waiting orders to share a force with.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class JournalBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+    private static final int REPLAYED_ORDERS=100000;
+
+    @State(Scope.Benchmark)
+    public static class Journaled {
+        @Param({"true","false"})
+        public boolean syncOnCommit;
+        private Path directory;
+        private Journal journal;
+        private OrderManagementSystem system;
+        private Order[] orders;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            this.directory=Files.createTempDirectory("journal-bench");
+            this.journal=Journal.open(directory,Journal.DEFAULT_SEGMENT_SIZE,syncOnCommit);
+            this.system=Fixtures.system(CATALOG,PROVIDERS);
+            system.setJournal(journal);
+            this.orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            journal.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Written {
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            this.directory=Files.createTempDirectory("journal-replay");
+            Journal journal=Journal.open(directory,Journal.DEFAULT_SEGMENT_SIZE,false);
+            OrderManagementSystem system=Fixtures.system(CATALOG,PROVIDERS);
+            system.setJournal(journal);
+            Order[] orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+            for(int i=0;i<REPLAYED_ORDERS;i++) {
+                try {
+                    system.placeOrder(orders[i&(ORDERS-1)]);
+                }catch(IllegalArgumentException|IllegalStateException e) {
+                    //rejected orders aren't journaled, which is fine for a replay benchmark
+                }
+            }
+            journal.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean placeOrderJournaled(Journaled state, Cursor cursor) {
+        Order order=state.orders[cursor.next++&(ORDERS-1)];
+        try {
+            state.system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * time to replay a journal of REPLAYED_ORDERS orders, including constructing the system it is replayed into
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int replay(Written state) {
+        OrderManagementSystem system=Fixtures.system(CATALOG,PROVIDERS);
+        return Journal.replay(state.directory,system);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        List<Path> files=new ArrayList<>();
+        try(DirectoryStream<Path> stream=Files.newDirectoryStream(directory)) {
+            for(Path file:stream) {
+                files.add(file);
+            }
+        }
+        for(Path file:files) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,43 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * What keeping {@link OrderMetrics} costs on {@link OrderManagementSystem#placeOrder(Order)}, with mixed
+ orders so every phase is timed
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+    @Param({"false","true"})
+    public boolean metrics;
+    private OrderManagementSystem system;
+    private Order[] orders;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.system=Fixtures.system(CATALOG,PROVIDERS);
+        if(metrics) {
+            system.setMetrics(new OrderMetrics());
+        }
+        this.orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+    }
+
+    @Benchmark
+    public boolean placeOrder() {
+        Order order=orders[next++&(ORDERS-1)];
+        try {
+            system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+}
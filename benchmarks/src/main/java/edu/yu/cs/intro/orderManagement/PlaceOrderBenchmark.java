@@ -0,0 +1,70 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * End to end cost of {@link OrderManagementSystem#placeOrder(Order)} for product only, service only and
+ mixed orders. Rejected orders are part of the mix (e.g. every provider of a service busy), since the
+ rejection path is part of what we pay for in production.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class PlaceOrderBenchmark {
+    private static final int ORDERS=1024;
+    private static final int BATCH=256;
+    @Param({"1000","200000"})
+    public int catalogSize;
+    @Param({"100","10000"})
+    public int providerCount;
+    @Param({"1","8"})
+    public int orderLines;
+    @Param({"PRODUCTS","SERVICES","MIXED"})
+    public String orderKind;
+    private OrderManagementSystem system;
+    private Order[] orders;
+    private List<List<Order>> batches;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.system=Fixtures.system(catalogSize,providerCount);
+        this.orders=Fixtures.orders(orderKind,ORDERS,orderLines,catalogSize,42);
+        this.batches=new ArrayList<>();
+        for(int i=0;i<ORDERS;i+=BATCH) {
+            batches.add(Arrays.asList(orders).subList(i,i+BATCH));
+        }
+        this.next=0;
+    }
+
+    @Benchmark
+    public boolean placeOrder() {
+        Order order=orders[next++&(ORDERS-1)];
+        try {
+            system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * the same orders, with rejections returned instead of thrown
+     */
+    @Benchmark
+    public OrderOutcome tryPlaceOrder() {
+        return system.tryPlaceOrder(orders[next++&(ORDERS-1)]);
+    }
+
+    /**
+     * the same orders, handed over BATCH at a time; scores are per order so they compare with placeOrder
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public OrderOutcome[] placeOrders() {
+        return system.placeOrders(batches.get(next++&(ORDERS/BATCH-1)));
+    }
+}
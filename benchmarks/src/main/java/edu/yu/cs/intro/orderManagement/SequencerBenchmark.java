@@ -0,0 +1,91 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Many producer threads placing orders, either each taking one lock around
+ {@link OrderManagementSystem#placeOrder(Order)} or all publishing into an {@link OrderSequencer}. Producers
+ on the sequencer keep up to WINDOW orders in flight and wait for the oldest one once they have that many, the
+ way an asynchronous caller would.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+@Threads(8)
+public class SequencerBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+    private static final int WINDOW=64;
+
+    @State(Scope.Benchmark)
+    public static class Locked {
+        private final Object lock=new Object();
+        private OrderManagementSystem system;
+        private Order[] orders;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.system=Fixtures.system(CATALOG,PROVIDERS);
+            this.orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sequenced {
+        @Param({"YIELD","PARK"})
+        public OrderSequencer.WaitStrategy waitStrategy;
+        private OrderSequencer sequencer;
+        private Order[] orders;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.sequencer=new OrderSequencer(Fixtures.system(CATALOG,PROVIDERS),waitStrategy);
+            this.orders=Fixtures.orders("MIXED",ORDERS,4,CATALOG,42);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            sequencer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private int next;
+        private ArrayDeque<CompletableFuture<OrderOutcome>> inFlight=new ArrayDeque<>();
+
+        @TearDown(Level.Iteration)
+        public void drain() {
+            while(!inFlight.isEmpty()) {
+                inFlight.poll().join();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean locked(Locked state, Producer producer) {
+        Order order=state.orders[producer.next++&(ORDERS-1)];
+        synchronized(state.lock) {
+            try {
+                state.system.placeOrder(order);
+                return true;
+            }catch(IllegalArgumentException|IllegalStateException e) {
+                return false;
+            }
+        }
+    }
+
+    @Benchmark
+    public OrderOutcome sequenced(Sequenced state, Producer producer) {
+        Order order=state.orders[producer.next++&(ORDERS-1)];
+        producer.inFlight.add(state.sequencer.submit(order));
+        if(producer.inFlight.size()<WINDOW) {
+            return null;
+        }
+        return producer.inFlight.poll().join();
+    }
+}
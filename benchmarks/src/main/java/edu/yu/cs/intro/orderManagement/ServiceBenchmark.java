@@ -0,0 +1,55 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Staffing checks and growing the provider side of the business: validateServices on orders of different
+ sizes, and addServiceProvider on systems of different sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class ServiceBenchmark {
+    private static final int ORDERS=1024;
+    @Param({"1000"})
+    public int catalogSize;
+    @Param({"100","10000"})
+    public int providerCount;
+    @Param({"1","8"})
+    public int orderLines;
+    private OrderManagementSystem system;
+    private Order[] orders;
+    private List<List<Service>> requested;
+    private int next;
+    private int nextProviderId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        this.system=Fixtures.system(catalogSize,providerCount);
+        this.orders=Fixtures.orders("SERVICES",ORDERS,orderLines,catalogSize,42);
+        this.requested=new ArrayList<>();
+        for(Order order:orders) {
+            List<Service> services=new ArrayList<>();
+            for(Item item:order.getItems()) {
+                services.add((Service)item);
+            }
+            requested.add(services);
+        }
+        this.next=0;
+        this.nextProviderId=providerCount+1;
+    }
+
+    @Benchmark
+    public int validateServices() {
+        int i=next++&(ORDERS-1);
+        return system.validateServices(requested.get(i),orders[i]);
+    }
+
+    @Benchmark
+    public void addServiceProvider() {
+        system.addServiceProvider(Fixtures.provider(nextProviderId++));
+    }
+}
@@ -0,0 +1,55 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * Orders placed from several threads on a {@link ShardedOrderManagementSystem}. One line orders always take
+ the single shard path; four line orders mostly span shards once there is more than one. Services that share
+ a provider are kept in one shard, so with a single group of providers every service lands in the same shard;
+ four groups let the services spread over four shards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+@Threads(4)
+public class ShardBenchmark {
+    private static final int CATALOG=10000;
+    private static final int PROVIDERS=1000;
+    private static final int ORDERS=1024;
+
+    @State(Scope.Benchmark)
+    public static class Sharded {
+        @Param({"1","4"})
+        public int shardCount;
+        @Param({"1","4"})
+        public int orderLines;
+        @Param({"1","4"})
+        public int providerGroups;
+        private ShardedOrderManagementSystem system;
+        private Order[] orders;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.system=new ShardedOrderManagementSystem(Fixtures.products(CATALOG),Fixtures.DEFAULT_STOCK,
+                    Fixtures.providers(PROVIDERS,providerGroups),shardCount);
+            this.orders=Fixtures.orders("MIXED",ORDERS,orderLines,CATALOG,42);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public boolean placeOrder(Sharded state, Cursor cursor) {
+        Order order=state.orders[cursor.next++&(ORDERS-1)];
+        try {
+            state.system.placeOrder(order);
+            return true;
+        }catch(IllegalArgumentException|IllegalStateException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+/**
+ * The item number keyed Warehouse lookups, on random products from the catalog
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class WarehouseBenchmark {
+    private static final int LOOKUPS=4096;
+    @Param({"1000","200000"})
+    public int catalogSize;
+    private Warehouse warehouse;
+    private int[] productNumbers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.warehouse=new Warehouse();
+        for(Product p:Fixtures.products(catalogSize)) {
+            warehouse.addNewProductToWarehouse(p,Fixtures.DEFAULT_STOCK);
+        }
+        Random random=new Random(42);
+        this.productNumbers=new int[LOOKUPS];
+        for(int i=0;i<LOOKUPS;i++) {
+            productNumbers[i]=1+random.nextInt(catalogSize);
+        }
+        this.next=0;
+    }
+
+    private int nextProduct() {
+        return productNumbers[next++&(LOOKUPS-1)];
+    }
+
+    @Benchmark
+    public int getStockLevel() {
+        return warehouse.getStockLevel(nextProduct());
+    }
+
+    @Benchmark
+    public boolean canFulfill() {
+        return warehouse.canFulfill(nextProduct(),3);
+    }
+
+    @Benchmark
+    public boolean isInCatalog() {
+        return warehouse.isInCatalog(nextProduct());
+    }
+
+    @Benchmark
+    public boolean isRestockable() {
+        return warehouse.isRestockable(nextProduct());
+    }
+
+    @Benchmark
+    public void fulfillAndRestock() {
+        int productNumber=nextProduct();
+        if(!warehouse.canFulfill(productNumber,3)) {
+            warehouse.restock(productNumber,3);
+        }
+        warehouse.fulfill(productNumber,3);
+    }
+}
@@ -0,0 +1,200 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * The stock side of a batch of orders. The demand for each product is summed over the whole batch, and
+ every product is looked up and taken out of the warehouse once, with a single atomic step, before any order
+ is looked at. The orders are then played against these local counts in submission order, restocking
+ locally the way the warehouse would, and whatever is left over (including restocked units nobody used) goes
+ back to the warehouse in one step per product when the batch is settled.
+ * Played against an otherwise idle warehouse this accepts and rejects exactly the orders that placing them
+ one at a time would. Not thread safe, one batch belongs to one thread.
+ */
+public class BatchDemand {
+    private final StockTable stock;
+    private IntIndex indexByProduct;
+    //per distinct product
+    private int[] productNumbers;
+    private int[] slots;
+    private int[] demand;
+    private int[] available;
+    private int[] defaultLevels;
+    private boolean[] restockable;
+    private int count;
+    //per product line of every order, with the lines of order n between orderStarts[n] and orderStarts[n+1]
+    private int[] lineProducts;
+    private int[] lineQuantities;
+    private int[] lineRestocked;
+    private int lineCount;
+    private int[] orderStarts;
+    private int orderCount;
+
+    /**
+     * @param stock the stock table of the warehouse the batch is filled from
+     * @param expectedOrders
+     */
+    protected BatchDemand(StockTable stock, int expectedOrders) {
+        int lines=Math.max(16,expectedOrders*2);
+        this.stock=stock;
+        this.indexByProduct=new IntIndex(lines);
+        this.productNumbers=new int[lines];
+        this.slots=new int[lines];
+        this.demand=new int[lines];
+        this.available=new int[lines];
+        this.defaultLevels=new int[lines];
+        this.restockable=new boolean[lines];
+        this.count=0;
+        this.lineProducts=new int[lines];
+        this.lineQuantities=new int[lines];
+        this.lineRestocked=new int[lines];
+        this.lineCount=0;
+        this.orderStarts=new int[expectedOrders+1];
+        this.orderCount=0;
+    }
+
+    /**
+     * Count the products in the next order of the batch towards the batch's demand
+     * @param order
+     */
+    protected void add(Order order) {
+        if(orderCount+1==orderStarts.length) {
+            orderStarts=Arrays.copyOf(orderStarts,orderStarts.length*2);
+        }
+        for(int line=0;line<order.productLineCount();line++) {
+            if(lineCount==lineProducts.length) {
+                lineProducts=Arrays.copyOf(lineProducts,lineCount*2);
+                lineQuantities=Arrays.copyOf(lineQuantities,lineCount*2);
+                lineRestocked=Arrays.copyOf(lineRestocked,lineCount*2);
+            }
+            int i=indexOf(order.productNumberAt(line));
+            int quantity=order.productQuantityAt(line);
+            lineProducts[lineCount]=i;
+            lineQuantities[lineCount]=quantity;
+            lineCount++;
+            demand[i]+=Math.max(quantity,0);
+        }
+        orderStarts[++orderCount]=lineCount;
+    }
+
+    /**
+     * Look up every product once and take as much of the batch's demand for it out of stock as is there
+     */
+    protected void claim() {
+        claim(false);
+    }
+
+    /**
+     * {@link #claim()} for the only thread that takes stock, see {@link StockTable#takeUpToAsOnlyTaker(int, int)}
+     */
+    protected void claimAsOnlyTaker() {
+        claim(true);
+    }
+
+    private void claim(boolean onlyTaker) {
+        for(int i=0;i<count;i++) {
+            int slot=stock.catalogSlotOf(productNumbers[i]);
+            slots[i]=slot;
+            if(slot==StockTable.NO_SLOT) {
+                continue;
+            }
+            available[i]=onlyTaker?stock.takeUpToAsOnlyTaker(slot,demand[i]):stock.takeUpTo(slot,demand[i]);
+            defaultLevels[i]=stock.getDefault(slot);
+            restockable[i]=!stock.isDoNotRestock(slot);
+        }
+    }
+
+    /**
+     * Take the products of one order of the batch out of the batch's stock, all or nothing, the way
+     {@link OrderManagementSystem#placeOrder(Order)} takes them out of the warehouse
+     * @param n the order's position in the batch
+     * @param reservation where the products taken are recorded, or the failing product if the order can't
+     be filled. The stock is already out of the warehouse, so the reservation must not be aborted once the
+     products are in it.
+     * @return {@link OrderOutcome#ACCEPTED} if every product was taken
+     */
+    protected OrderOutcome reserve(int n, OrderReservation reservation) {
+        int first=orderStarts[n];
+        int end=orderStarts[n+1];
+        //check everything first, like OrderManagementSystem.reserveProducts
+        for(int l=first;l<end;l++) {
+            int i=lineProducts[l];
+            if(slots[i]==StockTable.NO_SLOT) {
+                reservation.failedItem=productNumbers[i];
+                return OrderOutcome.UNKNOWN_PRODUCT;
+            }
+            if(available[i]<lineQuantities[l]&&!restockable[i]) {
+                reservation.failedItem=productNumbers[i];
+                return OrderOutcome.OUT_OF_STOCK;
+            }
+        }
+        for(int l=first;l<end;l++) {
+            if(!take(l)) {
+                reservation.failedItem=productNumbers[lineProducts[l]];
+                for(int undo=first;undo<l;undo++) {
+                    available[lineProducts[undo]]+=lineQuantities[undo];
+                    //restocking isn't undone, so it still has to be recorded
+                    if(lineRestocked[undo]>0) {
+                        reservation.addProduct(productNumbers[lineProducts[undo]],0,lineRestocked[undo]);
+                    }
+                }
+                return OrderOutcome.OUT_OF_STOCK;
+            }
+        }
+        for(int l=first;l<end;l++) {
+            reservation.addProduct(productNumbers[lineProducts[l]],lineQuantities[l],lineRestocked[l]);
+        }
+        return OrderOutcome.ACCEPTED;
+    }
+
+    /**
+     * Hand everything the batch didn't use back to the warehouse
+     */
+    protected void settle() {
+        for(int i=0;i<count;i++) {
+            if(slots[i]!=StockTable.NO_SLOT&&available[i]>0) {
+                stock.give(slots[i],available[i]);
+                available[i]=0;
+            }
+        }
+    }
+
+    /**
+     * same as {@link Warehouse#fulfillOrRestock(int, int)}, on the local count
+     */
+    private boolean take(int line) {
+        int i=lineProducts[line];
+        int quantity=lineQuantities[line];
+        lineRestocked[line]=0;
+        if(available[i]<quantity) {
+            //everything the warehouse had is already in the local count, so it is the current level
+            int target=restockable[i]?StockTable.restockTarget(available[i],defaultLevels[i],quantity):StockTable.NO_RESTOCK;
+            if(target==StockTable.NO_RESTOCK) {
+                return false;
+            }
+            lineRestocked[line]=target-available[i];
+            available[i]=target;
+        }
+        available[i]-=quantity;
+        return true;
+    }
+
+    private int indexOf(int productNumber) {
+        int i=indexByProduct.get(productNumber);
+        if(i!=IntIndex.ABSENT) {
+            return i;
+        }
+        i=count;
+        if(i==productNumbers.length) {
+            int length=i*2;
+            productNumbers=Arrays.copyOf(productNumbers,length);
+            slots=Arrays.copyOf(slots,length);
+            demand=Arrays.copyOf(demand,length);
+            available=Arrays.copyOf(available,length);
+            defaultLevels=Arrays.copyOf(defaultLevels,length);
+            restockable=Arrays.copyOf(restockable,length);
+        }
+        productNumbers[i]=productNumber;
+        indexByProduct.put(productNumber,i);
+        count++;
+        return i;
+    }
+}
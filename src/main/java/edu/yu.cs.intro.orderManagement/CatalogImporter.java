@@ -0,0 +1,803 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.IntStream;
+/**
+ * Builds a whole order management system from product, service and provider files, for loading large
+ catalogs at boot without building the sets for the constructor first.
+ * Every file is memory mapped and split into chunks that are parsed in parallel, and the warehouse's stock
+ table is then filled in one pass, the way a {@link Checkpoint} is loaded. Rows whose item number or id was
+ already seen are skipped and counted, not thrown for one by one.
+ * Each file is either CSV or the compact binary form written by {@link #writeProducts(Collection, Path)}
+ and friends, told apart by the binary form's magic number. CSV files have one row per line, lines starting
+ with # are comments:
+ * products: itemNumber,name,price - the name may contain commas
+ * services: itemNumber,pricePerHour,hours,description - the description may contain commas
+ * providers: id,name,serviceNumbers - the service numbers separated by spaces or semicolons, each of them
+ listed in the services file. The name may contain commas.
+ * The binary form is laid out like a checkpoint, big endian and column by column: magic, version, kind and
+ row count, then the numeric columns, the string lengths and all the strings as one block of UTF-8.
+ */
+public class CatalogImporter {
+    private static final int MAGIC=0x4F4D4349;
+    /**
+     * version of the binary layout
+     */
+    public static final int VERSION=1;
+    private static final byte PRODUCTS=1;
+    private static final byte SERVICES=2;
+    private static final byte PROVIDERS=3;
+    private static final int BUFFER_SIZE=1<<20;
+    /**
+     * smallest chunk worth handing to another thread
+     */
+    private static final int MIN_CHUNK=1<<18;
+    /**
+     * every power of ten a double holds exactly
+     */
+    private static final double[] POWERS_OF_TEN={1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9,1e10,1e11,1e12,1e13,
+            1e14,1e15,1e16,1e17,1e18,1e19,1e20,1e21,1e22};
+
+    /**
+     * What an import built, and how fast
+     */
+    public static class ImportReport {
+        private final OrderManagementSystem system;
+        private final int products;
+        private final int services;
+        private final int providers;
+        private final int duplicates;
+        private final long nanos;
+
+        private ImportReport(OrderManagementSystem system, int products, int services, int providers, int duplicates, long nanos) {
+            this.system=system;
+            this.products=products;
+            this.services=services;
+            this.providers=providers;
+            this.duplicates=duplicates;
+            this.nanos=nanos;
+        }
+
+        /**
+         * @return the system built from the files
+         */
+        public OrderManagementSystem getSystem() {
+            return this.system;
+        }
+
+        /**
+         * @return number of products imported
+         */
+        public int getProducts() {
+            return this.products;
+        }
+
+        /**
+         * @return number of services imported
+         */
+        public int getServices() {
+            return this.services;
+        }
+
+        /**
+         * @return number of providers imported
+         */
+        public int getProviders() {
+            return this.providers;
+        }
+
+        /**
+         * @return number of rows skipped because their item number or id was already imported
+         */
+        public int getDuplicates() {
+            return this.duplicates;
+        }
+
+        /**
+         * @return number of rows read from all three files, duplicates included
+         */
+        public long getRows() {
+            return (long)products+services+providers+duplicates;
+        }
+
+        /**
+         * @return time the whole import took, reading the files included
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        /**
+         * @return rows read per second
+         */
+        public double getRowsPerSecond() {
+            return nanos==0?0:getRows()*1e9/nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("imported %d products, %d services, %d providers (%d duplicates skipped) in %.1f ms, %.0f rows/s",
+                    products,services,providers,duplicates,nanos/1e6,getRowsPerSecond());
+        }
+    }
+
+    /**
+     * Build a system from the given files. Every product is stocked at the default stock level, and the
+     business offers every service that one of the providers offers.
+     * @param products
+     * @param services
+     * @param providers
+     * @param defaultProductStockLevel
+     * @return the system, with how many rows were imported and how fast
+     * @throws IllegalArgumentException if a file has a malformed row, a provider offers a service that isn't
+     in the services file, or a binary file has the wrong kind of rows, an unknown layout version, or is
+     truncated or corrupt
+     */
+    public static ImportReport importCatalog(Path products, Path services, Path providers,
+                                             int defaultProductStockLevel) throws IllegalArgumentException {
+        long start=System.nanoTime();
+        Rows productRows=read(products,PRODUCTS);
+        Rows serviceRows=read(services,SERVICES);
+        Rows providerRows=read(providers,PROVIDERS);
+        int duplicates=0;
+        //products, first one wins
+        IntIndex seen=new IntIndex(Math.max(productRows.count,16));
+        Product[] stocked=new Product[productRows.count];
+        int productCount=0;
+        for(int i=0;i<productRows.count;i++) {
+            if(seen.containsKey(productRows.numbers[i])) {
+                duplicates++;
+                continue;
+            }
+            seen.put(productRows.numbers[i],productCount);
+            stocked[productCount++]=new Product(productRows.names[i],productRows.prices[i],productRows.numbers[i]);
+        }
+        int[] levels=new int[productCount];
+        Arrays.fill(levels,defaultProductStockLevel);
+        boolean[] inCatalog=new boolean[productCount];
+        Arrays.fill(inCatalog,true);
+        Warehouse warehouse=new Warehouse(productCount,false);
+        warehouse.stock.restore(stocked,levels,levels.clone(),inCatalog,new boolean[productCount],productCount);
+        //services, by item number
+        IntIndex serviceIndex=new IntIndex(Math.max(serviceRows.count,16));
+        Service[] offered=new Service[serviceRows.count];
+        int serviceCount=0;
+        for(int i=0;i<serviceRows.count;i++) {
+            if(serviceIndex.containsKey(serviceRows.numbers[i])) {
+                duplicates++;
+                continue;
+            }
+            serviceIndex.put(serviceRows.numbers[i],serviceCount);
+            offered[serviceCount++]=new Service(serviceRows.prices[i],serviceRows.hours[i],serviceRows.numbers[i],serviceRows.names[i]);
+        }
+        //providers, with their services looked up by item number
+        IntIndex providerIds=new IntIndex(Math.max(providerRows.count,16));
+        Set<ServiceProvider> staff=new HashSet<>(Math.max(16,(int)(providerRows.count/.75f)+1));
+        for(int i=0;i<providerRows.count;i++) {
+            int id=providerRows.numbers[i];
+            if(providerIds.containsKey(id)) {
+                duplicates++;
+                continue;
+            }
+            providerIds.put(id,i);
+            int from=providerRows.refStarts[i];
+            int to=providerRows.refStarts[i+1];
+            Set<Service> offers=new HashSet<>(Math.max(4,(int)((to-from)/.75f)+1));
+            for(int r=from;r<to;r++) {
+                int s=serviceIndex.get(providerRows.refs[r]);
+                if(s==IntIndex.ABSENT) {
+                    throw new IllegalArgumentException("provider "+id+" offers service "+providerRows.refs[r]+", which isn't in "+services);
+                }
+                offers.add(offered[s]);
+            }
+            staff.add(new ServiceProvider(providerRows.names[i],id,offers));
+        }
+        //the warehouse is already stocked, so the constructor only has the providers to go through
+        OrderManagementSystem system=new OrderManagementSystem(Collections.emptySet(),defaultProductStockLevel,staff,warehouse);
+        return new ImportReport(system,productCount,serviceCount,staff.size(),duplicates,System.nanoTime()-start);
+    }
+
+    /**
+     * Write products in the binary form
+     * @param products
+     * @param file
+     */
+    public static void writeProducts(Collection<Product> products, Path file) {
+        int count=products.size();
+        int[] numbers=new int[count];
+        double[] prices=new double[count];
+        String[] names=new String[count];
+        int i=0;
+        for(Product p:products) {
+            numbers[i]=p.getItemNumber();
+            prices[i]=p.getPrice();
+            names[i++]=p.getDescription();
+        }
+        try(Out out=new Out(file,PRODUCTS,count)) {
+            out.putInts(numbers);
+            out.putDoubles(prices);
+            out.putStrings(names);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write services in the binary form
+     * @param services
+     * @param file
+     */
+    public static void writeServices(Collection<Service> services, Path file) {
+        int count=services.size();
+        int[] numbers=new int[count];
+        double[] prices=new double[count];
+        int[] hours=new int[count];
+        String[] descriptions=new String[count];
+        int i=0;
+        for(Service s:services) {
+            numbers[i]=s.getItemNumber();
+            prices[i]=s.getPricePerHour();
+            hours[i]=s.getNumberOfHours();
+            descriptions[i++]=s.getDescription();
+        }
+        try(Out out=new Out(file,SERVICES,count)) {
+            out.putInts(numbers);
+            out.putDoubles(prices);
+            out.putInts(hours);
+            out.putStrings(descriptions);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write providers in the binary form, referring to their services by item number
+     * @param providers
+     * @param file
+     */
+    public static void writeProviders(Collection<ServiceProvider> providers, Path file) {
+        int count=providers.size();
+        int[] ids=new int[count];
+        int[] serviceCounts=new int[count];
+        String[] names=new String[count];
+        int refCount=0;
+        for(ServiceProvider sp:providers) {
+            refCount+=sp.services.size();
+        }
+        int[] refs=new int[refCount];
+        int i=0;
+        int r=0;
+        for(ServiceProvider sp:providers) {
+            ids[i]=sp.getId();
+            serviceCounts[i]=sp.services.size();
+            names[i++]=sp.getName();
+            for(Service s:sp.services) {
+                refs[r++]=s.getItemNumber();
+            }
+        }
+        try(Out out=new Out(file,PROVIDERS,count)) {
+            out.putInts(ids);
+            out.putInts(serviceCounts);
+            out.putInt(refCount);
+            out.putInts(refs);
+            out.putStrings(names);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Rows read(Path file, byte kind) {
+        ByteBuffer in;
+        try(FileChannel channel=FileChannel.open(file,StandardOpenOption.READ)) {
+            if(channel.size()>Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file+" is too large to import");
+            }
+            in=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(in.remaining()>=4&&in.getInt(0)==MAGIC) {
+            return readBinary(file,in,kind);
+        }
+        return readCsv(file,in,kind);
+    }
+
+    /**
+     * Split the file into chunks that end at line breaks, parse them in parallel and join the results
+     */
+    private static Rows readCsv(Path file, ByteBuffer in, byte kind) {
+        int size=in.limit();
+        int chunks=Math.max(1,Math.min(size/MIN_CHUNK,Runtime.getRuntime().availableProcessors()*4));
+        int[] starts=new int[chunks+1];
+        for(int c=1;c<chunks;c++) {
+            int at=Math.max(starts[c-1],(int)((long)size*c/chunks));
+            while(at<size&&in.get(at)!='\n') {
+                at++;
+            }
+            starts[c]=Math.min(size,at+1);
+        }
+        starts[chunks]=size;
+        Rows[] parts=new Rows[chunks];
+        IntStream.range(0,chunks).parallel().forEach(c->{
+            byte[] bytes=new byte[starts[c+1]-starts[c]];
+            ByteBuffer chunk=in.duplicate();
+            chunk.position(starts[c]);
+            chunk.get(bytes);
+            parts[c]=parseCsv(file,bytes,starts[c],kind);
+        });
+        return Rows.join(parts,kind);
+    }
+
+    private static Rows parseCsv(Path file, byte[] bytes, long offset, byte kind) {
+        Rows rows=new Rows(kind,Math.max(16,bytes.length/32));
+        int line=0;
+        while(line<bytes.length) {
+            int end=line;
+            while(end<bytes.length&&bytes[end]!='\n') {
+                end++;
+            }
+            int next=end+1;
+            if(end>line&&bytes[end-1]=='\r') {
+                end--;
+            }
+            int from=skipSpaces(bytes,line,end);
+            if(from<end&&bytes[from]!='#') {
+                try {
+                    parseRow(bytes,from,end,kind,rows);
+                }catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("malformed row at byte "+(offset+line)+" of "+file+": "+
+                            new String(bytes,line,end-line,StandardCharsets.UTF_8));
+                }
+            }
+            line=next;
+        }
+        return rows;
+    }
+
+    private static void parseRow(byte[] b, int from, int end, byte kind, Rows rows) throws NumberFormatException {
+        int first=indexOf(b,from,end,(byte)',');
+        if(first<0) {
+            throw new NumberFormatException();
+        }
+        int number=parseInt(b,from,first);
+        if(kind==SERVICES) {
+            int second=indexOf(b,first+1,end,(byte)',');
+            int third=second<0?-1:indexOf(b,second+1,end,(byte)',');
+            if(third<0) {
+                throw new NumberFormatException();
+            }
+            rows.addService(number,parseDouble(b,first+1,second),parseInt(b,second+1,third),utf8(b,third+1,end));
+            return;
+        }
+        int last=lastIndexOf(b,first+1,end,(byte)',');
+        if(last<0) {
+            throw new NumberFormatException();
+        }
+        if(kind==PRODUCTS) {
+            rows.addProduct(number,utf8(b,first+1,last),parseDouble(b,last+1,end));
+            return;
+        }
+        rows.startProvider(number,utf8(b,first+1,last));
+        int at=last+1;
+        while(at<end) {
+            while(at<end&&(b[at]==' '||b[at]==';'||b[at]=='\t')) {
+                at++;
+            }
+            int stop=at;
+            while(stop<end&&b[stop]!=' '&&b[stop]!=';'&&b[stop]!='\t') {
+                stop++;
+            }
+            if(stop>at) {
+                rows.addRef(parseInt(b,at,stop));
+            }
+            at=stop;
+        }
+    }
+
+    /**
+     * Every length in the file is checked against what is left of it before it is used, so a truncated or
+     corrupted file fails with an IllegalArgumentException rather than whatever reading past its end throws
+     */
+    private static Rows readBinary(Path file, ByteBuffer in, byte kind) {
+        in.position(4);
+        need(file,in,5);
+        int version=in.getInt();
+        if(version!=VERSION) {
+            throw new IllegalArgumentException("unsupported import file version "+version+" in "+file);
+        }
+        if(in.get()!=kind) {
+            throw new IllegalArgumentException(file+" doesn't hold "+(kind==PRODUCTS?"products":kind==SERVICES?"services":"providers"));
+        }
+        int count=getCount(file,in);
+        Rows rows=new Rows(kind,0);
+        rows.count=count;
+        rows.numbers=getInts(file,in,count);
+        if(kind==PRODUCTS||kind==SERVICES) {
+            need(file,in,count*8L);
+            rows.prices=new double[count];
+            in.asDoubleBuffer().get(rows.prices);
+            in.position(in.position()+count*8);
+        }
+        if(kind==SERVICES) {
+            rows.hours=getInts(file,in,count);
+        }
+        if(kind==PROVIDERS) {
+            int[] serviceCounts=getInts(file,in,count);
+            rows.refStarts=new int[count+1];
+            long refs=0;
+            for(int i=0;i<count;i++) {
+                if(serviceCounts[i]<0) {
+                    throw new IllegalArgumentException("negative service count for provider "+i+" in "+file);
+                }
+                refs+=serviceCounts[i];
+                rows.refStarts[i+1]=(int)Math.min(refs,Integer.MAX_VALUE);
+            }
+            rows.refCount=getCount(file,in);
+            if(refs!=rows.refCount) {
+                throw new IllegalArgumentException("provider service counts add up to "+refs+", not "+rows.refCount+", in "+file);
+            }
+            rows.refs=getInts(file,in,rows.refCount);
+        }
+        rows.names=getStrings(file,in,count);
+        return rows;
+    }
+
+    /**
+     * @throws IllegalArgumentException if fewer than the given number of bytes are left in the file
+     */
+    private static void need(Path file, ByteBuffer in, long bytes) throws IllegalArgumentException {
+        if(in.remaining()<bytes) {
+            throw new IllegalArgumentException(file+" is truncated or corrupt: "+bytes+" bytes needed at byte "+in.position()
+                    +", "+in.remaining()+" left");
+        }
+    }
+
+    private static int getCount(Path file, ByteBuffer in) throws IllegalArgumentException {
+        need(file,in,4);
+        int count=in.getInt();
+        if(count<0) {
+            throw new IllegalArgumentException(file+" is corrupt: negative count "+count+" at byte "+(in.position()-4));
+        }
+        return count;
+    }
+
+    private static int[] getInts(Path file, ByteBuffer in, int count) throws IllegalArgumentException {
+        need(file,in,count*4L);
+        int[] values=new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position()+count*4);
+        return values;
+    }
+
+    /**
+     * Read the string lengths and the block of UTF-8 they index into, and decode the strings in parallel
+     */
+    private static String[] getStrings(Path file, ByteBuffer in, int count) throws IllegalArgumentException {
+        need(file,in,count*2L);
+        short[] lengths=new short[count];
+        in.asShortBuffer().get(lengths);
+        in.position(in.position()+count*2);
+        int size=getCount(file,in);
+        need(file,in,size);
+        byte[] block=new byte[size];
+        in.get(block);
+        int[] starts=new int[count+1];
+        long total=0;
+        for(int i=0;i<count;i++) {
+            total+=lengths[i]&0xFFFF;
+            if(total>size) {
+                throw new IllegalArgumentException(file+" is corrupt: names run past the "+size+" bytes that hold them");
+            }
+            starts[i+1]=(int)total;
+        }
+        String[] strings=new String[count];
+        int chunk=Math.max(4096,count/(Runtime.getRuntime().availableProcessors()*4)+1);
+        IntStream.range(0,(count+chunk-1)/chunk).parallel().forEach(c->{
+            for(int i=c*chunk;i<Math.min(count,(c+1)*chunk);i++) {
+                strings[i]=new String(block,starts[i],starts[i+1]-starts[i],StandardCharsets.UTF_8);
+            }
+        });
+        return strings;
+    }
+
+    private static int parseInt(byte[] b, int from, int to) throws NumberFormatException {
+        from=skipSpaces(b,from,to);
+        to=trimSpaces(b,from,to);
+        boolean negative=from<to&&b[from]=='-';
+        int at=negative?from+1:from;
+        if(at==to||to-at>10) {
+            throw new NumberFormatException();
+        }
+        long value=0;
+        for(;at<to;at++) {
+            int digit=b[at]-'0';
+            if(digit<0||digit>9) {
+                throw new NumberFormatException();
+            }
+            value=value*10+digit;
+        }
+        value=negative?-value:value;
+        if(value<Integer.MIN_VALUE||value>Integer.MAX_VALUE) {
+            throw new NumberFormatException();
+        }
+        return (int)value;
+    }
+
+    /**
+     * Plain decimals of up to 15 digits are parsed without allocating, and are exact: both the digits and
+     the power of ten are doubles without rounding, so the one division rounds correctly. Anything else goes
+     to Double.parseDouble.
+     */
+    private static double parseDouble(byte[] b, int from, int to) throws NumberFormatException {
+        from=skipSpaces(b,from,to);
+        to=trimSpaces(b,from,to);
+        boolean negative=from<to&&b[from]=='-';
+        int at=negative?from+1:from;
+        long digits=0;
+        int count=0;
+        int decimals=-1;
+        for(;at<to;at++) {
+            byte c=b[at];
+            if(c=='.'&&decimals<0) {
+                decimals=0;
+                continue;
+            }
+            if(c<'0'||c>'9'||count==15) {
+                return Double.parseDouble(new String(b,from,to-from,StandardCharsets.ISO_8859_1));
+            }
+            digits=digits*10+(c-'0');
+            count++;
+            if(decimals>=0) {
+                decimals++;
+            }
+        }
+        if(count==0) {
+            throw new NumberFormatException();
+        }
+        double value=decimals>0?digits/POWERS_OF_TEN[decimals]:digits;
+        return negative?-value:value;
+    }
+
+    private static String utf8(byte[] b, int from, int to) {
+        return new String(b,from,to-from,StandardCharsets.UTF_8);
+    }
+
+    private static int skipSpaces(byte[] b, int from, int to) {
+        while(from<to&&(b[from]==' '||b[from]=='\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimSpaces(byte[] b, int from, int to) {
+        while(to>from&&(b[to-1]==' '||b[to-1]=='\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte c) {
+        for(int i=from;i<to;i++) {
+            if(b[i]==c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] b, int from, int to, byte c) {
+        for(int i=to-1;i>=from;i--) {
+            if(b[i]==c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The rows of one file, or one chunk of it, column by column. Providers' service numbers are kept in one
+     array, provider i's running from refStarts[i] to refStarts[i+1].
+     */
+    private static final class Rows {
+        private final byte kind;
+        private int count;
+        private int[] numbers;
+        private double[] prices;
+        private int[] hours;
+        private String[] names;
+        private int[] refStarts;
+        private int[] refs;
+        private int refCount;
+
+        private Rows(byte kind, int capacity) {
+            this.kind=kind;
+            this.numbers=new int[capacity];
+            this.names=new String[capacity];
+            if(kind!=PROVIDERS) {
+                this.prices=new double[capacity];
+            }
+            if(kind==SERVICES) {
+                this.hours=new int[capacity];
+            }
+            if(kind==PROVIDERS) {
+                this.refStarts=new int[capacity+1];
+                this.refs=new int[Math.max(capacity,16)];
+            }
+        }
+
+        private void addProduct(int number, String name, double price) {
+            ensure();
+            numbers[count]=number;
+            names[count]=name;
+            prices[count++]=price;
+        }
+
+        private void addService(int number, double pricePerHour, int hours, String description) {
+            ensure();
+            numbers[count]=number;
+            prices[count]=pricePerHour;
+            this.hours[count]=hours;
+            names[count++]=description;
+        }
+
+        private void startProvider(int id, String name) {
+            ensure();
+            numbers[count]=id;
+            names[count++]=name;
+            refStarts[count]=refCount;
+        }
+
+        private void addRef(int serviceNumber) {
+            if(refCount==refs.length) {
+                refs=Arrays.copyOf(refs,refCount*2);
+            }
+            refs[refCount++]=serviceNumber;
+            refStarts[count]=refCount;
+        }
+
+        private void ensure() {
+            if(count<numbers.length) {
+                return;
+            }
+            int capacity=Math.max(16,count*2);
+            numbers=Arrays.copyOf(numbers,capacity);
+            names=Arrays.copyOf(names,capacity);
+            if(prices!=null) {
+                prices=Arrays.copyOf(prices,capacity);
+            }
+            if(hours!=null) {
+                hours=Arrays.copyOf(hours,capacity);
+            }
+            if(refStarts!=null) {
+                refStarts=Arrays.copyOf(refStarts,capacity+1);
+            }
+        }
+
+        /**
+         * @return the rows of all the parts, in order
+         */
+        private static Rows join(Rows[] parts, byte kind) {
+            if(parts.length==1) {
+                return parts[0];
+            }
+            int count=0;
+            int refCount=0;
+            for(Rows part:parts) {
+                count+=part.count;
+                refCount+=part.refCount;
+            }
+            Rows rows=new Rows(kind,count);
+            if(kind==PROVIDERS) {
+                rows.refs=new int[refCount];
+            }
+            for(Rows part:parts) {
+                System.arraycopy(part.numbers,0,rows.numbers,rows.count,part.count);
+                System.arraycopy(part.names,0,rows.names,rows.count,part.count);
+                if(part.prices!=null) {
+                    System.arraycopy(part.prices,0,rows.prices,rows.count,part.count);
+                }
+                if(part.hours!=null) {
+                    System.arraycopy(part.hours,0,rows.hours,rows.count,part.count);
+                }
+                if(kind==PROVIDERS) {
+                    for(int i=1;i<=part.count;i++) {
+                        rows.refStarts[rows.count+i]=rows.refCount+part.refStarts[i];
+                    }
+                    System.arraycopy(part.refs,0,rows.refs,rows.refCount,part.refCount);
+                    rows.refCount+=part.refCount;
+                }
+                rows.count+=part.count;
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Writes a binary import file through one buffer, header first
+     */
+    private static final class Out implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        private Out(Path file, byte kind, int count) throws IOException {
+            this.channel=FileChannel.open(file,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer=ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.put(kind);
+            buffer.putInt(count);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if(buffer.remaining()<bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putInts(int[] values) throws IOException {
+            for(int v:values) {
+                putInt(v);
+            }
+        }
+
+        private void putDoubles(double[] values) throws IOException {
+            for(double v:values) {
+                ensure(8);
+                buffer.putDouble(v);
+            }
+        }
+
+        private void putStrings(String[] strings) throws IOException {
+            byte[][] bytes=new byte[strings.length][];
+            long total=0;
+            for(int i=0;i<strings.length;i++) {
+                bytes[i]=strings[i]==null?new byte[0]:strings[i].getBytes(StandardCharsets.UTF_8);
+                if(bytes[i].length>0xFFFF) {
+                    throw new IllegalArgumentException("name too long for an import file");
+                }
+                total+=bytes[i].length;
+                ensure(2);
+                buffer.putShort((short)bytes[i].length);
+            }
+            if(total>Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("names too large for an import file");
+            }
+            putInt((int)total);
+            for(byte[] b:bytes) {
+                for(int at=0;at<b.length;) {
+                    ensure(1);
+                    int n=Math.min(buffer.remaining(),b.length-at);
+                    buffer.put(b,at,n);
+                    at+=n;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            }finally {
+                channel.close();
+            }
+        }
+    }
+}
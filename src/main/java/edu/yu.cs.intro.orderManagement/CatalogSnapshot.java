@@ -0,0 +1,66 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * Immutable view of what a business sells at one point in time: the products in its catalog and the services
+ it offers. Readers can hold on to a snapshot and read it from any thread without locking; changes made to
+ the business after it was taken are not in it.
+ * A new snapshot, with a higher version, is only made when a product or service is added or a service
+ stops being offered, so as long as neither happens every reader gets the same one.
+ */
+public class CatalogSnapshot {
+    private final long version;
+    private final Set<Product> products;
+    private final Set<Service> services;
+    private final Set<Product> productsView;
+    private final Set<Service> servicesView;
+
+    /**
+     * @param version
+     * @param products the products in the catalog, which must not be changed afterwards
+     * @param services the services on offer, which must not be changed afterwards
+     */
+    protected CatalogSnapshot(long version, Set<Product> products, Set<Service> services) {
+        this.version=version;
+        this.products=products;
+        this.services=services;
+        this.productsView=Collections.unmodifiableSet(products);
+        this.servicesView=Collections.unmodifiableSet(services);
+    }
+
+    /**
+     * @return the version of the catalog, which goes up every time the products or services on offer change
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return read only set of the products in the catalog, whether or not they are in stock
+     */
+    public Set<Product> getProducts() {
+        return this.productsView;
+    }
+
+    /**
+     * @return read only set of the services on offer
+     */
+    public Set<Service> getServices() {
+        return this.servicesView;
+    }
+
+    /**
+     * @param services the services on offer now
+     * @return a snapshot with the same products and the given services, one version later
+     */
+    protected CatalogSnapshot withServices(Set<Service> services) {
+        return new CatalogSnapshot(version+1,products,services);
+    }
+
+    /**
+     * @param products the products in the catalog now
+     * @return a snapshot with the same services and the given products, one version later
+     */
+    protected CatalogSnapshot withProducts(Set<Product> products) {
+        return new CatalogSnapshot(version+1,products,services);
+    }
+}
@@ -0,0 +1,388 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+/**
+ * Binary snapshot of a whole order management system: the warehouse's stock table slot by slot (product,
+ actual and default stock level, catalog and do not restock flags), the services on offer and the ones that
+ were discontinued, every service provider with its services, and who is busy since which order.
+ * Loading a checkpoint fills the stock table in one pass, in slot order, instead of adding the products one
+ at a time, so even a catalog of millions of products loads in a fraction of a second.
+ * Layout, all big endian: magic, version, default stock level, order sequence, then the slots, then a table
+ of every distinct service, then the offered and discontinued services and the providers, which refer to
+ services by their position in that table. The slots are stored column by column (item numbers, prices,
+ stock levels, default levels, flags, name lengths, then all the names as one block of UTF-8), so loading them
+ is a handful of bulk copies. Other strings are a short length followed by UTF-8 bytes. The file ends with
+ a crc32c of everything before it, so a damaged checkpoint is refused instead of loaded as a different state.
+ * A checkpoint should be written while no orders are being placed. Providers are copied under the service
+ lock, but stock levels are read as they are at the moment each slot is copied.
+ */
+public class Checkpoint {
+    private static final int MAGIC=0x4F4D5343;
+    /**
+     * version of the layout written by {@link #write(OrderManagementSystem, Path)}
+     */
+    public static final int VERSION=2;
+    private static final int BUFFER_SIZE=1<<20;
+    private static final long FREE=-1;
+    private static final byte IN_CATALOG=1;
+    private static final byte DO_NOT_RESTOCK=2;
+
+    /**
+     * Write a checkpoint of the system to the given file, replacing it if it exists. The checkpoint is
+     written to a temporary file next to it first, so a crash never leaves half a checkpoint behind.
+     * @param system
+     * @param file
+     */
+    public static void write(OrderManagementSystem system, Path file) {
+        //the sequencer that owns the system changes it without the lock, so it has to write the checkpoint
+        OrderSequencer owner=system.owner();
+        if(owner!=null) {
+            owner.call(()->{
+                write(system,file);
+                return null;
+            });
+            return;
+        }
+        Path partial=file.resolveSibling(file.getFileName()+".partial");
+        try(FileChannel channel=FileChannel.open(partial,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out=new Out(channel);
+            synchronized(system.serviceLock) {
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(system.defaultProductStockLevel);
+                out.putLong(system.schedule.getSequence());
+                putSlots(out,system.warehouse.stock);
+                //every service once, everything else refers to them by position
+                Map<Service, Integer> services=new LinkedHashMap<>();
+                for(Service s:system.servicesProvidedByBusiness) {
+                    services.putIfAbsent(s,services.size());
+                }
+                for(Service s:system.doNotOffer) {
+                    services.putIfAbsent(s,services.size());
+                }
+                for(ServiceProvider sp:system.serviceProviders) {
+                    for(Service s:sp.services) {
+                        services.putIfAbsent(s,services.size());
+                    }
+                }
+                out.putInt(services.size());
+                for(Service s:services.keySet()) {
+                    byte[] description=utf8(s.getDescription());
+                    out.ensure(4+8+4+2+description.length);
+                    out.buffer.putInt(s.getItemNumber());
+                    out.buffer.putDouble(s.getPricePerHour());
+                    out.buffer.putInt(s.getNumberOfHours());
+                    out.putString(description);
+                }
+                putServiceRefs(out,system.servicesProvidedByBusiness,services);
+                putServiceRefs(out,system.doNotOffer,services);
+                out.putInt(system.serviceProviders.size());
+                for(ServiceProvider sp:system.serviceProviders) {
+                    byte[] name=utf8(sp.getName());
+                    out.ensure(4+2+name.length+8);
+                    out.buffer.putInt(sp.getId());
+                    out.putString(name);
+                    out.buffer.putLong(sp.busy?sp.engagedAt:FREE);
+                    putServiceRefs(out,sp.services,services);
+                }
+            }
+            out.putInt((int)out.checksum());
+            out.flush();
+            channel.force(false);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(partial,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Build a new system from a checkpoint
+     * @param file
+     * @return the system, in the state it was in when the checkpoint was written
+     * @throws IllegalArgumentException if the file isn't a checkpoint, was written with a layout version this
+     code doesn't know, or is truncated or corrupt
+     */
+    public static OrderManagementSystem load(Path file) throws IllegalArgumentException {
+        ByteBuffer in;
+        try(FileChannel channel=FileChannel.open(file,StandardOpenOption.READ)) {
+            in=channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if(in.remaining()<8||in.getInt()!=MAGIC) {
+            throw new IllegalArgumentException(file+" is not a checkpoint");
+        }
+        int version=in.getInt();
+        if(version!=VERSION) {
+            throw new IllegalArgumentException("unsupported checkpoint version "+version);
+        }
+        if(in.remaining()<4) {
+            throw new IllegalArgumentException(file+" is truncated");
+        }
+        int end=in.limit()-4;
+        CRC32C crc=new CRC32C();
+        crc.update(in.duplicate().position(0).limit(end));
+        if(in.getInt(end)!=(int)crc.getValue()) {
+            throw new IllegalArgumentException(file+" is truncated or corrupt");
+        }
+        in.limit(end);
+        try {
+            OrderManagementSystem system=load(in);
+            if(in.hasRemaining()) {
+                throw new IllegalArgumentException(in.remaining()+" unexpected bytes at the end");
+            }
+            return system;
+        }catch(BufferUnderflowException|IndexOutOfBoundsException|NegativeArraySizeException e) {
+            //the checksum matched, so the file was written this way, but it still isn't loaded as anything else
+            throw new IllegalArgumentException(file+" is truncated or corrupt",e);
+        }
+    }
+
+    private static OrderManagementSystem load(ByteBuffer in) {
+        int defaultProductStockLevel=in.getInt();
+        long orderSequence=in.getLong();
+        Warehouse warehouse=getSlots(in);
+        Service[] services=new Service[in.getInt()];
+        for(int i=0;i<services.length;i++) {
+            int itemNumber=in.getInt();
+            double pricePerHour=in.getDouble();
+            int hours=in.getInt();
+            services[i]=new Service(pricePerHour,hours,itemNumber,getString(in));
+        }
+        Set<Service> offered=getServiceRefs(in,services);
+        Set<Service> doNotOffer=getServiceRefs(in,services);
+        int providerCount=in.getInt();
+        Set<ServiceProvider> providers=new HashSet<>();
+        Map<Integer, Long> engagedAt=new HashMap<>();
+        for(int i=0;i<providerCount;i++) {
+            int id=in.getInt();
+            String name=getString(in);
+            long since=in.getLong();
+            providers.add(new ServiceProvider(name,id,getServiceRefs(in,services)));
+            if(since!=FREE) {
+                engagedAt.put(id,since);
+            }
+        }
+        //the warehouse is already stocked, so the constructor only has the providers to go through
+        OrderManagementSystem system=new OrderManagementSystem(Collections.emptySet(),defaultProductStockLevel,providers,warehouse);
+        system.servicesProvidedByBusiness.clear();
+        system.servicesProvidedByBusiness.addAll(offered);
+        synchronized(system.serviceLock) {
+            system.publishServices();
+        }
+        system.doNotOffer.addAll(doNotOffer);
+        for(Service s:doNotOffer) {
+            system.items.register(s);
+        }
+        system.restoreEngagements(orderSequence,engagedAt);
+        return system;
+    }
+
+    private static void putSlots(Out out, StockTable stock) throws IOException {
+        int slots=stock.size();
+        //one pass over the table, so each slot's columns agree with each other
+        int[] itemNumbers=new int[slots];
+        double[] prices=new double[slots];
+        int[] actual=new int[slots];
+        int[] defaultLevels=new int[slots];
+        byte[] flags=new byte[slots];
+        byte[][] names=new byte[slots][];
+        for(int slot=0;slot<slots;slot++) {
+            Product p=stock.productAt(slot);
+            itemNumbers[slot]=p.getItemNumber();
+            prices[slot]=p.getPrice();
+            names[slot]=utf8(p.getDescription());
+            actual[slot]=stock.getActual(slot);
+            defaultLevels[slot]=stock.getDefault(slot);
+            flags[slot]=(byte)((stock.isInCatalog(slot)?IN_CATALOG:0)|(stock.isDoNotRestock(slot)?DO_NOT_RESTOCK:0));
+        }
+        out.putInt(slots);
+        for(int i=0;i<slots;i++) {
+            out.putInt(itemNumbers[i]);
+        }
+        for(int i=0;i<slots;i++) {
+            out.putDouble(prices[i]);
+        }
+        for(int i=0;i<slots;i++) {
+            out.putInt(actual[i]);
+        }
+        for(int i=0;i<slots;i++) {
+            out.putInt(defaultLevels[i]);
+        }
+        for(int i=0;i<slots;i++) {
+            out.putByte(flags[i]);
+        }
+        long nameBytes=0;
+        for(int i=0;i<slots;i++) {
+            out.putShort((short)names[i].length);
+            nameBytes+=names[i].length;
+        }
+        if(nameBytes>Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("product names too large for a checkpoint");
+        }
+        out.putInt((int)nameBytes);
+        for(int i=0;i<slots;i++) {
+            out.putBytes(names[i]);
+        }
+    }
+
+    private static Warehouse getSlots(ByteBuffer in) {
+        int slots=in.getInt();
+        int[] itemNumbers=new int[slots];
+        in.asIntBuffer().get(itemNumbers);
+        in.position(in.position()+slots*4);
+        double[] prices=new double[slots];
+        in.asDoubleBuffer().get(prices);
+        in.position(in.position()+slots*8);
+        int[] actual=new int[slots];
+        in.asIntBuffer().get(actual);
+        in.position(in.position()+slots*4);
+        int[] defaultLevels=new int[slots];
+        in.asIntBuffer().get(defaultLevels);
+        in.position(in.position()+slots*4);
+        byte[] flags=new byte[slots];
+        in.get(flags);
+        short[] nameLengths=new short[slots];
+        in.asShortBuffer().get(nameLengths);
+        in.position(in.position()+slots*2);
+        byte[] names=new byte[in.getInt()];
+        in.get(names);
+        Product[] products=new Product[slots];
+        boolean[] inCatalog=new boolean[slots];
+        boolean[] doNotRestock=new boolean[slots];
+        int nameStart=0;
+        for(int i=0;i<slots;i++) {
+            int length=nameLengths[i]&0xFFFF;
+            products[i]=new Product(new String(names,nameStart,length,StandardCharsets.UTF_8),prices[i],itemNumbers[i]);
+            nameStart+=length;
+            inCatalog[i]=(flags[i]&IN_CATALOG)!=0;
+            doNotRestock[i]=(flags[i]&DO_NOT_RESTOCK)!=0;
+        }
+        Warehouse warehouse=new Warehouse(slots,false);
+        warehouse.stock.restore(products,actual,defaultLevels,inCatalog,doNotRestock,slots);
+        return warehouse;
+    }
+
+    private static void putServiceRefs(Out out, Set<Service> set, Map<Service, Integer> services) throws IOException {
+        out.putInt(set.size());
+        for(Service s:set) {
+            out.putInt(services.get(s));
+        }
+    }
+
+    private static Set<Service> getServiceRefs(ByteBuffer in, Service[] services) {
+        int count=in.getInt();
+        Set<Service> set=new HashSet<>();
+        for(int i=0;i<count;i++) {
+            set.add(services[in.getInt()]);
+        }
+        return set;
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes=s==null?new byte[0]:s.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length>0xFFFF) {
+            throw new IllegalArgumentException("name too long for a checkpoint");
+        }
+        return bytes;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] s=new byte[in.getShort()&0xFFFF];
+        in.get(s);
+        return new String(s,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffers writes to the checkpoint file, handing the buffer to the channel whenever it fills up
+     */
+    private static final class Out {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32C crc;
+
+        private Out(FileChannel channel) {
+            this.channel=channel;
+            this.buffer=ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.crc=new CRC32C();
+        }
+
+        /**
+         * crc32c of everything put so far, which hands the buffer to the channel first
+         */
+        private long checksum() throws IOException {
+            flush();
+            return crc.getValue();
+        }
+
+        /**
+         * make room for the given number of bytes, which must be no more than the buffer holds
+         */
+        private void ensure(int bytes) throws IOException {
+            if(bytes>BUFFER_SIZE) {
+                throw new IllegalArgumentException("checkpoint entry of "+bytes+" bytes is too large");
+            }
+            if(buffer.remaining()<bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        private void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        private void putShort(short value) throws IOException {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        private void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * the caller has made room already
+         */
+        private void putString(byte[] s) {
+            buffer.putShort((short)s.length);
+            buffer.put(s);
+        }
+    }
+}
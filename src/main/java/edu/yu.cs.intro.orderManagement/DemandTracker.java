@@ -0,0 +1,378 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * Tracks how many units of each product orders take, so default stock levels can follow demand: products
+ that sell fast get a default level high enough that orders don't keep having to restock them inline, and
+ products that hardly sell stop tying up stock.
+ * Demand is counted in a count-min sketch, four rows of counters where each product is hashed to one counter
+ per row and its estimate is the smallest of them, so the memory used is fixed however big the catalog is and
+ an estimate is never below the true count. The sketch is split into blocks of one cache line, and a product's
+ four counters are all in the same block, so counting a product touches one line. The products with the
+ highest estimates are kept in a small table of heavy hitters. Counting takes no lock: every counter is
+ bumped with one atomic add, and a product is only offered to the heavy hitters once its estimate beats the
+ coldest of them.
+ * At the end of every period, all counts are halved, so an estimate is an exponentially decayed count with a
+ half life of one period; a product selling u units every period settles at an estimate of about 2u. The
+ suggested default level of a product is the units it sells in a period times the periods of stock to keep on
+ hand, within the policy's bounds. Suggestions are only made once a full period has been seen, and only for
+ products whose level would change by more than a quarter. With auto apply on, they are applied at the end of
+ every period through {@link OrderManagementSystem#setDefaultProductStockLevel(Product, int)}, so they are
+ journaled like any other change.
+ */
+public class DemandTracker implements AutoCloseable {
+    public static final long DEFAULT_PERIOD_MILLIS=60_000;
+    public static final int DEFAULT_WIDTH=1<<12;
+    public static final int DEFAULT_HOT_PRODUCTS=32;
+    private static final VarHandle INTS=MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle LONGS=MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int ROWS=4;
+    /**
+     * counters a row has in each block, so a block is 16 ints, one cache line
+     */
+    private static final int ROW_WIDTH=4;
+    private static final int BLOCK_SHIFT=4;
+    private final OrderManagementSystem system;
+    private final StockTable stock;
+    private final long periodNanos;
+    /**
+     * blocks of 16 counters, ROW_WIDTH for each row, one row after the other
+     */
+    private final int[] sketch;
+    private final int blockMask;
+    /**
+     * the heavy hitters, each packed as item number in the high half and estimate in the low half, 0 for an
+     empty entry
+     */
+    private final long[] hot;
+    /**
+     * no more than the smallest estimate in the heavy hitters, so a product whose estimate isn't above it can
+     skip looking at them
+     */
+    private volatile long floor;
+    private volatile boolean autoApply;
+    private volatile double periodsOfCover;
+    private volatile int minimumLevel;
+    private volatile int maximumLevel;
+    private volatile long periods;
+    private volatile boolean running;
+    private final Thread worker;
+
+    /**
+     * Start tracking the system's demand, with periods of {@link #DEFAULT_PERIOD_MILLIS} milliseconds
+     * @param system
+     */
+    public DemandTracker(OrderManagementSystem system) {
+        this(system,DEFAULT_PERIOD_MILLIS,DEFAULT_WIDTH,DEFAULT_HOT_PRODUCTS);
+    }
+
+    /**
+     * Start tracking the system's demand. Nothing is applied until {@link #setAutoApply(boolean)} is called.
+     By default, levels cover two periods of demand and are never suggested below the system's default level,
+     so only products that sell faster than that get a new one.
+     * @param system
+     * @param periodMillis how long a period lasts, i.e. the half life of the counts
+     * @param width counters per row of the sketch, rounded up to a power of two and at least 4. The more there
+     are, the less products that share a counter inflate each other's estimates.
+     * @param hotProducts how many heavy hitters to keep
+     * @throws IllegalArgumentException if any of the numbers is out of range
+     */
+    public DemandTracker(OrderManagementSystem system, long periodMillis, int width, int hotProducts) throws IllegalArgumentException {
+        if(periodMillis<=0||width<=0||width>1<<24||hotProducts<=0) {
+            throw new IllegalArgumentException("period, width and hot products must be positive, and width at most "+(1<<24));
+        }
+        int blocks=1;
+        while(blocks*ROW_WIDTH<width) {
+            blocks<<=1;
+        }
+        this.system=system;
+        this.stock=system.warehouse.stock;
+        this.periodNanos=TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.sketch=new int[blocks<<BLOCK_SHIFT];
+        this.blockMask=blocks-1;
+        this.hot=new long[hotProducts];
+        this.floor=0;
+        this.autoApply=false;
+        this.periodsOfCover=2;
+        this.minimumLevel=system.defaultProductStockLevel;
+        this.maximumLevel=Integer.MAX_VALUE;
+        this.periods=0;
+        this.running=true;
+        this.worker=new Thread(this::run,"demand-tracker");
+        worker.setDaemon(true);
+        worker.start();
+        system.setDemandTracker(this);
+    }
+
+    /**
+     * @param autoApply true to apply the suggested default levels at the end of every period
+     */
+    public void setAutoApply(boolean autoApply) {
+        this.autoApply=autoApply;
+    }
+
+    /**
+     * @param periodsOfCover how many periods of demand a product's default level should cover
+     * @param minimumLevel the lowest default level to suggest, even for a product nobody orders. Restocking
+     adds nothing when an order asks for exactly the default level, so set this above the largest quantity
+     orders take of a product that sells slowly.
+     * @param maximumLevel the highest default level to suggest
+     * @throws IllegalArgumentException if the cover isn't positive or the levels are out of order
+     */
+    public synchronized void setPolicy(double periodsOfCover, int minimumLevel, int maximumLevel) throws IllegalArgumentException {
+        if(!(periodsOfCover>0)||minimumLevel<0||maximumLevel<minimumLevel) {
+            throw new IllegalArgumentException("need a positive cover and 0 <= minimum <= maximum");
+        }
+        this.periodsOfCover=periodsOfCover;
+        this.minimumLevel=minimumLevel;
+        this.maximumLevel=maximumLevel;
+    }
+
+    /**
+     * @param productNumber
+     * @return decayed count of the units of the product taken, never less than the true decayed count
+     */
+    public long getEstimate(int productNumber) {
+        long h=hash(productNumber);
+        int block=block(h);
+        int estimate=Integer.MAX_VALUE;
+        for(int row=0;row<ROWS;row++) {
+            estimate=Math.min(estimate,(int)INTS.getOpaque(sketch,block+counter(h,row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * @return number of periods that have ended since tracking started
+     */
+    public long getPeriods() {
+        return this.periods;
+    }
+
+    /**
+     * @return the products with the highest demand, highest first. Approximate: a product that only just got
+     hot may be missing, and the order of products with close estimates may be off.
+     */
+    public List<Product> getHotProducts() {
+        Map<Integer, Long> best=new HashMap<>();
+        for(int i=0;i<hot.length;i++) {
+            long entry=(long)LONGS.getVolatile(hot,i);
+            if(entry!=0) {
+                best.merge(itemOf(entry),countOf(entry),Math::max);
+            }
+        }
+        List<Map.Entry<Integer, Long>> ranked=new ArrayList<>(best.entrySet());
+        ranked.sort((a,b)->Long.compare(b.getValue(),a.getValue()));
+        List<Product> products=new ArrayList<>(ranked.size());
+        for(Map.Entry<Integer, Long> e:ranked) {
+            Product p=system.warehouse.getProduct(e.getKey());
+            if(p!=null) {
+                products.add(p);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Work out a default stock level for every product in the catalog that can be restocked, from its demand
+     * @return the products whose default level should change by more than a quarter, with their new levels.
+     Empty until a full period has been seen.
+     */
+    public Map<Product, Integer> suggestDefaultLevels() {
+        Map<Product, Integer> suggestions=new HashMap<>();
+        if(periods==0) {
+            return suggestions;
+        }
+        for(int slot=stock.nextCatalogSlot(0);slot>=0;slot=stock.nextCatalogSlot(slot+1)) {
+            if(stock.isDoNotRestock(slot)) {
+                continue;
+            }
+            Product product=stock.productAt(slot);
+            int level=suggestedLevel(getEstimate(product.getItemNumber()));
+            int current=stock.getDefault(slot);
+            if(Math.abs((long)level-current)*4>current&&level!=current) {
+                suggestions.put(product,level);
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Set every suggested default level
+     * @return number of products whose default level was changed
+     */
+    public synchronized int applySuggestions() {
+        Map<Product, Integer> suggestions=suggestDefaultLevels();
+        for(Map.Entry<Product, Integer> e:suggestions.entrySet()) {
+            system.setDefaultProductStockLevel(e.getKey(),e.getValue());
+        }
+        return suggestions.size();
+    }
+
+    /**
+     * End the current period now: apply the suggestions if auto apply is on, then halve every count. Called
+     by the tracker's own thread once every period.
+     */
+    public synchronized void endPeriod() {
+        periods++;
+        if(autoApply) {
+            applySuggestions();
+        }
+        for(int i=0;i<sketch.length;i++) {
+            halve(sketch,i);
+        }
+        for(int i=0;i<hot.length;i++) {
+            long entry;
+            do {
+                entry=(long)LONGS.getVolatile(hot,i);
+            }while(entry!=0&&!LONGS.compareAndSet(hot,i,entry,pack(itemOf(entry),countOf(entry)>>>1)));
+        }
+        floor=floor>>>1;
+    }
+
+    /**
+     * Stop the tracker's thread and stop counting. Default levels already applied stay as they are.
+     */
+    @Override
+    public void close() {
+        system.setDemandTracker(null);
+        running=false;
+        LockSupport.unpark(worker);
+        boolean interrupted=false;
+        while(worker.isAlive()) {
+            try {
+                worker.join();
+            }catch(InterruptedException e) {
+                interrupted=true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by the order management system once an order is committed: count the units of every product
+     it took
+     * @param reservation the committed order's reservation
+     */
+    protected void ordered(OrderReservation reservation) {
+        for(int i=0;i<reservation.productCount;i++) {
+            add(reservation.productNumbers[i],reservation.quantities[i]);
+        }
+    }
+
+    private void add(int productNumber, int units) {
+        if(units<=0) {
+            return;
+        }
+        long h=hash(productNumber);
+        int block=block(h);
+        int estimate=Integer.MAX_VALUE;
+        for(int row=0;row<ROWS;row++) {
+            int count=(int)INTS.getAndAdd(sketch,block+counter(h,row),units)+units;
+            estimate=Math.min(estimate,count);
+        }
+        if(estimate>floor) {
+            offer(productNumber,estimate);
+        }
+    }
+
+    /**
+     * Put the product among the heavy hitters, or update its estimate there, in place of the coldest one if
+     it isn't there yet. Two threads offering the same product at once can both add it; readers keep the
+     higher of the two.
+     */
+    private void offer(int productNumber, long estimate) {
+        int coldest=-1;
+        long coldestCount=Long.MAX_VALUE;
+        long nextColdestCount=Long.MAX_VALUE;
+        for(int i=0;i<hot.length;i++) {
+            long entry=(long)LONGS.getVolatile(hot,i);
+            if(entry!=0&&itemOf(entry)==productNumber) {
+                if(countOf(entry)<estimate) {
+                    LONGS.compareAndSet(hot,i,entry,pack(productNumber,estimate));
+                }
+                return;
+            }
+            long count=entry==0?0:countOf(entry);
+            if(count<coldestCount) {
+                coldest=i;
+                nextColdestCount=coldestCount;
+                coldestCount=count;
+            }
+            else if(count<nextColdestCount) {
+                nextColdestCount=count;
+            }
+        }
+        long entry=(long)LONGS.getVolatile(hot,coldest);
+        if((entry==0?0:countOf(entry))<estimate&&LONGS.compareAndSet(hot,coldest,entry,pack(productNumber,estimate))) {
+            //with the coldest one replaced, every entry is at least this, unless another thread halved them meanwhile
+            floor=Math.min(estimate,nextColdestCount);
+        }
+    }
+
+    private void run() {
+        long nextPeriod=System.nanoTime()+periodNanos;
+        while(running) {
+            long wait=nextPeriod-System.nanoTime();
+            if(wait>0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            endPeriod();
+            nextPeriod+=periodNanos;
+        }
+    }
+
+    private int suggestedLevel(long estimate) {
+        //the estimate settles at about twice the units sold per period
+        double level=Math.ceil(estimate/2.0*periodsOfCover);
+        return (int)Math.max(minimumLevel,Math.min(maximumLevel,level));
+    }
+
+    private static long hash(int productNumber) {
+        long h=(productNumber+1L)*0x9E3779B97F4A7C15L;
+        h=(h^(h>>>32))*0xD6E8FEB86659FD93L;
+        return h^(h>>>32);
+    }
+
+    /**
+     * @return index of the product's block, from the high bits of its hash
+     */
+    private int block(long h) {
+        return ((int)(h>>>40)&blockMask)<<BLOCK_SHIFT;
+    }
+
+    /**
+     * @return the row's counter within the product's block, from two low bits of its hash per row
+     */
+    private static int counter(long h, int row) {
+        return row*ROW_WIDTH+((int)(h>>>(row<<1))&(ROW_WIDTH-1));
+    }
+
+    /**
+     * halve the counter with one atomic add, so units added at the same time aren't lost
+     */
+    private static void halve(int[] counters, int i) {
+        int count=(int)INTS.getOpaque(counters,i);
+        if(count>1) {
+            INTS.getAndAdd(counters,i,-(count>>>1));
+        }
+    }
+
+    private static long pack(int itemNumber, long count) {
+        return (long)itemNumber<<32|Math.min(count,0xFFFFFFFFL);
+    }
+
+    private static int itemOf(long entry) {
+        return (int)(entry>>>32);
+    }
+
+    private static long countOf(long entry) {
+        return entry&0xFFFFFFFFL;
+    }
+}
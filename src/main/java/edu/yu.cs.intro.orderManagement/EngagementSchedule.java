@@ -0,0 +1,155 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * Numbers every completed order and keeps track of when each busy service provider is due to be freed.
+ * A provider assigned in order number n is freed once order n+3 completes, i.e. it sits out the 3 orders
+ after its own. Engagements are kept in a small timing wheel with one bucket per order of the engagement,
+ so completing an order only touches the providers whose engagement is actually ending.
+ * {@link #advance()} and {@link #hasEngagements()} may be called without a lock, everything else must be
+ called holding the order management system's service lock.
+ */
+public class EngagementSchedule {
+    /**
+     * number of orders a provider stays busy for, counting the order it was assigned in
+     */
+    public static final int ENGAGEMENT_LENGTH=4;
+    private final AtomicLong sequence;
+    private volatile int engaged;
+    private long releasedThrough;
+    private ServiceProvider[][] buckets;
+    private int[] bucketSizes;
+
+    protected EngagementSchedule() {
+        this(new AtomicLong());
+    }
+
+    /**
+     * @param sequence the counter to number orders with. Schedules that share one number their orders in a
+     single sequence, e.g. the shards of a {@link ShardedOrderManagementSystem}, so a provider sits out the
+     orders that follow its own in any of them.
+     */
+    protected EngagementSchedule(AtomicLong sequence) {
+        this.sequence=sequence;
+        this.engaged=0;
+        this.releasedThrough=0;
+        this.buckets=new ServiceProvider[ENGAGEMENT_LENGTH][4];
+        this.bucketSizes=new int[ENGAGEMENT_LENGTH];
+    }
+
+    /**
+     * @return number of orders completed so far, which is also the number of the latest one
+     */
+    protected long getSequence() {
+        return this.sequence.get();
+    }
+
+    /**
+     * Record that another order has completed
+     * @return the new order's sequence number
+     */
+    protected long advance() {
+        return this.sequence.incrementAndGet();
+    }
+
+    /**
+     * @return true if any provider is currently engaged, i.e. a completed order might free someone
+     */
+    protected boolean hasEngagements() {
+        return this.engaged>0;
+    }
+
+    /**
+     * Must be called before the order the providers are being engaged for gets its sequence number, so that
+     any order numbered after it is sure to see {@link #hasEngagements()} and release them on time.
+     * @param count number of providers about to be engaged
+     */
+    protected void expectEngagements(int count) {
+        this.engaged+=count;
+    }
+
+    /**
+     * Make the provider busy for the order with the given sequence number and schedule it to be freed
+     * @param provider
+     * @param orderSequence
+     */
+    protected void engage(ServiceProvider provider, long orderSequence) {
+        provider.assignToCustomer();
+        provider.schedule=this;
+        provider.engagedAt=orderSequence;
+        int bucket=bucketFor(orderSequence+ENGAGEMENT_LENGTH-1);
+        if(bucketSizes[bucket]==buckets[bucket].length) {
+            buckets[bucket]=Arrays.copyOf(buckets[bucket],bucketSizes[bucket]*2);
+        }
+        buckets[bucket][bucketSizes[bucket]++]=provider;
+    }
+
+    /**
+     * Free every provider whose engagement ended with or before the given order, and put them back in the
+     free pools. Only the buckets for orders that haven't been handled yet are looked at.
+     * @param orderSequence
+     * @param pools
+     * @return number of providers freed
+     */
+    protected int releaseDue(long orderSequence, ProviderPools pools) {
+        if(orderSequence<=releasedThrough) {
+            return 0;
+        }
+        int released=0;
+        //if more orders than buckets went by, one look at each bucket covers all of them
+        long from=Math.max(releasedThrough+1,orderSequence-ENGAGEMENT_LENGTH+1);
+        for(long due=from;due<=orderSequence;due++) {
+            released+=releaseBucket(bucketFor(due),orderSequence,pools);
+        }
+        releasedThrough=orderSequence;
+        return released;
+    }
+
+    /**
+     * Carry on numbering orders after the given one, e.g. when the system is recovered from a journal. Only
+     allowed before anyone has been engaged.
+     * @param orderSequence the number of the last order that completed
+     * @throws IllegalStateException if providers are engaged already
+     */
+    protected void restore(long orderSequence) throws IllegalStateException {
+        if(this.engaged>0) {
+            throw new IllegalStateException("can't restore a schedule that is in use");
+        }
+        this.sequence.set(orderSequence);
+        this.releasedThrough=orderSequence;
+    }
+
+    /**
+     * @param provider
+     * @return how many orders have completed since the provider's engagement started, counting the order it
+     was assigned in, or 0 if it isn't engaged
+     */
+    protected int ordersSince(ServiceProvider provider) {
+        return (int)(getSequence()-provider.engagedAt+1);
+    }
+
+    private int releaseBucket(int bucket, long orderSequence, ProviderPools pools) {
+        ServiceProvider[] entries=buckets[bucket];
+        int kept=0;
+        for(int i=0;i<bucketSizes[bucket];i++) {
+            ServiceProvider sp=entries[i];
+            //a bucket can also hold engagements ending a full turn of the wheel later
+            if(sp.engagedAt+ENGAGEMENT_LENGTH-1<=orderSequence) {
+                sp.endCustomerEngagement();
+                pools.release(sp);
+                engaged--;
+            }
+            else {
+                entries[kept++]=sp;
+            }
+        }
+        Arrays.fill(entries,kept,bucketSizes[bucket],null);
+        int released=bucketSizes[bucket]-kept;
+        bucketSizes[bucket]=kept;
+        return released;
+    }
+
+    private static int bucketFor(long orderSequence) {
+        return (int)(orderSequence%ENGAGEMENT_LENGTH);
+    }
+}
@@ -0,0 +1,181 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+/**
+ * Open addressing hash table from an int key to an int value, used to look things up by item number
+ without boxing. The warehouse never removes keys, since products are never taken out of the catalog.
+ * Any number of threads may call {@link #get(int)} while a single thread at a time calls
+ {@link #put(int, int)}; callers that write from several threads must serialize the writes themselves.
+ {@link #remove(int)} moves other keys around, so it is only safe when nobody else is reading.
+ */
+public class IntIndex {
+    /**
+     * value returned by {@link #get(int)} when the key is not present
+     */
+    public static final int ABSENT=-1;
+    private static final VarHandle USED=MethodHandles.arrayElementVarHandle(boolean[].class);
+    private volatile Table table;
+    private int size;
+
+    public IntIndex() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize number of keys to size the table for
+     */
+    public IntIndex(int expectedSize) {
+        this.table=new Table(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * @param key
+     * @return the value stored for the key, or {@link #ABSENT} if there is none
+     */
+    public int get(int key) {
+        Table t=this.table;
+        int i=mix(key)&t.mask;
+        //the used flag is written last, so once it is seen the key and value are too
+        while((boolean)USED.getAcquire(t.used,i)) {
+            if(t.keys[i]==key) {
+                return t.values[i];
+            }
+            i=(i+1)&t.mask;
+        }
+        return ABSENT;
+    }
+
+    /**
+     * @param key
+     * @return true if the key is present
+     */
+    public boolean containsKey(int key) {
+        return get(key)!=ABSENT;
+    }
+
+    /**
+     * Values are only ever set once per key when readers may be active, since a reader could otherwise
+     see either the old or the new value.
+     * @param key
+     * @param value must not be {@link #ABSENT}
+     * @return the old value for the key, or {@link #ABSENT} if there was none
+     */
+    public int put(int key, int value) {
+        if(value==ABSENT) {
+            throw new IllegalArgumentException("cannot store the absent marker");
+        }
+        Table t=this.table;
+        int i=mix(key)&t.mask;
+        while(t.used[i]) {
+            if(t.keys[i]==key) {
+                int old=t.values[i];
+                t.values[i]=value;
+                return old;
+            }
+            i=(i+1)&t.mask;
+        }
+        //keep the load factor at or below one half so probe sequences stay short
+        if((size+1)*2>t.keys.length) {
+            t=rehash(t,t.keys.length*2);
+            i=mix(key)&t.mask;
+            while(t.used[i]) {
+                i=(i+1)&t.mask;
+            }
+        }
+        t.keys[i]=key;
+        t.values[i]=value;
+        USED.setRelease(t.used,i,true);
+        size++;
+        return ABSENT;
+    }
+
+    /**
+     * Remove the key, shifting the keys probed after it back so no lookup has to step over a hole. Not safe
+     while other threads are reading.
+     * @param key
+     * @return the value that was stored for the key, or {@link #ABSENT} if there was none
+     */
+    public int remove(int key) {
+        Table t=this.table;
+        int i=mix(key)&t.mask;
+        while(t.used[i]&&t.keys[i]!=key) {
+            i=(i+1)&t.mask;
+        }
+        if(!t.used[i]) {
+            return ABSENT;
+        }
+        int old=t.values[i];
+        int hole=i;
+        for(int j=(hole+1)&t.mask;t.used[j];j=(j+1)&t.mask) {
+            int home=mix(t.keys[j])&t.mask;
+            //the key at j can fill the hole unless its home lies cyclically after the hole, up to j
+            boolean after=hole<=j?(home>hole&&home<=j):(home>hole||home<=j);
+            if(!after) {
+                t.keys[hole]=t.keys[j];
+                t.values[hole]=t.values[j];
+                hole=j;
+            }
+        }
+        t.used[hole]=false;
+        size--;
+        return old;
+    }
+
+    /**
+     * @return number of keys in the table
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * build the bigger table off to the side and publish it in one write, so readers never see a half
+     copied table
+     */
+    private Table rehash(Table old, int newCapacity) {
+        Table t=new Table(newCapacity);
+        for(int j=0;j<old.keys.length;j++) {
+            if(old.used[j]) {
+                int i=mix(old.keys[j])&t.mask;
+                while(t.used[i]) {
+                    i=(i+1)&t.mask;
+                }
+                t.keys[i]=old.keys[j];
+                t.values[i]=old.values[j];
+                t.used[i]=true;
+            }
+        }
+        this.table=t;
+        return t;
+    }
+
+    /**
+     * item numbers tend to be sequential, so spread the bits before masking
+     */
+    private static int mix(int key) {
+        int h=key*0x9E3779B9;
+        return h^(h>>>16);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity=16;
+        while(capacity<expectedSize*2) {
+            capacity<<=1;
+        }
+        return capacity;
+    }
+
+    private static final class Table {
+        private final int[] keys;
+        private final int[] values;
+        private final boolean[] used;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.keys=new int[capacity];
+            this.values=new int[capacity];
+            this.used=new boolean[capacity];
+            this.mask=capacity-1;
+        }
+    }
+}
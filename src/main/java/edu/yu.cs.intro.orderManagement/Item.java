@@ -3,4 +3,11 @@ public interface Item {
     int getItemNumber();
     String getDescription();
     double getPrice();
-}
\ No newline at end of file
+
+    /**
+     * @return the price in cents, rounded to the nearest cent, so that prices can be added up exactly
+     */
+    default long getPriceInCents() {
+        return Math.round(getPrice()*100);
+    }
+}
@@ -0,0 +1,98 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+/**
+ * The one instance of every product and service an order management system knows about, looked up by item
+ number without boxing. Orders built from item numbers through a registry, see {@link Order#Order(ItemRegistry)},
+ hold these instances, so every line of every such order refers to the same object for the same item.
+ * Products are resolved through the warehouse, whose stock table already keeps one product per item number,
+ and their ordinal is their stock slot. Services are kept in an array indexed by their ordinal, see {@link
+ Service#ordinalOf(int)}. Both ordinals are dense, so per item state can be kept in arrays rather than maps.
+ * Items are never forgotten, so an item that stops being sold still resolves, and an order for it is turned
+ down by the system like any other. Any number of threads may look items up while items are registered.
+ */
+public class ItemRegistry {
+    private static final VarHandle SERVICES=MethodHandles.arrayElementVarHandle(Service[].class);
+    private final Warehouse warehouse;
+    /**
+     * services by ordinal. Grown by copying, and every entry is written with release semantics, so a reader
+     that sees a service sees all of it.
+     */
+    private volatile Service[] services;
+    private int serviceCount;
+
+    /**
+     * @param warehouse the warehouse to resolve products through
+     */
+    protected ItemRegistry(Warehouse warehouse) {
+        this.warehouse=warehouse;
+        this.services=new Service[16];
+        this.serviceCount=0;
+    }
+
+    /**
+     * @param itemNumber
+     * @return the product with the given item number, or null if the warehouse has never heard of it
+     */
+    public Product getProduct(int itemNumber) {
+        return warehouse.getProduct(itemNumber);
+    }
+
+    /**
+     * @param itemNumber
+     * @return the service with the given item number, or null if it was never registered
+     */
+    public Service getService(int itemNumber) {
+        int ordinal=Service.existingOrdinalOf(itemNumber);
+        if(ordinal==IntIndex.ABSENT) {
+            return null;
+        }
+        Service[] known=this.services;
+        return ordinal<known.length?(Service)SERVICES.getAcquire(known,ordinal):null;
+    }
+
+    /**
+     * @param itemNumber
+     * @return the ordinal of the product with the given item number, or {@link StockTable#NO_SLOT} if the
+     warehouse has never heard of it
+     */
+    public int productOrdinal(int itemNumber) {
+        return warehouse.stock.slotOf(itemNumber);
+    }
+
+    /**
+     * @param itemNumber
+     * @return the ordinal of the service with the given item number, or {@link IntIndex#ABSENT} if it was
+     never registered
+     */
+    public int serviceOrdinal(int itemNumber) {
+        return getService(itemNumber)==null?IntIndex.ABSENT:Service.existingOrdinalOf(itemNumber);
+    }
+
+    /**
+     * @return number of services registered
+     */
+    public synchronized int serviceCount() {
+        return this.serviceCount;
+    }
+
+    /**
+     * Make the service known, unless one with the same item number already is
+     * @param service
+     * @return the registered instance for the service's item number
+     */
+    protected synchronized Service register(Service service) {
+        Service[] known=this.services;
+        if(service.ordinal<known.length&&known[service.ordinal]!=null) {
+            return known[service.ordinal];
+        }
+        if(service.ordinal>=known.length) {
+            known=Arrays.copyOf(known,Integer.highestOneBit(service.ordinal)<<1);
+            this.services=known;
+        }
+        SERVICES.setRelease(known,service.ordinal,service);
+        serviceCount++;
+        return service;
+    }
+}
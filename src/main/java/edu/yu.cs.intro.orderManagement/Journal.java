@@ -0,0 +1,513 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+/**
+ * Write ahead journal of everything that changes an order management system after it is constructed:
+ committed orders, restocks, new products, discontinued items, default stock levels, new service
+ providers and services that providers start or stop offering. Records are appended to memory mapped segment files in a directory, and a system built with the
+ same constructor arguments can be brought back to the same state by replaying them. Replay restores stock,
+ the catalog, who is busy and for how long, and the order numbering; which of several free providers the
+ next order gets may differ from the original system.
+ * An order is journaled by its effects rather than by its items: the units taken and restocked for each
+ product, the providers engaged and the order's sequence number. Replay doesn't have to decide anything
+ again, and the stock changes add up the same in whatever order concurrent orders were journaled.
+ * Every record is framed as [int length][int crc32c][byte type][body]. A zero length ends a segment, and a
+ record that doesn't check out (a write torn by a crash) ends it too. A journal that is opened again always
+ starts a new segment, so a torn tail is never written over.
+ * Recovery: construct the system the way it was constructed the first time, {@link #replay(Path,
+ OrderManagementSystem)} the directory into it, then {@link #open(Path)} the directory and hand the journal
+ to {@link OrderManagementSystem#setJournal(Journal)}.
+ * Group commit: {@link #commit(long)} forces the mapped segment to disk once for every order that is
+ waiting, rather than once per order.
+ */
+public class Journal {
+    /**
+     * size of each segment file, unless another is given to {@link #open(Path, int, boolean)}
+     */
+    public static final int DEFAULT_SEGMENT_SIZE=64<<20;
+    private static final byte ORDER=1;
+    private static final byte RESTOCK=2;
+    private static final byte NEW_PRODUCT=3;
+    private static final byte DISCONTINUED_PRODUCT=4;
+    private static final byte DISCONTINUED_SERVICE=5;
+    private static final byte DEFAULT_STOCK_LEVEL=6;
+    private static final byte NEW_SERVICE_PROVIDER=7;
+    private static final byte SERVICE_ADDED=8;
+    private static final byte SERVICE_REMOVED=9;
+    private static final int HEADER=8;
+    private static final String PREFIX="journal-";
+    private static final String SUFFIX=".log";
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncOnCommit;
+    private final CRC32C crc;
+    private final Object syncLock=new Object();
+    private int segmentNumber;
+    private MappedByteBuffer segment;
+    private int offset;
+    private volatile long durable;
+
+    private Journal(Path directory, int segmentSize, boolean syncOnCommit) throws IOException {
+        this.directory=directory;
+        this.segmentSize=segmentSize;
+        this.syncOnCommit=syncOnCommit;
+        this.crc=new CRC32C();
+        Files.createDirectories(directory);
+        List<Path> existing=segmentsIn(directory);
+        this.segmentNumber=existing.isEmpty()?-1:segmentNumberOf(existing.get(existing.size()-1));
+        startSegment();
+        this.durable=position();
+    }
+
+    /**
+     * @param directory where the segment files are kept, created if it doesn't exist
+     * @return the journal in the directory, with default segment size, forcing every commit to disk
+     */
+    public static Journal open(Path directory) {
+        return open(directory,DEFAULT_SEGMENT_SIZE,true);
+    }
+
+    /**
+     * @param directory where the segment files are kept, created if it doesn't exist
+     * @param segmentSize size of each segment file in bytes
+     * @param syncOnCommit true if {@link #commit(long)} should wait for the record to be on disk. If false,
+     records are only as durable as the operating system's page cache until {@link #close()}.
+     * @return the journal in the directory, writing to a new segment
+     */
+    public static Journal open(Path directory, int segmentSize, boolean syncOnCommit) {
+        if(segmentSize<1024) {
+            throw new IllegalArgumentException("segment size too small: "+segmentSize);
+        }
+        try {
+            return new Journal(directory,segmentSize,syncOnCommit);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a committed order
+     * @param orderSequence the sequence number the order was given
+     * @param reservation what the order took: products, units restocked for it, and providers
+     * @return position of the end of the record, to hand to {@link #commit(long)}
+     */
+    protected synchronized long logOrder(long orderSequence, OrderReservation reservation) {
+        ByteBuffer out=begin(ORDER,8+4+reservation.productCount*12+4+reservation.providers.size()*4);
+        out.putLong(orderSequence);
+        out.putInt(reservation.productCount);
+        for(int i=0;i<reservation.productCount;i++) {
+            out.putInt(reservation.productNumbers[i]);
+            out.putInt(reservation.quantities[i]);
+            out.putInt(reservation.restocked[i]);
+        }
+        out.putInt(reservation.providers.size());
+        for(ServiceProvider sp:reservation.providers) {
+            out.putInt(sp.getId());
+        }
+        return end();
+    }
+
+    /**
+     * Record the restocking done for an order that was then aborted, which stays in stock
+     * @param reservation
+     * @return position of the end of the record, or of the journal if nothing was restocked
+     */
+    protected synchronized long logRestock(OrderReservation reservation) {
+        int count=0;
+        for(int i=0;i<reservation.productCount;i++) {
+            if(reservation.restocked[i]>0) {
+                count++;
+            }
+        }
+        if(count==0) {
+            return position();
+        }
+        ByteBuffer out=begin(RESTOCK,4+count*8);
+        out.putInt(count);
+        for(int i=0;i<reservation.productCount;i++) {
+            if(reservation.restocked[i]>0) {
+                out.putInt(reservation.productNumbers[i]);
+                out.putInt(reservation.restocked[i]);
+            }
+        }
+        return end();
+    }
+
+    /**
+     * Record that a product is about to be offered to the warehouse
+     * @param product
+     * @return position of the end of the record
+     */
+    protected synchronized long logNewProduct(Product product) {
+        byte[] name=utf8(product.getDescription());
+        putProduct(begin(NEW_PRODUCT,productSize(name)),product,name);
+        return end();
+    }
+
+    /**
+     * Record that an item is about to be discontinued
+     * @param item
+     * @return position of the end of the record
+     */
+    protected synchronized long logDiscontinued(Item item) {
+        byte[] name=utf8(item.getDescription());
+        if(item instanceof Product) {
+            putProduct(begin(DISCONTINUED_PRODUCT,productSize(name)),(Product)item,name);
+        }
+        else {
+            putService(begin(DISCONTINUED_SERVICE,serviceSize(name)),(Service)item,name);
+        }
+        return end();
+    }
+
+    /**
+     * Record that a product's default stock level is about to be set
+     * @param product
+     * @param level
+     * @return position of the end of the record
+     */
+    protected synchronized long logDefaultStockLevel(Product product, int level) {
+        byte[] name=utf8(product.getDescription());
+        ByteBuffer out=begin(DEFAULT_STOCK_LEVEL,productSize(name)+4);
+        putProduct(out,product,name);
+        out.putInt(level);
+        return end();
+    }
+
+    /**
+     * Record that a service provider is about to be added
+     * @param provider
+     * @return position of the end of the record
+     */
+    protected synchronized long logNewServiceProvider(ServiceProvider provider) {
+        byte[] name=utf8(provider.getName());
+        List<byte[]> descriptions=new ArrayList<>();
+        int size=4+2+name.length+4;
+        for(Service s:provider.services) {
+            byte[] description=utf8(s.getDescription());
+            descriptions.add(description);
+            size+=serviceSize(description);
+        }
+        ByteBuffer out=begin(NEW_SERVICE_PROVIDER,size);
+        out.putInt(provider.getId());
+        putString(out,name);
+        out.putInt(provider.services.size());
+        int i=0;
+        for(Service s:provider.services) {
+            putService(out,s,descriptions.get(i++));
+        }
+        return end();
+    }
+
+    /**
+     * Record that a provider is about to start offering a service
+     * @param provider
+     * @param service
+     * @return position of the end of the record
+     */
+    protected synchronized long logServiceAdded(ServiceProvider provider, Service service) {
+        return logProvidedService(SERVICE_ADDED,provider,service);
+    }
+
+    /**
+     * Record that a provider is about to stop offering a service
+     * @param provider
+     * @param service
+     * @return position of the end of the record
+     */
+    protected synchronized long logServiceRemoved(ServiceProvider provider, Service service) {
+        return logProvidedService(SERVICE_REMOVED,provider,service);
+    }
+
+    private long logProvidedService(byte type, ServiceProvider provider, Service service) {
+        byte[] description=utf8(service.getDescription());
+        ByteBuffer out=begin(type,4+serviceSize(description));
+        out.putInt(provider.getId());
+        putService(out,service,description);
+        return end();
+    }
+
+    /**
+     * Make sure everything journaled up to the given position is on disk before returning, if this journal
+     syncs on commit. Whoever gets here first forces everything written so far, so the threads waiting behind
+     it usually find their records already forced.
+     * @param position
+     */
+    protected void commit(long position) {
+        if(syncOnCommit) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Force everything written so far to disk
+     */
+    public void close() {
+        sync(Long.MAX_VALUE);
+    }
+
+    /**
+     * Apply every journal record in the directory to a system that was just constructed the same way as the
+     one that wrote them, and hasn't been used yet
+     * @param directory
+     * @param system
+     * @return number of records applied
+     * @throws IllegalStateException if the system is writing to a journal itself
+     */
+    public static int replay(Path directory, OrderManagementSystem system) throws IllegalStateException {
+        if(system.journal!=null) {
+            throw new IllegalStateException("can't replay into a system that is journaling");
+        }
+        long lastSequence=0;
+        Map<Integer, Long> engagedAt=new HashMap<>();
+        int records=0;
+        for(Path file:segmentsIn(directory)) {
+            ByteBuffer in=map(file);
+            CRC32C check=new CRC32C();
+            while(in.remaining()>=HEADER) {
+                int start=in.position();
+                int length=in.getInt();
+                int expected=in.getInt();
+                if(length<=0||length>in.remaining()) {
+                    break;
+                }
+                ByteBuffer body=in.slice();
+                body.limit(length);
+                check.reset();
+                check.update(body.duplicate());
+                if((int)check.getValue()!=expected) {
+                    break;
+                }
+                in.position(start+HEADER+length);
+                byte type=body.get();
+                switch(type) {
+                    case ORDER:
+                        long orderSequence=body.getLong();
+                        lastSequence=Math.max(lastSequence,orderSequence);
+                        for(int n=body.getInt();n>0;n--) {
+                            int productNumber=body.getInt();
+                            int taken=body.getInt();
+                            system.warehouse.applyStockChange(productNumber,body.getInt()-taken);
+                        }
+                        for(int n=body.getInt();n>0;n--) {
+                            engagedAt.merge(body.getInt(),orderSequence,Math::max);
+                        }
+                        break;
+                    case RESTOCK:
+                        for(int n=body.getInt();n>0;n--) {
+                            int productNumber=body.getInt();
+                            system.warehouse.applyStockChange(productNumber,body.getInt());
+                        }
+                        break;
+                    case NEW_PRODUCT:
+                        system.addNewProducts(Collections.singleton(getProduct(body)));
+                        break;
+                    case DISCONTINUED_PRODUCT:
+                        system.discontinueItem(getProduct(body));
+                        break;
+                    case DISCONTINUED_SERVICE:
+                        system.discontinueItem(getService(body));
+                        break;
+                    case DEFAULT_STOCK_LEVEL:
+                        Product product=getProduct(body);
+                        system.setDefaultProductStockLevel(product,body.getInt());
+                        break;
+                    case NEW_SERVICE_PROVIDER:
+                        int id=body.getInt();
+                        String name=getString(body);
+                        Set<Service> services=new HashSet<>();
+                        for(int n=body.getInt();n>0;n--) {
+                            services.add(getService(body));
+                        }
+                        system.addServiceProvider(new ServiceProvider(name,id,services));
+                        break;
+                    case SERVICE_ADDED:
+                        system.addProvidedService(providerFor(system,body.getInt(),file),getService(body));
+                        break;
+                    case SERVICE_REMOVED:
+                        system.removeProvidedService(providerFor(system,body.getInt(),file),getService(body));
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown journal record type "+type+" in "+file);
+                }
+                records++;
+            }
+        }
+        system.restoreEngagements(lastSequence,engagedAt);
+        return records;
+    }
+
+    private static ServiceProvider providerFor(OrderManagementSystem system, int id, Path file) {
+        ServiceProvider provider=system.getServiceProvider(id);
+        if(provider==null) {
+            throw new IllegalStateException("journal record in "+file+" refers to unknown service provider "+id);
+        }
+        return provider;
+    }
+
+    /**
+     * @return logical position of the end of the journal, across all segments
+     */
+    private long position() {
+        return (long)segmentNumber*segmentSize+offset;
+    }
+
+    /**
+     * Start a record, moving on to a new segment if it doesn't fit in this one. Must hold the journal's lock.
+     * @return the segment, positioned at the start of the record's body
+     */
+    private ByteBuffer begin(byte type, int bodySize) {
+        int size=HEADER+1+bodySize;
+        if(size>segmentSize) {
+            throw new IllegalArgumentException("journal record of "+size+" bytes doesn't fit in a segment");
+        }
+        if(offset+size>segmentSize) {
+            //the rest of the segment stays zero, which readers take as its end
+            segment.force();
+            startSegment();
+        }
+        segment.limit(segmentSize);
+        segment.position(offset+HEADER);
+        segment.put(type);
+        return segment;
+    }
+
+    /**
+     * Finish the record started by {@link #begin(byte, int)}. The length goes in last, so a reader never
+     sees a record before its body is there.
+     */
+    private long end() {
+        int start=offset;
+        int end=segment.position();
+        segment.position(start+HEADER);
+        segment.limit(end);
+        crc.reset();
+        crc.update(segment);
+        segment.limit(segmentSize);
+        segment.putInt(start+4,(int)crc.getValue());
+        segment.putInt(start,end-start-HEADER);
+        offset=end;
+        return position();
+    }
+
+    private void sync(long position) {
+        if(durable>=position) {
+            return;
+        }
+        synchronized(syncLock) {
+            if(durable>=position) {
+                return;
+            }
+            MappedByteBuffer target;
+            long upTo;
+            synchronized(this) {
+                target=segment;
+                upTo=position();
+            }
+            //earlier segments were forced when the journal moved past them
+            target.force();
+            durable=upTo;
+        }
+    }
+
+    private void startSegment() {
+        segmentNumber++;
+        Path file=directory.resolve(String.format("%s%08d%s",PREFIX,segmentNumber,SUFFIX));
+        try(FileChannel channel=FileChannel.open(file,StandardOpenOption.CREATE_NEW,StandardOpenOption.READ,StandardOpenOption.WRITE)) {
+            segment=channel.map(FileChannel.MapMode.READ_WRITE,0,segmentSize);
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        offset=0;
+    }
+
+    private static List<Path> segmentsIn(Path directory) {
+        List<Path> segments=new ArrayList<>();
+        if(!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(directory,PREFIX+"*"+SUFFIX)) {
+            for(Path file:files) {
+                segments.add(file);
+            }
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        //the numbers are zero padded, so names sort in the order the segments were written
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static ByteBuffer map(Path file) {
+        try(FileChannel channel=FileChannel.open(file,StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int segmentNumberOf(Path file) {
+        String name=file.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(),name.length()-SUFFIX.length()));
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes=s==null?new byte[0]:s.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length>0xFFFF) {
+            throw new IllegalArgumentException("name too long to journal");
+        }
+        return bytes;
+    }
+
+    private static int productSize(byte[] name) {
+        return 4+8+2+name.length;
+    }
+
+    private static int serviceSize(byte[] description) {
+        return 4+8+4+2+description.length;
+    }
+
+    private static void putString(ByteBuffer out, byte[] s) {
+        out.putShort((short)s.length);
+        out.put(s);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] s=new byte[in.getShort()&0xFFFF];
+        in.get(s);
+        return new String(s,StandardCharsets.UTF_8);
+    }
+
+    private static void putProduct(ByteBuffer out, Product product, byte[] name) {
+        out.putInt(product.getItemNumber());
+        out.putDouble(product.getPrice());
+        putString(out,name);
+    }
+
+    private static Product getProduct(ByteBuffer in) {
+        int itemNumber=in.getInt();
+        double price=in.getDouble();
+        return new Product(getString(in),price,itemNumber);
+    }
+
+    private static void putService(ByteBuffer out, Service service, byte[] description) {
+        out.putInt(service.getItemNumber());
+        out.putDouble(service.getPricePerHour());
+        out.putInt(service.getNumberOfHours());
+        putString(out,description);
+    }
+
+    private static Service getService(ByteBuffer in) {
+        int itemNumber=in.getInt();
+        double pricePerHour=in.getDouble();
+        int hours=in.getInt();
+        return new Service(pricePerHour,hours,itemNumber,getString(in));
+    }
+}
@@ -5,18 +5,57 @@ import java.util.*;
  Product or Service
  */
 public class Order {
-    protected Map <Item, Integer> order;
+    //product lines and service lines are kept apart, each as parallel arrays in the order they were added
+    private Product[] products;
+    private int[] productNumbers;
+    private int[] productQuantities;
+    private int productCount;
+    private Service[] services;
+    private int[] serviceNumbers;
+    private int[] serviceQuantities;
+    private int serviceCount;
+    //running totals in cents, kept up to date as lines are added or replaced
+    private long productsTotalInCents;
+    private long servicesTotalInCents;
     private boolean isCompleted;
+    private int rejectedItem;
+    /**
+     * where items are looked up by item number, null if the order can only be built from items
+     */
+    private final ItemRegistry registry;
     public Order() {
-        order=new HashMap<>();
+        this(null);
+    }
+
+    /**
+     * An order whose items can be added by item number, see {@link #addProductToOrder(int, int)} and {@link
+     #addServiceToOrder(int, int)}. Items added as objects are swapped for the registry's instance of the same
+     item, if it has one, so every line refers to the one instance of its item.
+     * @param registry the registry of the system the order is for, see {@link
+     OrderManagementSystem#getItemRegistry()}
+     */
+    public Order(ItemRegistry registry) {
+        this.registry=registry;
+        products=new Product[4];
+        productNumbers=new int[4];
+        productQuantities=new int[4];
+        productCount=0;
+        services=new Service[2];
+        serviceNumbers=new int[2];
+        serviceQuantities=new int[2];
+        serviceCount=0;
         isCompleted=false;
+        rejectedItem=0;
     }
 
     /**
      * @return all the items (products and services) in the order
      */
     public Item[] getItems() {
-        return order.keySet().toArray(new Item[order.keySet().size()]);
+        Item[] items=new Item[productCount+serviceCount];
+        System.arraycopy(products,0,items,0,productCount);
+        System.arraycopy(services,0,items,productCount,serviceCount);
+        return items;
     }
 
     /**
@@ -25,16 +64,166 @@ public class Order {
     order.
      */
     public int getQuantity(Item b) {
-        return this.order.get(b);
+        if(b instanceof Product) {
+            int i=indexOf(productNumbers,productCount,b.getItemNumber());
+            return i<0?0:productQuantities[i];
+        }
+        if(b instanceof Service) {
+            int i=indexOf(serviceNumbers,serviceCount,b.getItemNumber());
+            return i<0?0:serviceQuantities[i];
+        }
+        return 0;
     }
 
     /**
-     * Add the given quantity of the given item (product or service) to the order
+     * Add the given quantity of the given item (product or service) to the order. Adding an item that is
+     already in the order replaces its quantity.
      * @param item
      * @param quantity
+     * @throws ArithmeticException if the total in cents would no longer fit in a long
      */
     public void addToOrder(Item item, int quantity) {
-        this.order.put(item,quantity);
+        if(registry!=null) {
+            item=canonical(item);
+        }
+        if(item instanceof Product) {
+            int i=indexOf(productNumbers,productCount,item.getItemNumber());
+            //work out the new total first, so an overflow leaves the order as it was
+            long total=productsTotalInCents;
+            if(i>=0) {
+                total=Math.subtractExact(total,lineTotalInCents(products[i],productQuantities[i]));
+            }
+            total=Math.addExact(total,lineTotalInCents(item,quantity));
+            if(i<0) {
+                if(productCount==products.length) {
+                    products=Arrays.copyOf(products,productCount*2);
+                    productNumbers=Arrays.copyOf(productNumbers,productCount*2);
+                    productQuantities=Arrays.copyOf(productQuantities,productCount*2);
+                }
+                i=productCount++;
+                productNumbers[i]=item.getItemNumber();
+            }
+            products[i]=(Product)item;
+            productQuantities[i]=quantity;
+            productsTotalInCents=total;
+        }
+        else if(item instanceof Service) {
+            int i=indexOf(serviceNumbers,serviceCount,item.getItemNumber());
+            long total=servicesTotalInCents;
+            if(i>=0) {
+                total=Math.subtractExact(total,lineTotalInCents(services[i],serviceQuantities[i]));
+            }
+            total=Math.addExact(total,lineTotalInCents(item,quantity));
+            if(i<0) {
+                if(serviceCount==services.length) {
+                    services=Arrays.copyOf(services,serviceCount*2);
+                    serviceNumbers=Arrays.copyOf(serviceNumbers,serviceCount*2);
+                    serviceQuantities=Arrays.copyOf(serviceQuantities,serviceCount*2);
+                }
+                i=serviceCount++;
+                serviceNumbers[i]=item.getItemNumber();
+            }
+            services[i]=(Service)item;
+            serviceQuantities[i]=quantity;
+            servicesTotalInCents=total;
+        }
+        else {
+            throw new IllegalArgumentException("an order can only hold products and services");
+        }
+    }
+
+    /**
+     * Add the given quantity of the product with the given item number to the order, the same way as {@link
+     #addToOrder(Item, int)}
+     * @param itemNumber
+     * @param quantity
+     * @throws IllegalStateException if the order wasn't made with a registry
+     * @throws IllegalArgumentException if the registry doesn't know the product
+     */
+    public void addProductToOrder(int itemNumber, int quantity) throws IllegalStateException,IllegalArgumentException {
+        Product product=lookUp().getProduct(itemNumber);
+        if(product==null) {
+            throw new IllegalArgumentException("no product "+itemNumber);
+        }
+        addToOrder(product,quantity);
+    }
+
+    /**
+     * Add the given quantity of the service with the given item number to the order, the same way as {@link
+     #addToOrder(Item, int)}
+     * @param itemNumber
+     * @param quantity
+     * @throws IllegalStateException if the order wasn't made with a registry
+     * @throws IllegalArgumentException if the registry doesn't know the service
+     */
+    public void addServiceToOrder(int itemNumber, int quantity) throws IllegalStateException,IllegalArgumentException {
+        Service service=lookUp().getService(itemNumber);
+        if(service==null) {
+            throw new IllegalArgumentException("no service "+itemNumber);
+        }
+        addToOrder(service,quantity);
+    }
+
+    /**
+     * @return number of product lines in the order. Lines are numbered from 0 in the order they were added.
+     */
+    public int productLineCount() {
+        return this.productCount;
+    }
+
+    /**
+     * @param line
+     * @return the product on the given product line
+     */
+    public Product productAt(int line) {
+        return this.products[checkLine(line,productCount)];
+    }
+
+    /**
+     * @param line
+     * @return item number of the product on the given product line
+     */
+    public int productNumberAt(int line) {
+        return this.productNumbers[checkLine(line,productCount)];
+    }
+
+    /**
+     * @param line
+     * @return quantity ordered on the given product line
+     */
+    public int productQuantityAt(int line) {
+        return this.productQuantities[checkLine(line,productCount)];
+    }
+
+    /**
+     * @return number of service lines in the order. Lines are numbered from 0 in the order they were added.
+     */
+    public int serviceLineCount() {
+        return this.serviceCount;
+    }
+
+    /**
+     * @param line
+     * @return the service on the given service line
+     */
+    public Service serviceAt(int line) {
+        return this.services[checkLine(line,serviceCount)];
+    }
+
+    /**
+     * @param line
+     * @return item number of the service on the given service line
+     */
+    public int serviceNumberAt(int line) {
+        return this.serviceNumbers[checkLine(line,serviceCount)];
+    }
+
+    /**
+     * @param line
+     * @return quantity ordered on the given service line
+     */
+    public int serviceQuantityAt(int line) {
+        return this.serviceQuantities[checkLine(line,serviceCount)];
     }
 
     /**
@@ -43,13 +232,14 @@ public class Order {
      * @return the total price of products in this order
      */
     public double getProductsTotalPrice() {
-        Double totalPrice=0.0;
-        for (Item item : this.order.keySet()) {
-            if(item instanceof Product) {
-                totalPrice+=item.getPrice()*order.get(item);
-            }
-        }
-        return totalPrice;
+        return this.productsTotalInCents/100.0;
+    }
+
+    /**
+     * @return the exact total price of products in this order, in cents
+     */
+    public long getProductsTotalInCents() {
+        return this.productsTotalInCents;
     }
 
     /**
@@ -58,13 +248,14 @@ public class Order {
      * @return the total price of products in this order
      */
     public double getServicesTotalPrice() {
-        Double totalPrice=0.0;
-        for (Item item : this.order.keySet()) {
-            if(item instanceof Service) {
-                totalPrice+=item.getPrice()*order.get(item);
-            }
-        }
-        return totalPrice;
+        return this.servicesTotalInCents/100.0;
+    }
+
+    /**
+     * @return the exact total price of services in this order, in cents
+     */
+    public long getServicesTotalInCents() {
+        return this.servicesTotalInCents;
     }
 
     /**
@@ -81,4 +272,60 @@ public class Order {
     public void setCompleted(boolean completed) {
         this.isCompleted=completed;
     }
+
+    /**
+     * @return item number of the item the order management system last turned this order down for, 0 if it
+     wasn't turned down
+     */
+    public int getRejectedItem() {
+        return this.rejectedItem;
+    }
+
+    /**
+     * @param itemNumber item number of the item the order was turned down for, 0 if it was accepted
+     */
+    protected void setRejectedItem(int itemNumber) {
+        this.rejectedItem=itemNumber;
+    }
+
+    private ItemRegistry lookUp() {
+        if(registry==null) {
+            throw new IllegalStateException("items can only be added by item number to an order made with a registry");
+        }
+        return registry;
+    }
+
+    /**
+     * @return the registry's instance of the item, or the item itself if the registry doesn't have one
+     */
+    private Item canonical(Item item) {
+        Item known=null;
+        if(item instanceof Product) {
+            known=registry.getProduct(item.getItemNumber());
+        }
+        else if(item instanceof Service) {
+            known=registry.getService(item.getItemNumber());
+        }
+        return known!=null&&known.getClass()==item.getClass()?known:item;
+    }
+
+    private static long lineTotalInCents(Item item, int quantity) {
+        return Math.multiplyExact(item.getPriceInCents(),(long)quantity);
+    }
+
+    private static int indexOf(int[] itemNumbers, int count, int itemNumber) {
+        for(int i=0;i<count;i++) {
+            if(itemNumbers[i]==itemNumber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int checkLine(int line, int count) {
+        if(line<0||line>=count) {
+            throw new IndexOutOfBoundsException("no line "+line+" in an order with "+count);
+        }
+        return line;
+    }
 }
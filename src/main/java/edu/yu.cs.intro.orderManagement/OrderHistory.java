@@ -0,0 +1,523 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+/**
+ * Append-only history of the orders an order management system accepted, for a system that has been given
+ it with {@link OrderManagementSystem#setHistory(OrderHistory)}. Every accepted order is kept as a record of
+ its sequence number, its product and service lines and the ids of the providers it was given.
+ * Everything that grows with the number of orders lives in direct buffers outside the Java heap, so keeping
+ a long history doesn't make the garbage collector copy it over and over. Records are packed one after
+ another into buffers of a fixed size as [long sequence][int products][int services][int providers], then
+ (item number, quantity) pairs for the products and the services, then the provider ids. They are in the
+ order they were appended, which is close to, but not exactly, the order of their sequence numbers, since
+ orders without services are committed without a lock.
+ * For each product, service and provider there is a postings list of where the records it appears in start,
+ kept as a chain of small blocks in another set of buffers. Queries walk a postings list, or every record for
+ a range of sequence numbers, and read the records straight out of the buffers, so nothing is collected along
+ the way; the streams are lazy and only see records that were appended before they were made.
+ * Appending an order only writes its record, one sequential write under the history's lock. Adding it to
+ the postings lists touches a block per line scattered all over memory, which costs more than the rest of
+ placing the order, so that is left to the next query: before using the postings lists, a query adds every
+ record appended since the last one. Any number of threads may query while orders are being appended.
+ Everything a record or postings entry needs is written before the count that makes it visible, and counts
+ are written with release semantics, which unlike volatile writes don't stall the writer.
+ */
+public class OrderHistory {
+    /**
+     * size of each buffer records are packed into, unless another is given to {@link #OrderHistory(int)}
+     */
+    public static final int DEFAULT_SEGMENT_SIZE=1<<20;
+    private static final int HEADER=8+4+4+4;
+    /**
+     * written as the product count where a record didn't fit, to send readers on to the next segment
+     */
+    private static final int END_OF_SEGMENT=-1;
+    /**
+     * a postings block is the position of the next block followed by this many record positions
+     */
+    private static final int BLOCK_ENTRIES=7;
+    private static final int BLOCK_SIZE=8+BLOCK_ENTRIES*8;
+    private static final int PAGE_SHIFT=10;
+    private static final int PAGE_SIZE=1<<PAGE_SHIFT;
+    private static final int PAGE_MASK=PAGE_SIZE-1;
+    private static final VarHandle SIZE;
+    private static final VarHandle INTS=MethodHandles.arrayElementVarHandle(int[].class);
+    static {
+        try {
+            SIZE=MethodHandles.lookup().findVarHandle(OrderHistory.class,"size",int.class);
+        }catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private final Arena records;
+    /**
+     * number of records, written with release semantics once a record and its postings are in place
+     */
+    private int size;
+    private final Postings byProduct;
+    private final Postings byService;
+    private final Postings byProvider;
+    /**
+     * guards bringing the postings lists up to date, see {@link #catchUp()}
+     */
+    private final Object indexLock=new Object();
+    private int indexed;
+    private long indexedPosition;
+
+    public OrderHistory() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size in bytes of each buffer records are packed into. No single order can be bigger.
+     * @throws IllegalArgumentException if the segment size is too small to hold an order
+     */
+    public OrderHistory(int segmentSize) throws IllegalArgumentException {
+        if(segmentSize<1024) {
+            throw new IllegalArgumentException("segment size too small: "+segmentSize);
+        }
+        this.records=new Arena(segmentSize);
+        this.size=0;
+        Arena blocks=new Arena(segmentSize);
+        this.byProduct=new Postings(blocks);
+        this.byService=new Postings(blocks);
+        this.byProvider=new Postings(blocks);
+        this.indexed=0;
+        this.indexedPosition=0;
+    }
+
+    /**
+     * Record an order that was just committed
+     * @param sequence the sequence number it was given
+     * @param reservation what it took
+     * @throws IllegalArgumentException if the order doesn't fit in a segment
+     */
+    protected synchronized void append(long sequence, OrderReservation reservation) throws IllegalArgumentException {
+        int products=reservation.productCount;
+        int services=reservation.serviceCount;
+        int providers=reservation.providers.size();
+        int length=HEADER+products*8+services*8+providers*4;
+        if(length>records.segmentSize) {
+            throw new IllegalArgumentException("order of "+length+" bytes doesn't fit in a history segment");
+        }
+        if(records.remaining()<length&&records.remaining()>=HEADER) {
+            records.current().putInt(records.offset+8,END_OF_SEGMENT);
+        }
+        long position=records.allocate(length);
+        ByteBuffer out=records.segment(position);
+        int at=records.offsetOf(position);
+        out.putLong(at,sequence);
+        out.putInt(at+8,products);
+        out.putInt(at+12,services);
+        out.putInt(at+16,providers);
+        at+=HEADER;
+        for(int i=0;i<products;i++,at+=8) {
+            out.putInt(at,reservation.productNumbers[i]);
+            out.putInt(at+4,reservation.quantities[i]);
+        }
+        for(int i=0;i<services;i++,at+=8) {
+            out.putInt(at,reservation.serviceNumbers[i]);
+            out.putInt(at+4,reservation.serviceQuantities[i]);
+        }
+        for(ServiceProvider sp:reservation.providers) {
+            out.putInt(at,sp.getId());
+            at+=4;
+        }
+        SIZE.setRelease(this,size+1);
+    }
+
+    /**
+     * Add every record appended since the last time to the postings lists
+     */
+    private void catchUp() {
+        synchronized(indexLock) {
+            int count=size();
+            if(indexed==count) {
+                return;
+            }
+            RecordIterator appended=new RecordIterator(indexedPosition,count-indexed);
+            while(appended.hasNext()) {
+                long position=appended.nextLong();
+                ByteBuffer in=records.segment(position);
+                int at=records.offsetOf(position);
+                int products=in.getInt(at+8);
+                int services=in.getInt(at+12);
+                int providers=in.getInt(at+16);
+                at+=HEADER;
+                for(int i=0;i<products;i++,at+=8) {
+                    byProduct.add(in.getInt(at),position);
+                }
+                for(int i=0;i<services;i++,at+=8) {
+                    byService.add(in.getInt(at),position);
+                }
+                for(int i=0;i<providers;i++,at+=4) {
+                    byProvider.add(in.getInt(at),position);
+                }
+            }
+            indexed=count;
+            indexedPosition=appended.position;
+        }
+    }
+
+    /**
+     * @return number of orders recorded
+     */
+    public int size() {
+        return (int)SIZE.getAcquire(this);
+    }
+
+    /**
+     * @return bytes of buffer space taken by the records and the postings lists
+     */
+    public long bytesUsed() {
+        long used;
+        synchronized(this) {
+            used=records.used();
+        }
+        synchronized(indexLock) {
+            return used+byProduct.blocks.used();
+        }
+    }
+
+    /**
+     * @param fromSequence
+     * @param toSequence
+     * @return lazy stream of the orders with sequence numbers from fromSequence to toSequence inclusive, in the
+     order they were appended, each copied out as it is reached
+     */
+    public Stream<OrderRecord> orders(long fromSequence, long toSequence) {
+        int count=size();
+        return stream(new RecordIterator(0,count),count)
+                .filter(position->inRange(sequenceAt(position),fromSequence,toSequence))
+                .mapToObj(this::recordAt);
+    }
+
+    /**
+     * @param productNumber
+     * @return lazy stream of the sequence numbers of the orders that took the product
+     */
+    public LongStream ordersWithProduct(int productNumber) {
+        catchUp();
+        return byProduct.positions(productNumber).map(this::sequenceAt);
+    }
+
+    /**
+     * @param serviceNumber
+     * @return lazy stream of the sequence numbers of the orders for the service
+     */
+    public LongStream ordersWithService(int serviceNumber) {
+        catchUp();
+        return byService.positions(serviceNumber).map(this::sequenceAt);
+    }
+
+    /**
+     * @param providerId
+     * @return lazy stream of the sequence numbers of the orders the provider was engaged for
+     */
+    public LongStream ordersServedBy(int providerId) {
+        catchUp();
+        return byProvider.positions(providerId).map(this::sequenceAt);
+    }
+
+    /**
+     * @param productNumber
+     * @param fromSequence
+     * @param toSequence
+     * @return units of the product taken by orders with sequence numbers from fromSequence to toSequence
+     inclusive
+     */
+    public long unitsSold(int productNumber, long fromSequence, long toSequence) {
+        catchUp();
+        return byProduct.positions(productNumber)
+                .map(position->quantityIn(position,productNumber,false,fromSequence,toSequence))
+                .sum();
+    }
+
+    /**
+     * @param serviceNumber
+     * @param fromSequence
+     * @param toSequence
+     * @return providers engaged for the service by orders with sequence numbers from fromSequence to
+     toSequence inclusive
+     */
+    public long serviceUnitsSold(int serviceNumber, long fromSequence, long toSequence) {
+        catchUp();
+        return byService.positions(serviceNumber)
+                .map(position->quantityIn(position,serviceNumber,true,fromSequence,toSequence))
+                .sum();
+    }
+
+    /**
+     * @param providerId
+     * @param fromSequence
+     * @param toSequence
+     * @return number of orders with sequence numbers from fromSequence to toSequence inclusive the provider was
+     engaged for
+     */
+    public long countOrdersServedBy(int providerId, long fromSequence, long toSequence) {
+        return ordersServedBy(providerId).filter(sequence->inRange(sequence,fromSequence,toSequence)).count();
+    }
+
+    private OrderRecord recordAt(long position) {
+        ByteBuffer in=records.segment(position);
+        int at=records.offsetOf(position);
+        int[] productNumbers=new int[in.getInt(at+8)];
+        int[] productQuantities=new int[productNumbers.length];
+        int[] serviceNumbers=new int[in.getInt(at+12)];
+        int[] serviceQuantities=new int[serviceNumbers.length];
+        int[] providerIds=new int[in.getInt(at+16)];
+        long sequence=in.getLong(at);
+        at+=HEADER;
+        for(int i=0;i<productNumbers.length;i++,at+=8) {
+            productNumbers[i]=in.getInt(at);
+            productQuantities[i]=in.getInt(at+4);
+        }
+        for(int i=0;i<serviceNumbers.length;i++,at+=8) {
+            serviceNumbers[i]=in.getInt(at);
+            serviceQuantities[i]=in.getInt(at+4);
+        }
+        for(int i=0;i<providerIds.length;i++,at+=4) {
+            providerIds[i]=in.getInt(at);
+        }
+        return new OrderRecord(sequence,productNumbers,productQuantities,serviceNumbers,serviceQuantities,providerIds);
+    }
+
+    /**
+     * @return the quantity on the record's line for the item, 0 if the record is out of the range
+     */
+    private long quantityIn(long position, int itemNumber, boolean service, long fromSequence, long toSequence) {
+        ByteBuffer in=records.segment(position);
+        int at=records.offsetOf(position);
+        if(!inRange(in.getLong(at),fromSequence,toSequence)) {
+            return 0;
+        }
+        int products=in.getInt(at+8);
+        int lines=service?in.getInt(at+12):products;
+        at+=HEADER+(service?products*8:0);
+        for(int i=0;i<lines;i++,at+=8) {
+            if(in.getInt(at)==itemNumber) {
+                return in.getInt(at+4);
+            }
+        }
+        return 0;
+    }
+
+    private long sequenceAt(long position) {
+        return records.segment(position).getLong(records.offsetOf(position));
+    }
+
+    private static boolean inRange(long sequence, long fromSequence, long toSequence) {
+        return sequence>=fromSequence&&sequence<=toSequence;
+    }
+
+    private static LongStream stream(PrimitiveIterator.OfLong positions, int count) {
+        int characteristics=Spliterator.ORDERED|Spliterator.IMMUTABLE|Spliterator.NONNULL;
+        return StreamSupport.longStream(Spliterators.spliterator(positions,count,characteristics),false);
+    }
+
+    /**
+     * Walks count records from the one at the given position
+     */
+    private final class RecordIterator implements PrimitiveIterator.OfLong {
+        private int left;
+        /**
+         * where the next record starts, or would start if there is room for it in the segment
+         */
+        private long position;
+
+        private RecordIterator(long position, int count) {
+            this.left=count;
+            this.position=position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return left>0;
+        }
+
+        @Override
+        public long nextLong() {
+            if(left==0) {
+                throw new NoSuchElementException();
+            }
+            int segmentSize=records.segmentSize;
+            int at=records.offsetOf(position);
+            if(at+HEADER>segmentSize||records.segment(position).getInt(at+8)==END_OF_SEGMENT) {
+                position=(position/segmentSize+1)*segmentSize;
+                at=0;
+            }
+            long found=position;
+            ByteBuffer in=records.segment(found);
+            position+=HEADER+(in.getInt(at+8)+in.getInt(at+12))*8+in.getInt(at+16)*4;
+            left--;
+            return found;
+        }
+    }
+
+    /**
+     * Fixed size direct buffers that space is handed out of in order. A position is the segment number times
+     the segment size plus the offset in the segment. Appended to by one thread at a time, read by any.
+     */
+    private static final class Arena {
+        private final int segmentSize;
+        private volatile ByteBuffer[] segments;
+        private int segmentCount;
+        private int offset;
+
+        private Arena(int segmentSize) {
+            this.segmentSize=segmentSize;
+            this.segments=new ByteBuffer[4];
+            this.segmentCount=0;
+            this.offset=segmentSize;
+        }
+
+        private long allocate(int length) {
+            if(offset+length>segmentSize) {
+                ByteBuffer[] directory=this.segments;
+                if(segmentCount==directory.length) {
+                    directory=Arrays.copyOf(directory,segmentCount*2);
+                }
+                directory[segmentCount++]=ByteBuffer.allocateDirect(segmentSize);
+                this.segments=directory;
+                offset=0;
+            }
+            long position=(long)(segmentCount-1)*segmentSize+offset;
+            offset+=length;
+            return position;
+        }
+
+        private int remaining() {
+            return segmentSize-offset;
+        }
+
+        private ByteBuffer current() {
+            return segments[segmentCount-1];
+        }
+
+        private long used() {
+            return segmentCount==0?0:(long)(segmentCount-1)*segmentSize+offset;
+        }
+
+        private ByteBuffer segment(long position) {
+            return segments[(int)(position/segmentSize)];
+        }
+
+        private int offsetOf(long position) {
+            return (int)(position%segmentSize);
+        }
+    }
+
+    /**
+     * A postings list of record positions for every key, found through an {@link IntIndex} so nothing is
+     boxed. Each list is a chain of blocks in the arena; only its head, tail and count are on the heap, in
+     pages that never move.
+     */
+    private static final class Postings {
+        private final Arena blocks;
+        private final IntIndex lists=new IntIndex();
+        private volatile long[][] heads=new long[1][];
+        private long[][] tails=new long[1][];
+        private volatile int[][] counts=new int[1][];
+
+        private Postings(Arena blocks) {
+            this.blocks=blocks;
+        }
+
+        private void add(int key, long position) {
+            int list=lists.get(key);
+            if(list==IntIndex.ABSENT) {
+                list=newList();
+                //publishing the key is what makes the list visible to readers
+                lists.put(key,list);
+            }
+            int page=list>>>PAGE_SHIFT;
+            int i=list&PAGE_MASK;
+            int count=counts[page][i];
+            long tail=tails[page][i];
+            int entry=count%BLOCK_ENTRIES;
+            if(count>0&&entry==0) {
+                long block=blocks.allocate(BLOCK_SIZE);
+                blocks.segment(tail).putLong(blocks.offsetOf(tail),block);
+                tail=block;
+                tails[page][i]=block;
+            }
+            blocks.segment(tail).putLong(blocks.offsetOf(tail)+8+entry*8,position);
+            INTS.setRelease(counts[page],i,count+1);
+        }
+
+        private int newList() {
+            int list=lists.size();
+            int page=list>>>PAGE_SHIFT;
+            if(page==heads.length||heads[page]==null) {
+                long[][] h=this.heads;
+                long[][] t=this.tails;
+                int[][] c=this.counts;
+                if(page==h.length) {
+                    h=Arrays.copyOf(h,page*2);
+                    t=Arrays.copyOf(t,page*2);
+                    c=Arrays.copyOf(c,page*2);
+                }
+                h[page]=new long[PAGE_SIZE];
+                t[page]=new long[PAGE_SIZE];
+                c[page]=new int[PAGE_SIZE];
+                this.tails=t;
+                this.counts=c;
+                this.heads=h;
+            }
+            long block=blocks.allocate(BLOCK_SIZE);
+            heads[page][list&PAGE_MASK]=block;
+            tails[page][list&PAGE_MASK]=block;
+            return list;
+        }
+
+        /**
+         * @return lazy stream of the positions in the key's list, as far as it goes right now
+         */
+        private LongStream positions(int key) {
+            int list=lists.get(key);
+            if(list==IntIndex.ABSENT) {
+                return LongStream.empty();
+            }
+            int page=list>>>PAGE_SHIFT;
+            int count=(int)INTS.getAcquire(counts[page],list&PAGE_MASK);
+            return stream(new BlockIterator(heads[page][list&PAGE_MASK],count),count);
+        }
+
+        private final class BlockIterator implements PrimitiveIterator.OfLong {
+            private long block;
+            private int next;
+            private final int count;
+
+            private BlockIterator(long head, int count) {
+                this.block=head;
+                this.next=0;
+                this.count=count;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next<count;
+            }
+
+            @Override
+            public long nextLong() {
+                if(next==count) {
+                    throw new NoSuchElementException();
+                }
+                int entry=next%BLOCK_ENTRIES;
+                ByteBuffer in=blocks.segment(block);
+                if(next>0&&entry==0) {
+                    block=in.getLong(blocks.offsetOf(block));
+                    in=blocks.segment(block);
+                }
+                next++;
+                return in.getLong(blocks.offsetOf(block)+8+entry*8);
+            }
+        }
+    }
+}
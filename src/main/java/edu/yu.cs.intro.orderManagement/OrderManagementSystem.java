@@ -8,9 +8,61 @@ public class OrderManagementSystem {
     protected Set<ServiceProvider>serviceProviders;
     private Set<Product> products;
     protected Set<Service> servicesProvidedByBusiness;
-    private int defaultProductStockLevel;
+    protected int defaultProductStockLevel;
     protected Map <Service, Set<ServiceProvider>> servicePairing;
-    private Set<Service> doNotOffer;
+    protected Set<Service> doNotOffer;
+    /**
+     * the one instance of every product and service this system knows about, see {@link #getItemRegistry()}
+     */
+    protected ItemRegistry items;
+    /**
+     * the services in {@link #servicesProvidedByBusiness} as a bitset over their ordinals, so orders can be
+     checked against it without hashing. Kept up to date by {@link #publishServices()}.
+     */
+    private long[] offeredServices;
+    /**
+     * guards everything to do with services and service providers. Products don't need it, the warehouse
+     takes care of its own thread safety. While a sequencer owns the system, its thread places orders without
+     it, see {@link #setSequencer(OrderSequencer)}.
+     */
+    protected final Object serviceLock=new Object();
+    /**
+     * the latest catalog snapshot, see {@link #getCatalogSnapshot()}
+     */
+    private volatile CatalogSnapshot catalog;
+    private final Object catalogLock=new Object();
+    /**
+     * numbers completed orders and frees providers when their engagement is over
+     */
+    protected EngagementSchedule schedule;
+    /**
+     * providers who are free right now, by service
+     */
+    protected ProviderPools freeProviders;
+    /**
+     * where every change is recorded, null if nothing is
+     */
+    protected Journal journal;
+    /**
+     * counts and times orders, null if nothing is
+     */
+    protected OrderMetrics metrics;
+    /**
+     * restocks products in the background, null if nothing does
+     */
+    protected Replenisher replenisher;
+    /**
+     * keeps every accepted order, null if nothing does
+     */
+    protected OrderHistory history;
+    /**
+     * counts the units of every product ordered, null if nothing does
+     */
+    protected DemandTracker demand;
+    /**
+     * the sequencer that owns the system while it runs, null if there is none
+     */
+    protected volatile OrderSequencer sequencer;
 
     /**
      * Creates a new Warehouse instance and calls the other constructor
@@ -45,21 +97,31 @@ public class OrderManagementSystem {
         this.defaultProductStockLevel=defaultProductStockLevel;
         this.servicePairing=new HashMap<>();
         this.doNotOffer=new HashSet<>();
+        this.freeProviders=new ProviderPools();
+        this.schedule=new EngagementSchedule();
+        this.items=new ItemRegistry(warehouse);
         for (Product p:products) {
             this.warehouse.addNewProductToWarehouse(p,defaultProductStockLevel);
         }
+        //one pass over what each provider offers, instead of asking every provider about every service
         for(ServiceProvider sp:serviceProviders) {
-            servicesProvidedByBusiness.addAll(sp.getServices());
-        }
-        for(Service s:servicesProvidedByBusiness) {
-            Set<ServiceProvider>providesThisService=new HashSet<>();
-            for(ServiceProvider sp:serviceProviders) {
-                if(sp.getServices().contains(s)) {
-                    providesThisService.add(sp);
+            this.serviceProviders.add(sp);
+            sp.system=this;
+            freeProviders.add(sp);
+            for(Service s:sp.services) {
+                items.register(s);
+                servicesProvidedByBusiness.add(s);
+                Set<ServiceProvider>providesThisService=servicePairing.get(s);
+                if(providesThisService==null) {
+                    providesThisService=new HashSet<>();
+                    servicePairing.put(s,providesThisService);
                 }
+                providesThisService.add(sp);
+                freeProviders.addMember(s,sp);
             }
-            servicePairing.put(s,providesThisService);
         }
+        this.catalog=new CatalogSnapshot(0,this.warehouse.copyCatalog(),new HashSet<>(servicesProvidedByBusiness));
+        this.offeredServices=offeredBits(servicesProvidedByBusiness);
     }
 
     /**
@@ -75,84 +137,534 @@ public class OrderManagementSystem {
      order.
      * 3) Mark the order as completed
      * 4) Update the busy status of service providers involved...
+     * The order is all or nothing: providers and stock are first reserved, and only committed once every
+     part of the order has been reserved. If anything fails, the reservation is aborted and everything is
+     handed back.
+     * Safe to call from many threads at once. Service providers are reserved under a lock, but product
+     stock is claimed with atomic operations on the warehouse, so orders for different products don't wait
+     on each other and no lock is held while products are checked.
      * @throws IllegalArgumentException if any part of the order for PRODUCTS can’t be fulfilled
      * @throws IllegalStateException if any part of the order for SERVICES can’t be fulfilled
      */
     public void placeOrder(Order order) throws IllegalArgumentException,IllegalStateException {
-        Set<Product> productsRequested=new HashSet<>();
-        Set<Service> servicesRequested=new HashSet<>();
-        //fill them
-        for(Item i: order.order.keySet()) {
-            if(i instanceof Product) {
-                productsRequested.add((Product)i);
+        OrderOutcome outcome=tryPlaceOrder(order);
+        if(outcome==OrderOutcome.ACCEPTED) {
+            return;
+        }
+        if(outcome.isServiceRejection()) {
+            throw new IllegalStateException("can't process services requested: "+order.getRejectedItem());
+        }
+        throw new IllegalArgumentException("cant process product requested: "+order.getRejectedItem());
+    }
+
+    /**
+     * Accept an order the same way as {@link #placeOrder(Order)}, but report a rejection by returning it
+     instead of throwing, so turning an order down costs no more than accepting it. Every check is made once.
+     * @param order
+     * @return what happened to the order. If it was turned down, the item it was turned down for is recorded
+     in the order, see {@link Order#getRejectedItem()}.
+     */
+    public OrderOutcome tryPlaceOrder(Order order) {
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            return owner.place(order);
+        }
+        OrderMetrics m=this.metrics;
+        boolean timed=m!=null&&m.sample();
+        long time=timed?System.nanoTime():0;
+        OrderReservation reservation=new OrderReservation();
+        //check and reserve services in one go
+        if(hasServices(order)) {
+            OrderOutcome outcome;
+            synchronized(serviceLock) {
+                outcome=reserveServices(order,reservation);
+            }
+            if(timed) {
+                m.phaseDone(OrderMetrics.Phase.RESERVE_SERVICES,time);
+            }
+            if(outcome!=OrderOutcome.ACCEPTED) {
+                return reject(order,outcome,reservation);
+            }
+        }
+        //check and reserve products, handing back the providers if any of them can't be fulfilled
+        OrderOutcome outcome=reserveProducts(order,reservation);
+        if(outcome!=OrderOutcome.ACCEPTED) {
+            return reject(order,outcome,reservation);
+        }
+        record(outcome,reservation);
+        timed=m!=null&&m.sample();
+        time=timed?System.nanoTime():0;
+        long journaled=commit(reservation);
+        if(journal!=null) {
+            journal.commit(journaled);
+        }
+        if(timed) {
+            m.phaseDone(OrderMetrics.Phase.COMMIT,time);
+        }
+        order.setRejectedItem(0);
+        order.setCompleted(true);
+        return OrderOutcome.ACCEPTED;
+    }
+
+    private OrderOutcome reject(Order order, OrderOutcome outcome, OrderReservation reservation) {
+        record(outcome,reservation);
+        order.setRejectedItem(reservation.failedItem);
+        abort(reservation);
+        return outcome;
+    }
+
+    /**
+     * Place a batch of orders, with the same result for every order as placing them one at a time in the
+     order given. The demand for each product is summed over the batch, so every product is looked up and
+     taken out of stock once, and restocks and leftovers go back to the warehouse once per product at the
+     end. Services are staffed order by order, holding the service lock for the whole batch.
+     * Other threads placing orders for the same products at the same time may be turned away while the
+     batch holds on to the stock it claimed.
+     * @param orders
+     * @return what happened to each order, in the order they were given. Accepted orders are marked completed,
+     rejected ones record the item they were turned down for.
+     */
+    public OrderOutcome[] placeOrders(List<Order> orders) {
+        OrderOutcome[] outcomes=new OrderOutcome[orders.size()];
+        placeOrders(orders,outcomes);
+        return outcomes;
+    }
+
+    /**
+     * Place a batch of orders the same way as {@link #placeOrders(List)}, filling in each order's outcome as
+     soon as the order is committed or rejected. If placing throws partway through the batch, the orders
+     with an outcome were applied and are committed to the journal, and the ones left null were not.
+     * @param orders
+     * @param outcomes where to put what happened to each order, at least as long as the batch
+     */
+    protected void placeOrders(List<Order> orders, OrderOutcome[] outcomes) {
+        OrderSequencer owner=this.sequencer;
+        if(owner!=null&&!owner.isSequencerThread()) {
+            owner.place(orders,outcomes);
+            return;
+        }
+        //the sequencer that owns the system is the only thread that takes stock or touches providers, so it
+        //needs no lock, and it takes the stock without compare and set
+        boolean owned=owner!=null;
+        int count=orders.size();
+        BatchDemand demand=new BatchDemand(this.warehouse.stock,count);
+        for(Order order:orders) {
+            demand.add(order);
+        }
+        if(owned) {
+            demand.claimAsOnlyTaker();
+        }
+        else {
+            demand.claim();
+        }
+        long journaled=0;
+        try {
+            OrderReservation reservation=new OrderReservation();
+            if(owned) {
+                for(int n=0;n<count;n++) {
+                    journaled=Math.max(journaled,placeInBatch(orders.get(n),n,demand,reservation,outcomes,true));
+                }
             }
             else {
-                servicesRequested.add((Service)i);
-            }
-        }
-        //check and process services
-        if(validateServices(servicesRequested,order)!=0) {
-            throw new IllegalStateException("can't process services requested: "+validateServices(servicesRequested,order));
-        }
-        processServicesInOrder(order,servicesRequested);
-        //check and process products
-        if(validateProducts(productsRequested,order)!=0) {
-            throw new IllegalArgumentException("cant process product requested: "+validateProducts(productsRequested,order));
-        }
-        processProductsInOrder(order,productsRequested);
-        //update the busy ppl
-        for(ServiceProvider sp:this.serviceProviders) {
-            if(sp.busy==true) {
-                sp.setOrdersSinceBusy(sp.getOrdersSinceBusy()+1);{
-                    if(sp.getOrdersSinceBusy()==4) {
-                        sp.endCustomerEngagement();
-                        sp.setOrdersSinceBusy(0);
+                synchronized(serviceLock) {
+                    for(int n=0;n<count;n++) {
+                        journaled=Math.max(journaled,placeInBatch(orders.get(n),n,demand,reservation,outcomes,false));
                     }
                 }
             }
+        }finally {
+            demand.settle();
+            //one commit to the journal for the whole batch, or for the orders applied before it failed
+            if(journal!=null&&journaled!=0) {
+                journal.commit(journaled);
+            }
         }
-        order.setCompleted(true);
     }
 
     /**
+     * Place the nth order of a batch, against the stock the batch claimed. Must be called holding {@link
+     #serviceLock}, or by the sequencer that owns the system.
+     * @param owned true if called by the sequencer that owns the system
+     * @return where the order's journal record ends, 0 if it wasn't accepted or there is no journal
+     */
+    private long placeInBatch(Order order, int n, BatchDemand demand, OrderReservation reservation, OrderOutcome[] outcomes, boolean owned) {
+        reservation.clear();
+        OrderOutcome outcome=reserveServices(order,reservation);
+        if(outcome==OrderOutcome.ACCEPTED) {
+            outcome=demand.reserve(n,reservation);
+        }
+        record(outcome,reservation);
+        long journaled=0;
+        if(outcome==OrderOutcome.ACCEPTED) {
+            journaled=commit(reservation,owned,0);
+            order.setRejectedItem(0);
+            order.setCompleted(true);
+        }
+        else {
+            order.setRejectedItem(reservation.failedItem);
+            abort(reservation,owned);
+        }
+        outcomes[n]=outcome;
+        return journaled;
+    }
+
+    /**
+     * @param order
+     * @return true if the order has any services in it
+     */
+    private static boolean hasServices(Order order) {
+        return order.serviceLineCount()>0;
+    }
+
+    /**
+     * Set aside providers for every service in the order, straight out of the free pools. The providers are
+     matched to the services as a whole, see {@link ProviderPools#assign(Service, int)}, so a provider who
+     offers several of the services is used where nobody else can stand in for it. Must be called holding
+     {@link #serviceLock}, or by the sequencer that owns the system.
+     * @param order
+     * @param reservation the reservation to record the providers in. If a service can't be staffed, its item
+     number is recorded as the reservation's failed item, and no providers are set aside.
+     * @return {@link OrderOutcome#ACCEPTED} if every service was staffed
+     */
+    protected OrderOutcome reserveServices(Order order, OrderReservation reservation) {
+        OrderOutcome outcome=checkServices(order,reservation);
+        if(outcome!=OrderOutcome.ACCEPTED) {
+            return outcome;
+        }
+        takeAssigned(reservation);
+        for(int line=0;line<order.serviceLineCount();line++) {
+            reservation.addService(order.serviceNumberAt(line),order.serviceQuantityAt(line));
+        }
+        return OrderOutcome.ACCEPTED;
+    }
+
+    /**
+     * Match free providers to every service in the order the same way as {@link #reserveServices(Order,
+     OrderReservation)}, without setting any of them aside. Must be called holding {@link #serviceLock}, or by
+     the sequencer that owns the system.
+     * @param order
+     * @param reservation where the item number of a service that can't be staffed is recorded
+     * @return {@link OrderOutcome#ACCEPTED} if every service can be staffed
+     */
+    protected OrderOutcome checkServices(Order order, OrderReservation reservation) {
+        freeProviders.startAssignment();
+        for(int line=0;line<order.serviceLineCount();line++) {
+            Service s=order.serviceAt(line);
+            if(!isOffered(s)) {
+                reservation.failedItem=s.getItemNumber();
+                return OrderOutcome.UNKNOWN_SERVICE;
+            }
+            if(!freeProviders.assign(s,order.serviceQuantityAt(line))) {
+                reservation.failedItem=s.getItemNumber();
+                return OrderOutcome.NO_FREE_PROVIDER;
+            }
+        }
+        return OrderOutcome.ACCEPTED;
+    }
+
+    /**
+     * Set aside providers for the given services, straight out of the free pools, matched to the services
+     the same way as {@link #reserveServices(Order, OrderReservation)}. Must be called holding {@link
+     #serviceLock}.
      * @param order
      * @param services
-     * @throws IllegalStateException
-     */
-    protected void processServicesInOrder(Order order, Set<Service>services) throws IllegalStateException {
-        for(Service i:services) {
-            int amount=order.order.get(i);
-            int counter=0;
-            for(ServiceProvider sp:this.servicePairing.get(i)) {
-                if(counter<amount) {
-                    if(sp.busy==false) {
-                        counter++;
-                        sp.assignToCustomer();
+     * @param reservation the reservation to record the providers in. If a service can't be staffed, no
+     providers are set aside.
+     * @return itemNumber of the first service that isn't offered or can't be staffed along with the ones
+     before it. Return 0 if all of them were reserved.
+     */
+    protected int reserveServicesInOrder(Order order, Collection<Service>services, OrderReservation reservation) {
+        int failed=assignServices(order,services);
+        if(failed==0) {
+            takeAssigned(reservation);
+            for(Service s:services) {
+                reservation.addService(s.getItemNumber(),order.getQuantity(s));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Match free providers to the given services without taking any of them. Must be called holding {@link
+     #serviceLock}.
+     * @return itemNumber of the first service that isn't offered or can't be staffed, 0 if all of them can
+     */
+    private int assignServices(Order order, Collection<Service> services) {
+        freeProviders.startAssignment();
+        for(Service s:services) {
+            if(!isOffered(s)||!freeProviders.assign(s,order.getQuantity(s))) {
+                return s.getItemNumber();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Must be called holding {@link #serviceLock}, or by the sequencer that owns the system
+     * @return true if the business offers the service
+     */
+    private boolean isOffered(Service s) {
+        int word=s.ordinal>>>6;
+        return word<offeredServices.length&&(offeredServices[word]&(1L<<s.ordinal))!=0;
+    }
+
+    private static long[] offeredBits(Set<Service> services) {
+        long[] bits=new long[1];
+        for(Service s:services) {
+            int word=s.ordinal>>>6;
+            if(word>=bits.length) {
+                bits=Arrays.copyOf(bits,Math.max(bits.length*2,word+1));
+            }
+            bits[word]|=1L<<s.ordinal;
+        }
+        return bits;
+    }
+
+    private void takeAssigned(OrderReservation reservation) {
+        freeProviders.takeAssigned();
+        for(int i=0;i<freeProviders.assignedCount();i++) {
+            ServiceProvider sp=freeProviders.assignedAt(i);
+            sp.reserve();
+            reservation.addProvider(sp);
+        }
+    }
+
+    /**
+     * Check that every product in the order can be fulfilled, then take them out of stock, restocking first
+     where there isn't enough and the product isn't on the do not restock list. Safe to call without any lock.
+     * @param order
+     * @param reservation the reservation to record the stock taken in. If a product can't be taken, its item
+     number is recorded as the reservation's failed item.
+     * @return {@link OrderOutcome#ACCEPTED} if every product was taken
+     */
+    protected OrderOutcome reserveProducts(Order order, OrderReservation reservation) {
+        OrderMetrics m=this.metrics;
+        boolean timed=m!=null&&m.sample();
+        long time=timed?System.nanoTime():0;
+        for(int line=0;line<order.productLineCount();line++) {
+            int productNumber=order.productNumberAt(line);
+            if(!this.warehouse.isInCatalog(productNumber)) {
+                reservation.failedItem=productNumber;
+                return OrderOutcome.UNKNOWN_PRODUCT;
+            }
+            if(!(this.warehouse.canFulfill(productNumber,order.productQuantityAt(line))||this.warehouse.isRestockable(productNumber))) {
+                reservation.failedItem=productNumber;
+                return OrderOutcome.OUT_OF_STOCK;
+            }
+        }
+        if(timed) {
+            time=m.phaseDone(OrderMetrics.Phase.VALIDATE_PRODUCTS,time);
+        }
+        for(int line=0;line<order.productLineCount();line++) {
+            //another order can get there first, in which case the caller aborts
+            int productNumber=order.productNumberAt(line);
+            int quantity=order.productQuantityAt(line);
+            int restocked=this.warehouse.fulfillOrRestock(productNumber,quantity);
+            if(restocked==Warehouse.NOT_FULFILLED) {
+                reservation.failedItem=productNumber;
+                return OrderOutcome.OUT_OF_STOCK;
+            }
+            reservation.addProduct(productNumber,quantity,restocked);
+        }
+        if(timed) {
+            m.phaseDone(OrderMetrics.Phase.TAKE_PRODUCTS,time);
+        }
+        return OrderOutcome.ACCEPTED;
+    }
+
+    /**
+     * Make a reservation permanent: the order gets the next sequence number, its providers become busy, and
+     anyone whose engagement ends with this order is freed. The order is journaled, but not committed to
+     the journal. Products it brought below their low watermark are handed to the replenisher, and the order
+     is added to the history and counted by the demand tracker, if there are any.
+     * @param reservation
+     * @return where the order's journal record ends, 0 if there is no journal
+     */
+    protected long commit(OrderReservation reservation) {
+        return commit(reservation,false,0);
+    }
+
+    /**
+     * {@link #commit(OrderReservation)} with the given sequence number instead of the next one, for an order
+     whose parts are committed by several systems that number their orders from one shared counter
+     * @param reservation
+     * @param sequence a number taken from the shared counter for the whole order
+     * @return where the order's journal record ends, 0 if there is no journal
+     */
+    protected long commit(OrderReservation reservation, long sequence) {
+        return commit(reservation,false,sequence);
+    }
+
+    /**
+     * @param owned true if called by the sequencer that owns the system, which needs no lock
+     * @param sequence the order's sequence number, 0 to give it the next one
+     */
+    private long commit(OrderReservation reservation, boolean owned, long sequence) {
+        long journaled=0;
+        if(reservation.hasProviders()) {
+            if(owned) {
+                journaled=engage(reservation,sequence);
+            }
+            else {
+                synchronized(serviceLock) {
+                    journaled=engage(reservation,sequence);
+                }
+            }
+        }
+        else {
+            reservation.sequence=sequence==0?schedule.advance():sequence;
+            if(journal!=null) {
+                journaled=journal.logOrder(reservation.sequence,reservation);
+            }
+            //no need to take the lock if nobody is busy
+            if(schedule.hasEngagements()) {
+                if(owned) {
+                    releaseDue();
+                }
+                else {
+                    synchronized(serviceLock) {
+                        releaseDue();
                     }
                 }
             }
-            if(counter<amount) {
-                throw new IllegalStateException("not enough providers for the amount requested of this service");
+        }
+        Replenisher r=this.replenisher;
+        if(r!=null) {
+            r.ordered(reservation);
+        }
+        OrderHistory h=this.history;
+        if(h!=null) {
+            h.append(reservation.sequence,reservation);
+        }
+        DemandTracker d=this.demand;
+        if(d!=null) {
+            d.ordered(reservation);
+        }
+        return journaled;
+    }
+
+    /**
+     * Give the order its sequence number and make its providers busy. Must be called holding {@link
+     #serviceLock}, or by the sequencer that owns the system.
+     * @param sequence the order's sequence number, 0 to give it the next one
+     * @return where the order's journal record ends, 0 if there is no journal
+     */
+    private long engage(OrderReservation reservation, long sequence) {
+        long journaled=0;
+        schedule.expectEngagements(reservation.providers.size());
+        reservation.sequence=sequence==0?schedule.advance():sequence;
+        for(ServiceProvider sp:reservation.providers) {
+            schedule.engage(sp,reservation.sequence);
+        }
+        //journaled along with the engagement, so records with providers are in the order the providers were engaged
+        if(journal!=null) {
+            journaled=journal.logOrder(reservation.sequence,reservation);
+        }
+        if(metrics!=null) {
+            metrics.recordAssignments(reservation.providers.size());
+        }
+        releaseDue();
+        return journaled;
+    }
+
+    /**
+     * Free every provider whose engagement ended with the latest order. Must be called holding {@link
+     #serviceLock}, or by the sequencer that owns the system.
+     */
+    protected void releaseDue() {
+        OrderMetrics m=this.metrics;
+        boolean timed=m!=null&&m.sample();
+        long time=timed?System.nanoTime():0;
+        int released=schedule.releaseDue(schedule.getSequence(),freeProviders);
+        if(m!=null) {
+            m.recordReleases(released);
+        }
+        if(timed) {
+            m.phaseDone(OrderMetrics.Phase.RELEASE_SWEEP,time);
+        }
+    }
+
+    /**
+     * Count the order's outcome and the restocking done for it, if metrics are being kept. Must be called
+     before the reservation is committed or aborted.
+     * @param outcome
+     * @param reservation
+     */
+    private void record(OrderOutcome outcome, OrderReservation reservation) {
+        recordOutcome(outcome,reservation.failedItem);
+        recordRestocks(reservation);
+    }
+
+    /**
+     * Count an order's outcome, if metrics are being kept
+     * @param outcome
+     * @param failedItem the item the order was turned down for, 0 if it was accepted
+     */
+    protected void recordOutcome(OrderOutcome outcome, int failedItem) {
+        OrderMetrics m=this.metrics;
+        if(m!=null) {
+            m.recordOutcome(outcome,failedItem);
+        }
+    }
+
+    /**
+     * Count the restocking done for a reservation, if metrics are being kept. Must be called before the
+     reservation is committed or aborted.
+     * @param reservation
+     */
+    protected void recordRestocks(OrderReservation reservation) {
+        OrderMetrics m=this.metrics;
+        if(m==null) {
+            return;
+        }
+        for(int i=0;i<reservation.productCount;i++) {
+            if(reservation.restocked[i]>0) {
+                m.recordRestock(reservation.restocked[i]);
             }
         }
     }
 
     /**
-     * @param order
-     * @param products
-     * @throws IllegalArgumentException
+     * Undo a reservation: its providers become available again and its stock goes back to the warehouse
+     * @param reservation
      */
-    protected void processProductsInOrder(Order order, Set<Product>products) throws IllegalArgumentException {
-        for(Product i:products) {
-            // if there's enough in stock, fulfill order
-            if(this.warehouse.canFulfill(i.getItemNumber(),order.order.get(i))) {
-                this.warehouse.fulfill(i.getItemNumber(),order.order.get(i));
+    protected void abort(OrderReservation reservation) {
+        abort(reservation,false);
+    }
+
+    /**
+     * @param owned true if called by the sequencer that owns the system, which needs no lock
+     */
+    private void abort(OrderReservation reservation, boolean owned) {
+        //restocking done for the order stays, so the journal has to hear about it
+        if(journal!=null) {
+            journal.logRestock(reservation);
+        }
+        for(int i=0;i<reservation.productCount;i++) {
+            this.warehouse.returnToStock(reservation.productNumbers[i],reservation.quantities[i]);
+        }
+        reservation.productCount=0;
+        if(reservation.hasProviders()) {
+            if(owned) {
+                release(reservation);
             }
-            // if there isn't enough in stock, and not on do not restock list, fulfill order
-            else if (this.warehouse.isRestockable(i.getItemNumber())) {
-                this.warehouse.restock(i.getItemNumber(),order.order.get(i));
-                this.warehouse.fulfill(i.getItemNumber(),order.order.get(i));
+            else {
+                synchronized(serviceLock) {
+                    release(reservation);
+                }
             }
+            reservation.providers.clear();
+        }
+    }
+
+    /**
+     * Hand the reservation's providers back to the free pools. Must be called holding {@link #serviceLock}, or
+     by the sequencer that owns the system.
+     */
+    private void release(OrderReservation reservation) {
+        for(ServiceProvider sp:reservation.providers) {
+            sp.cancelReservation();
+            freeProviders.release(sp);
         }
     }
 
@@ -165,32 +677,14 @@ public class OrderManagementSystem {
     available provider. Return 0 if all services are valid.
      */
     protected int validateServices(Collection<Service> services, Order order) {
-        Set<ServiceProvider>sPAvailable=new HashSet<>();
-        //add service providers
-        for(Service s:servicesProvidedByBusiness) {
-            for(ServiceProvider sp: this.servicePairing.get(s)) {
-                sPAvailable.add(sp);
-            }
-        }
-        for(Service s: services) {
-            if(this.servicesProvidedByBusiness.contains(s)) {
-                int amount=order.order.get(s);
-                int counter=0;
-                for(ServiceProvider sp:this.servicePairing.get(s)) {
-                    if(sp.busy==false&&sPAvailable.contains(sp)) {
-                        counter++;
-                        sPAvailable.remove(sp);
-                    }
-                }
-                if (counter<amount) {
-                    return s.getItemNumber();
-                }
-            }
-            else {
-                return s.getItemNumber();
-            }
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            return owner.call(()->validateServices(services,order));
+        }
+        //the same matching placeOrder staffs the order with, so the two can never disagree
+        synchronized(serviceLock) {
+            return assignServices(order,services);
         }
-        return 0;
     }
 
     /**
@@ -202,7 +696,7 @@ public class OrderManagementSystem {
     protected int validateProducts(Collection<Product> products, Order order) {
         //im returning after the first product works, not iterating throu all of them
         for(Product i:products) {
-            if(!(this.warehouse.canFulfill(i.getItemNumber(),order.order.get(i))||this.warehouse.isRestockable(i.getItemNumber()))) {
+            if(!(this.warehouse.canFulfill(i.getItemNumber(),order.getQuantity(i))||this.warehouse.isRestockable(i.getItemNumber()))) {
                 return i.getItemNumber();
             }
         }
@@ -215,17 +709,21 @@ public class OrderManagementSystem {
      * @return set of products that were actually added (don't include any products that were already in the warehouse before this was called!)
      */
     protected Set<Product> addNewProducts(Collection<Product> products) {
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            return owner.call(()->addNewProducts(products));
+        }
         Set<Product>productsAdded=new HashSet<>();
         for(Product p: products) {
-            try{
-                int amount=defaultProductStockLevel;
-                if(this.warehouse.defaultStockLevels.get(p)!=null) {
-                    amount=this.warehouse.defaultStockLevels.get(p);
+            //journaled admin changes are recorded and made under the lock, so they replay in the order they happened
+            synchronized(serviceLock) {
+                if(journal!=null) {
+                    journal.logNewProduct(p);
+                }
+                int amount=this.warehouse.getDefaultStockLevel(p.getItemNumber(),defaultProductStockLevel);
+                if(this.warehouse.tryAddNewProduct(p,amount)) {
+                    productsAdded.add(p);
                 }
-                this.warehouse.addNewProductToWarehouse(p,amount);
-                productsAdded.add(p);
-            }catch(IllegalArgumentException e){
-                continue;
             }
         }
         return productsAdded;
@@ -237,42 +735,183 @@ public class OrderManagementSystem {
      * @param provider the provider to add
      */
     protected void addServiceProvider(ServiceProvider provider) {
-        serviceProviders.add(provider);
-        //check if on do not provide list
-        for(Service s:provider.getServices()) {
-            if(!doNotOffer.contains(s)) {
-                servicesProvidedByBusiness.add(s);
-            }
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            owner.call(()->{
+                addServiceProvider(provider);
+                return null;
+            });
+            return;
         }
-        //update list of ppl who provide this service by adding to the list in the hashmap pairing
-        for(Service s:servicesProvidedByBusiness) {
-            Set<ServiceProvider>providesThisService=new HashSet<>();
-            if(provider.getServices().contains(s)) {
+        synchronized(serviceLock) {
+            if(journal!=null) {
+                journal.logNewServiceProvider(provider);
+            }
+            serviceProviders.add(provider);
+            provider.system=this;
+            freeProviders.add(provider);
+            boolean offered=false;
+            for(Service s:provider.services) {
+                items.register(s);
+                //check if on do not provide list
+                if(doNotOffer.contains(s)) {
+                    continue;
+                }
+                offered|=servicesProvidedByBusiness.add(s);
+                //update list of ppl who provide this service by adding to the list in the hashmap pairing
+                Set<ServiceProvider>providesThisService=servicePairing.get(s);
+                if(providesThisService==null) {
+                    providesThisService=new HashSet<>();
+                    servicePairing.put(s,providesThisService);
+                }
                 providesThisService.add(provider);
+                freeProviders.addMember(s,provider);
             }
-            if (servicePairing.get(s)==null) {
-                servicePairing.put(s, providesThisService);
-            } else {
-                Set<ServiceProvider> set = servicePairing.get(s);
-                set.addAll(providesThisService);
-                servicePairing.put(s, set);
+            if(offered) {
+                publishServices();
             }
         }
     }
 
+    /**
+     * Called by {@link ServiceProvider#addService(Service)}: the provider starts offering the service, and
+     is put in its pool so orders for it can get the provider
+     * @param provider
+     * @param s
+     * @return true if it was added, false if the provider already offered it
+     */
+    protected boolean addProvidedService(ServiceProvider provider, Service s) {
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            return owner.call(()->addProvidedService(provider,s));
+        }
+        synchronized(serviceLock) {
+            if(provider.provides(s)) {
+                return false;
+            }
+            if(journal!=null) {
+                journal.logServiceAdded(provider,s);
+            }
+            provider.offer(s);
+            items.register(s);
+            if(!serviceProviders.contains(provider)||doNotOffer.contains(s)) {
+                return true;
+            }
+            Set<ServiceProvider>providesThisService=servicePairing.get(s);
+            if(providesThisService==null) {
+                providesThisService=new HashSet<>();
+                servicePairing.put(s,providesThisService);
+            }
+            providesThisService.add(provider);
+            freeProviders.addMember(s,provider);
+            if(servicesProvidedByBusiness.add(s)) {
+                publishServices();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Called by {@link ServiceProvider#removeService(Service)}: the provider stops offering the service, and
+     so does the business if nobody else provides it. An engagement the provider is in already isn't cut short.
+     * @param provider
+     * @param s
+     * @return true if it was removed, false if the provider didn't offer it
+     */
+    protected boolean removeProvidedService(ServiceProvider provider, Service s) {
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            return owner.call(()->removeProvidedService(provider,s));
+        }
+        synchronized(serviceLock) {
+            if(!provider.provides(s)) {
+                return false;
+            }
+            if(journal!=null) {
+                journal.logServiceRemoved(provider,s);
+            }
+            provider.withdraw(s);
+            Set<ServiceProvider>providesThisService=servicePairing.get(s);
+            if(providesThisService!=null&&providesThisService.remove(provider)) {
+                freeProviders.removeMember(s,provider);
+                if(providesThisService.isEmpty()) {
+                    servicePairing.remove(s);
+                    if(servicesProvidedByBusiness.remove(s)) {
+                        publishServices();
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the one instance of every product and service this system knows about, to build orders from
+     item numbers with, see {@link Order#Order(ItemRegistry)}
+     */
+    public ItemRegistry getItemRegistry() {
+        return this.items;
+    }
+
+    /**
+     * @param id
+     * @return the service provider with the given id, or null if there is none
+     */
+    protected ServiceProvider getServiceProvider(int id) {
+        //every provider is registered with the pools, whatever it offers, so they can look it up by id
+        synchronized(serviceLock) {
+            return freeProviders.get(id);
+        }
+    }
+
     /**
      *
-     * @return get the set of all the products offered/sold by this business
+     * @return get the set of all the products offered/sold by this business, see {@link #getCatalogSnapshot()}
      */
     public Set<Product> getProductCatalog() {
-        return this.warehouse.actualStockLevels.keySet();
+        return getCatalogSnapshot().getProducts();
     }
 
     /**
-     * @return get the set of all the Services offered/sold by this business
+     * @return get the set of all the Services offered/sold by this business, see {@link #getCatalogSnapshot()}
      */
     public Set<Service> getOfferedServices() {
-        return this.servicesProvidedByBusiness;
+        return getCatalogSnapshot().getServices();
+    }
+
+    /**
+     * Get the products and services on offer right now, without taking any lock and without copying anything
+     unless they changed since the last call. Every caller gets the same snapshot until they do.
+     * @return immutable snapshot of the catalog
+     */
+    public CatalogSnapshot getCatalogSnapshot() {
+        CatalogSnapshot snapshot=this.catalog;
+        //products never leave the catalog, so it has only changed if it has grown
+        if(snapshot.getProducts().size()==this.warehouse.stock.catalogSize()) {
+            return snapshot;
+        }
+        synchronized(catalogLock) {
+            snapshot=this.catalog;
+            if(snapshot.getProducts().size()!=this.warehouse.stock.catalogSize()) {
+                snapshot=snapshot.withProducts(this.warehouse.copyCatalog());
+                this.catalog=snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Publish a new catalog snapshot with the services on offer now. Must be called holding {@link
+     #serviceLock}, after every change to {@link #servicesProvidedByBusiness}.
+     */
+    protected void publishServices() {
+        for(Service s:servicesProvidedByBusiness) {
+            items.register(s);
+        }
+        this.offeredServices=offeredBits(servicesProvidedByBusiness);
+        synchronized(catalogLock) {
+            this.catalog=this.catalog.withServices(new HashSet<>(servicesProvidedByBusiness));
+        }
     }
 
     /**
@@ -283,12 +922,28 @@ public class OrderManagementSystem {
      * @param item the item to discontinue see {@link Item}
      */
     protected void discontinueItem(Item item) {
-        if(item instanceof Product) {
-            this.warehouse.doNotRestock.add((Product)item);
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            owner.call(()->{
+                discontinueItem(item);
+                return null;
+            });
+            return;
         }
-        else {
-            this.servicesProvidedByBusiness.remove((Service)item);
-            this.doNotOffer.add((Service)item);
+        synchronized(serviceLock) {
+            if(journal!=null) {
+                journal.logDiscontinued(item);
+            }
+            if(item instanceof Product) {
+                this.warehouse.doNotRestock((Product)item);
+            }
+            else {
+                items.register((Service)item);
+                if(this.servicesProvidedByBusiness.remove((Service)item)) {
+                    publishServices();
+                }
+                this.doNotOffer.add((Service)item);
+            }
         }
     }
 
@@ -299,6 +954,119 @@ public class OrderManagementSystem {
      */
     protected void setDefaultProductStockLevel(Product prod, int level)
     {
-        this.warehouse.defaultStockLevels.put(prod,level);
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            owner.call(()->{
+                setDefaultProductStockLevel(prod,level);
+                return null;
+            });
+            return;
+        }
+        synchronized(serviceLock) {
+            if(journal!=null) {
+                journal.logDefaultStockLevel(prod,level);
+            }
+            this.warehouse.setDefaultStockLevel(prod,level);
+        }
+    }
+
+    /**
+     * Start counting and timing orders placed with this system
+     * @param metrics where to record them, or null to stop
+     */
+    public void setMetrics(OrderMetrics metrics) {
+        this.metrics=metrics;
+    }
+
+    /**
+     * Start keeping every order this system accepts from now on
+     * @param history where to keep them, or null to stop
+     */
+    public void setHistory(OrderHistory history) {
+        this.history=history;
+    }
+
+    /**
+     * Have products that orders bring below their low watermark restocked in the background. Called by the
+     replenisher itself when it starts and stops.
+     * @param replenisher the replenisher to tell about every committed order, or null to stop
+     */
+    protected void setReplenisher(Replenisher replenisher) {
+        this.replenisher=replenisher;
+    }
+
+    /**
+     * Have the units of every product ordered counted. Called by the demand tracker itself when it starts and
+     stops.
+     * @param demand the tracker to tell about every committed order, or null to stop
+     */
+    protected void setDemandTracker(DemandTracker demand) {
+        this.demand=demand;
+    }
+
+    /**
+     * Hand every order placed with this system, and every change made to it, to the sequencer's thread, so
+     that thread is the only one that changes the system. Called by the sequencer itself when it starts and
+     stops.
+     * @param sequencer the sequencer that owns the system from now on, or null when it stops
+     * @throws IllegalStateException if another sequencer owns the system already
+     */
+    protected void setSequencer(OrderSequencer sequencer) throws IllegalStateException {
+        synchronized(serviceLock) {
+            if(sequencer!=null&&this.sequencer!=null) {
+                throw new IllegalStateException("the system already has a sequencer");
+            }
+            this.sequencer=sequencer;
+        }
+    }
+
+    /**
+     * @return the sequencer that owns the system, if there is one and the caller isn't its thread, in which
+     case the caller has to hand the order or change to it. Null if the caller can go ahead itself.
+     */
+    protected OrderSequencer owner() {
+        OrderSequencer s=this.sequencer;
+        return s==null||s.isSequencerThread()?null:s;
+    }
+
+    /**
+     * Start recording every change to this system in the given journal. To recover a system, construct it
+     the way it was constructed the first time, {@link Journal#replay(OrderManagementSystem)} the journal
+     into it, and only then set the journal.
+     * @param journal the journal to write to, or null to stop journaling
+     */
+    public void setJournal(Journal journal) {
+        OrderSequencer owner=owner();
+        if(owner!=null) {
+            owner.call(()->{
+                setJournal(journal);
+                return null;
+            });
+            return;
+        }
+        synchronized(serviceLock) {
+            this.journal=journal;
+        }
+    }
+
+    /**
+     * Pick up the order numbering and the provider engagements where a journaled system left off. Must be
+     called before any order is placed.
+     * @param orderSequence sequence number of the last order the journal holds
+     * @param engagedAt for each provider id, the sequence number of the last order the provider was engaged in
+     */
+    protected void restoreEngagements(long orderSequence, Map<Integer, Long> engagedAt) {
+        synchronized(serviceLock) {
+            schedule.restore(orderSequence);
+            for(ServiceProvider sp:serviceProviders) {
+                Long at=engagedAt.get(sp.getId());
+                //anyone engaged long enough ago has been freed already
+                if(at!=null&&at+EngagementSchedule.ENGAGEMENT_LENGTH-1>orderSequence) {
+                    freeProviders.remove(sp);
+                    schedule.expectEngagements(1);
+                    schedule.engage(sp,at);
+                }
+            }
+        }
     }
 }
\ No newline at end of file
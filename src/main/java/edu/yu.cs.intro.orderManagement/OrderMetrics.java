@@ -0,0 +1,405 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Counts what happens to orders and times the phases of placing them, for an order management system that
+ has been given it with {@link OrderManagementSystem#setMetrics(OrderMetrics)}. Recording is thread safe and
+ doesn't allocate: counters are LongAdders, rejections by item are kept in a fixed size open addressed table,
+ and phase times go into histograms with one bucket per power of two nanoseconds. Reading the clock costs
+ more than all the counting, so only a random sample of phases is timed; every order is counted.
+ * {@link #snapshot()} copies everything out for reporting. The copy isn't taken atomically, so counters
+ recorded while it is being taken may show up in some numbers and not in others.
+ */
+public class OrderMetrics {
+    /**
+     * The phases of placing an order that are timed
+     */
+    public enum Phase {
+        /**
+         * checking every service is offered and setting providers aside, including waiting for the service lock
+         */
+        RESERVE_SERVICES,
+        /**
+         * checking every product is in the catalog and can be fulfilled or restocked
+         */
+        VALIDATE_PRODUCTS,
+        /**
+         * taking the products out of stock, restocking where needed
+         */
+        TAKE_PRODUCTS,
+        /**
+         * numbering the order, engaging its providers and committing it to the journal, including the release
+         sweep
+         */
+        COMMIT,
+        /**
+         * freeing providers whose engagement ended with the order
+         */
+        RELEASE_SWEEP
+    }
+
+    public static final int DEFAULT_TRACKED_ITEMS=1024;
+    /**
+     * one in this many phases is timed by default
+     */
+    public static final int DEFAULT_TIMING_SAMPLE=16;
+    private static final int BUCKETS=64;
+    private static final int EMPTY=Integer.MIN_VALUE;
+    private final LongAdder[] outcomes;
+    private final LongAdder restocks;
+    private final LongAdder restockedUnits;
+    private final LongAdder assignments;
+    private final LongAdder releases;
+    private final AtomicLongArray phaseBuckets;
+    private final LongAdder[] phaseNanos;
+    private final int itemMask;
+    private final AtomicIntegerArray rejectedItems;
+    private final AtomicLongArray rejections;
+    /**
+     * rejections of items that didn't fit in the table
+     */
+    private final LongAdder untrackedRejections;
+    private final int sampleMask;
+
+    public OrderMetrics() {
+        this(DEFAULT_TRACKED_ITEMS,DEFAULT_TIMING_SAMPLE);
+    }
+
+    /**
+     * @param trackedItems how many different items rejections are counted for, rounded up to a power of two.
+     Rejections of items beyond that are only counted in total.
+     * @param timingSample time one in this many phases, must be a power of two. 1 times every phase.
+     * @throws IllegalArgumentException if trackedItems isn't positive or timingSample isn't a power of two
+     */
+    public OrderMetrics(int trackedItems, int timingSample) throws IllegalArgumentException {
+        if(trackedItems<=0||trackedItems>1<<30) {
+            throw new IllegalArgumentException("can't track "+trackedItems+" items");
+        }
+        if(timingSample<=0||Integer.bitCount(timingSample)!=1) {
+            throw new IllegalArgumentException("timing sample must be a power of two: "+timingSample);
+        }
+        this.sampleMask=timingSample-1;
+        this.outcomes=new LongAdder[OrderOutcome.values().length];
+        for(int i=0;i<outcomes.length;i++) {
+            outcomes[i]=new LongAdder();
+        }
+        this.restocks=new LongAdder();
+        this.restockedUnits=new LongAdder();
+        this.assignments=new LongAdder();
+        this.releases=new LongAdder();
+        this.phaseBuckets=new AtomicLongArray(Phase.values().length*BUCKETS);
+        this.phaseNanos=new LongAdder[Phase.values().length];
+        for(int i=0;i<phaseNanos.length;i++) {
+            phaseNanos[i]=new LongAdder();
+        }
+        int capacity=Integer.highestOneBit(trackedItems-1)<<1;
+        capacity=Math.max(capacity,1);
+        this.itemMask=capacity-1;
+        this.rejectedItems=new AtomicIntegerArray(capacity);
+        for(int i=0;i<capacity;i++) {
+            rejectedItems.set(i,EMPTY);
+        }
+        this.rejections=new AtomicLongArray(capacity);
+        this.untrackedRejections=new LongAdder();
+    }
+
+    /**
+     * Count an order's outcome, and for a rejected order the item that it was rejected for
+     * @param outcome
+     * @param failedItem
+     */
+    protected void recordOutcome(OrderOutcome outcome, int failedItem) {
+        outcomes[outcome.ordinal()].increment();
+        if(outcome!=OrderOutcome.ACCEPTED) {
+            recordRejection(failedItem);
+        }
+    }
+
+    /**
+     * @param units units a product was restocked by while an order was being placed
+     */
+    protected void recordRestock(int units) {
+        restocks.increment();
+        restockedUnits.add(units);
+    }
+
+    /**
+     * @param providers number of providers made busy for an order
+     */
+    protected void recordAssignments(int providers) {
+        assignments.add(providers);
+    }
+
+    /**
+     * @param providers number of providers freed when their engagement ended
+     */
+    protected void recordReleases(int providers) {
+        releases.add(providers);
+    }
+
+    /**
+     * @return true if the phase about to start should be timed
+     */
+    protected boolean sample() {
+        return sampleMask==0||(ThreadLocalRandom.current().nextInt()&sampleMask)==0;
+    }
+
+    /**
+     * Record how long a phase took, and start timing the next one
+     * @param phase
+     * @param since {@link System#nanoTime()} when the phase started
+     * @return {@link System#nanoTime()} now
+     */
+    protected long phaseDone(Phase phase, long since) {
+        long now=System.nanoTime();
+        long nanos=Math.max(now-since,0);
+        phaseBuckets.incrementAndGet(phase.ordinal()*BUCKETS+bucketOf(nanos));
+        phaseNanos[phase.ordinal()].add(nanos);
+        return now;
+    }
+
+    /**
+     * @return a copy of everything recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] outcomeCounts=new long[outcomes.length];
+        for(int i=0;i<outcomes.length;i++) {
+            outcomeCounts[i]=outcomes[i].sum();
+        }
+        Map<Integer,Long> rejectionsByItem=new TreeMap<>();
+        for(int i=0;i<=itemMask;i++) {
+            int item=rejectedItems.get(i);
+            long count=rejections.get(i);
+            if(item!=EMPTY&&count>0) {
+                rejectionsByItem.put(item,count);
+            }
+        }
+        long[][] histograms=new long[Phase.values().length][BUCKETS];
+        long[] nanos=new long[Phase.values().length];
+        for(int p=0;p<histograms.length;p++) {
+            for(int b=0;b<BUCKETS;b++) {
+                histograms[p][b]=phaseBuckets.get(p*BUCKETS+b);
+            }
+            nanos[p]=phaseNanos[p].sum();
+        }
+        return new Snapshot(outcomeCounts,rejectionsByItem,untrackedRejections.sum(),restocks.sum(),
+                restockedUnits.sum(),assignments.sum(),releases.sum(),histograms,nanos);
+    }
+
+    private void recordRejection(int itemNumber) {
+        if(itemNumber==EMPTY) {
+            untrackedRejections.increment();
+            return;
+        }
+        int i=mix(itemNumber)&itemMask;
+        for(int probes=0;probes<=itemMask;probes++) {
+            int item=rejectedItems.get(i);
+            if(item==itemNumber||(item==EMPTY&&(rejectedItems.compareAndSet(i,EMPTY,itemNumber)||rejectedItems.get(i)==itemNumber))) {
+                rejections.incrementAndGet(i);
+                return;
+            }
+            i=(i+1)&itemMask;
+        }
+        untrackedRejections.increment();
+    }
+
+    private static int mix(int itemNumber) {
+        int h=itemNumber*0x9E3779B9;
+        return h^(h>>>16);
+    }
+
+    /**
+     * @param nanos
+     * @return the histogram bucket for the given time: bucket b holds times from 2^(b-1) up to 2^b - 1
+     nanoseconds, bucket 0 holds 0
+     */
+    private static int bucketOf(long nanos) {
+        return Math.min(BUCKETS-Long.numberOfLeadingZeros(nanos),BUCKETS-1);
+    }
+
+    /**
+     * Everything an {@link OrderMetrics} had recorded when the snapshot was taken
+     */
+    public static class Snapshot {
+        private final long[] outcomes;
+        private final Map<Integer,Long> rejectionsByItem;
+        private final long untrackedRejections;
+        private final long restocks;
+        private final long restockedUnits;
+        private final long assignments;
+        private final long releases;
+        private final long[][] histograms;
+        private final long[] phaseNanos;
+
+        private Snapshot(long[] outcomes, Map<Integer,Long> rejectionsByItem, long untrackedRejections, long restocks,
+                         long restockedUnits, long assignments, long releases, long[][] histograms, long[] phaseNanos) {
+            this.outcomes=outcomes;
+            this.rejectionsByItem=Collections.unmodifiableMap(rejectionsByItem);
+            this.untrackedRejections=untrackedRejections;
+            this.restocks=restocks;
+            this.restockedUnits=restockedUnits;
+            this.assignments=assignments;
+            this.releases=releases;
+            this.histograms=histograms;
+            this.phaseNanos=phaseNanos;
+        }
+
+        /**
+         * @param outcome
+         * @return number of orders that ended with the given outcome
+         */
+        public long getOrders(OrderOutcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        /**
+         * @return number of orders rejected for any reason
+         */
+        public long getRejectedOrders() {
+            long rejected=0;
+            for(OrderOutcome outcome:OrderOutcome.values()) {
+                if(outcome!=OrderOutcome.ACCEPTED) {
+                    rejected+=outcomes[outcome.ordinal()];
+                }
+            }
+            return rejected;
+        }
+
+        /**
+         * @return for each item orders were rejected for, how many were
+         */
+        public Map<Integer,Long> getRejectionsByItem() {
+            return this.rejectionsByItem;
+        }
+
+        /**
+         * @return rejections of items that didn't fit in the table of tracked items
+         */
+        public long getUntrackedRejections() {
+            return this.untrackedRejections;
+        }
+
+        /**
+         * @return number of times a product was restocked while an order was being placed
+         */
+        public long getRestocks() {
+            return this.restocks;
+        }
+
+        /**
+         * @return units added to stock by those restocks
+         */
+        public long getRestockedUnits() {
+            return this.restockedUnits;
+        }
+
+        /**
+         * @return number of times a provider was made busy for an order
+         */
+        public long getProviderAssignments() {
+            return this.assignments;
+        }
+
+        /**
+         * @return number of times a provider was freed when its engagement ended
+         */
+        public long getProviderReleases() {
+            return this.releases;
+        }
+
+        /**
+         * @param phase
+         * @return how many times the phase was timed, which is only a sample of how many times it ran
+         */
+        public long getCount(OrderMetrics.Phase phase) {
+            long count=0;
+            for(long c:histograms[phase.ordinal()]) {
+                count+=c;
+            }
+            return count;
+        }
+
+        /**
+         * @param phase
+         * @return total time spent in the phase, in nanoseconds
+         */
+        public long getTotalNanos(OrderMetrics.Phase phase) {
+            return this.phaseNanos[phase.ordinal()];
+        }
+
+        /**
+         * @param phase
+         * @return the phase's histogram: entry b counts times from 2^(b-1) up to 2^b - 1 nanoseconds
+         */
+        public long[] getHistogram(OrderMetrics.Phase phase) {
+            return this.histograms[phase.ordinal()].clone();
+        }
+
+        /**
+         * @param phase
+         * @param fraction e.g. 0.99 for the 99th percentile
+         * @return an upper bound, in nanoseconds, on the given fraction of the phase's times, 0 if it was never
+         timed
+         */
+        public long getPercentileNanos(OrderMetrics.Phase phase, double fraction) {
+            long[] histogram=histograms[phase.ordinal()];
+            long count=getCount(phase);
+            if(count==0) {
+                return 0;
+            }
+            long rank=(long)Math.ceil(fraction*count);
+            long seen=0;
+            for(int b=0;b<histogram.length;b++) {
+                seen+=histogram[b];
+                if(seen>=Math.max(rank,1)) {
+                    return upperBound(b);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return the snapshot as text, one "name{labels} value" line per number, for a metrics scraper.
+         Histograms are cumulative, with le the bucket's upper bound in nanoseconds.
+         */
+        @Override
+        public String toString() {
+            StringBuilder text=new StringBuilder();
+            for(OrderOutcome outcome:OrderOutcome.values()) {
+                line(text,"orders{outcome=\""+outcome+"\"}",outcomes[outcome.ordinal()]);
+            }
+            for(Map.Entry<Integer,Long> rejection:rejectionsByItem.entrySet()) {
+                line(text,"rejections{item=\""+rejection.getKey()+"\"}",rejection.getValue());
+            }
+            line(text,"untracked_rejections",untrackedRejections);
+            line(text,"restocks",restocks);
+            line(text,"restocked_units",restockedUnits);
+            line(text,"provider_assignments",assignments);
+            line(text,"provider_releases",releases);
+            for(OrderMetrics.Phase phase:OrderMetrics.Phase.values()) {
+                long[] histogram=histograms[phase.ordinal()];
+                long cumulative=0;
+                for(int b=0;b<histogram.length;b++) {
+                    cumulative+=histogram[b];
+                    if(histogram[b]>0) {
+                        line(text,"phase_nanos_bucket{phase=\""+phase+"\",le=\""+upperBound(b)+"\"}",cumulative);
+                    }
+                }
+                line(text,"phase_nanos_count{phase=\""+phase+"\"}",cumulative);
+                line(text,"phase_nanos_sum{phase=\""+phase+"\"}",phaseNanos[phase.ordinal()]);
+            }
+            return text.toString();
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket==BUCKETS-1?Long.MAX_VALUE:(1L<<bucket)-1;
+        }
+
+        private static void line(StringBuilder text, String name, long value) {
+            text.append(name).append(' ').append(value).append('\n');
+        }
+    }
+}
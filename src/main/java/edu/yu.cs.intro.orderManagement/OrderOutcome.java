@@ -0,0 +1,33 @@
+package edu.yu.cs.intro.orderManagement;
+/**
+ * What happened to an order handed to the order management system
+ */
+public enum OrderOutcome {
+    /**
+     * the order was fulfilled and marked completed
+     */
+    ACCEPTED,
+    /**
+     * the order asked for a service the business doesn't offer
+     */
+    UNKNOWN_SERVICE,
+    /**
+     * the order asked for more providers of a service than were free
+     */
+    NO_FREE_PROVIDER,
+    /**
+     * the order asked for a product that isn't in the catalog
+     */
+    UNKNOWN_PRODUCT,
+    /**
+     * the order asked for more of a product than was in stock, and it couldn't be restocked
+     */
+    OUT_OF_STOCK;
+
+    /**
+     * @return true if the order was turned down because of one of its services rather than its products
+     */
+    public boolean isServiceRejection() {
+        return this==UNKNOWN_SERVICE||this==NO_FREE_PROVIDER;
+    }
+}
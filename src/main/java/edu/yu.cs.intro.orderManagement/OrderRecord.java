@@ -0,0 +1,91 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * An accepted order as the {@link OrderHistory} kept it: its sequence number, its product and service lines
+ and the ids of the providers it was given. A copy, so it can be kept and read from any thread.
+ */
+public class OrderRecord {
+    private final long sequence;
+    private final int[] productNumbers;
+    private final int[] productQuantities;
+    private final int[] serviceNumbers;
+    private final int[] serviceQuantities;
+    private final int[] providerIds;
+
+    protected OrderRecord(long sequence, int[] productNumbers, int[] productQuantities, int[] serviceNumbers,
+                          int[] serviceQuantities, int[] providerIds) {
+        this.sequence=sequence;
+        this.productNumbers=productNumbers;
+        this.productQuantities=productQuantities;
+        this.serviceNumbers=serviceNumbers;
+        this.serviceQuantities=serviceQuantities;
+        this.providerIds=providerIds;
+    }
+
+    /**
+     * @return the sequence number the order was given when it was committed
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return number of product lines
+     */
+    public int productLineCount() {
+        return this.productNumbers.length;
+    }
+
+    /**
+     * @param line
+     * @return item number of the product on the given product line
+     */
+    public int productNumberAt(int line) {
+        return this.productNumbers[line];
+    }
+
+    /**
+     * @param line
+     * @return units taken on the given product line
+     */
+    public int productQuantityAt(int line) {
+        return this.productQuantities[line];
+    }
+
+    /**
+     * @return number of service lines
+     */
+    public int serviceLineCount() {
+        return this.serviceNumbers.length;
+    }
+
+    /**
+     * @param line
+     * @return item number of the service on the given service line
+     */
+    public int serviceNumberAt(int line) {
+        return this.serviceNumbers[line];
+    }
+
+    /**
+     * @param line
+     * @return number of providers engaged for the given service line
+     */
+    public int serviceQuantityAt(int line) {
+        return this.serviceQuantities[line];
+    }
+
+    /**
+     * @return ids of the providers engaged for the order, in the order of its service lines
+     */
+    public int[] getProviderIds() {
+        return this.providerIds.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "order "+sequence+": products "+Arrays.toString(productNumbers)+" x "+Arrays.toString(productQuantities)
+                +", services "+Arrays.toString(serviceNumbers)+" x "+Arrays.toString(serviceQuantities)
+                +", providers "+Arrays.toString(providerIds);
+    }
+}
@@ -0,0 +1,99 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * Everything held on behalf of an order that hasn't been committed yet: the service providers set aside
+ for it and the stock already taken out of the warehouse for it. Committing makes the providers busy,
+ aborting hands everything back, so an order that fails part way leaves nothing behind.
+ */
+public class OrderReservation {
+    protected List<ServiceProvider> providers;
+    protected int[] productNumbers;
+    protected int[] quantities;
+    protected int[] restocked;
+    protected int productCount;
+    /**
+     * the services the providers were set aside for, with how many providers each needed
+     */
+    protected int[] serviceNumbers;
+    protected int[] serviceQuantities;
+    protected int serviceCount;
+    /**
+     * item number of the item that stopped the order from being reserved, 0 if nothing did
+     */
+    protected int failedItem;
+    /**
+     * the order's sequence number, once it is committed
+     */
+    protected long sequence;
+
+    protected OrderReservation() {
+        this.providers=new ArrayList<>(4);
+        this.productNumbers=new int[4];
+        this.quantities=new int[4];
+        this.restocked=new int[4];
+        this.productCount=0;
+        this.serviceNumbers=new int[2];
+        this.serviceQuantities=new int[2];
+        this.serviceCount=0;
+        this.failedItem=0;
+        this.sequence=0;
+    }
+
+    /**
+     * @param provider a provider that has been reserved for this order
+     */
+    protected void addProvider(ServiceProvider provider) {
+        this.providers.add(provider);
+    }
+
+    /**
+     * @param productNumber
+     * @param quantity units of the product that have been taken out of stock for this order
+     * @param restockedUnits units added to stock by restocking the product before taking them. These stay
+     in stock even if the order is aborted.
+     */
+    protected void addProduct(int productNumber, int quantity, int restockedUnits) {
+        if(productCount==productNumbers.length) {
+            productNumbers=Arrays.copyOf(productNumbers,productCount*2);
+            quantities=Arrays.copyOf(quantities,productCount*2);
+            restocked=Arrays.copyOf(restocked,productCount*2);
+        }
+        productNumbers[productCount]=productNumber;
+        quantities[productCount]=quantity;
+        restocked[productCount]=restockedUnits;
+        productCount++;
+    }
+
+    /**
+     * @param serviceNumber
+     * @param quantity number of providers that have been reserved for the service
+     */
+    protected void addService(int serviceNumber, int quantity) {
+        if(serviceCount==serviceNumbers.length) {
+            serviceNumbers=Arrays.copyOf(serviceNumbers,serviceCount*2);
+            serviceQuantities=Arrays.copyOf(serviceQuantities,serviceCount*2);
+        }
+        serviceNumbers[serviceCount]=serviceNumber;
+        serviceQuantities[serviceCount]=quantity;
+        serviceCount++;
+    }
+
+    /**
+     * Forget everything, so the reservation can be used for another order once this one is committed or
+     aborted
+     */
+    protected void clear() {
+        this.providers.clear();
+        this.productCount=0;
+        this.serviceCount=0;
+        this.failedItem=0;
+        this.sequence=0;
+    }
+
+    /**
+     * @return true if any providers were reserved
+     */
+    protected boolean hasProviders() {
+        return !this.providers.isEmpty();
+    }
+}
@@ -0,0 +1,495 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+/**
+ * Takes orders from any number of threads and applies them to an order management system one after another
+ from a single sequencer thread, so callers never contend with each other on the system's locks or stock.
+ * While it runs, the sequencer owns the system: its thread is the only one that places orders or changes
+ the catalog and the providers. Orders placed and changes made on the system from any other thread are
+ handed to the sequencer and waited for, so the sequencer applies its batches without taking the service
+ lock, and takes stock without compare and set, since nobody else takes any. The replenisher still adds
+ stock from its own thread, so stock counters are still changed atomically. Attach a sequencer after a
+ system has been recovered from a journal, not before.
+ * Orders are published into a preallocated ring. A producer claims the next sequence number with a CAS, fills
+ in its slot and marks the slot published; the sequencer picks up every published order that follows on
+ from the last one it applied, up to the batch size, and places them with {@link
+ OrderManagementSystem#placeOrders(List)}. A change to the system takes a slot of its own and is made
+ between the orders around it. When the ring is full, producers wait for the sequencer to free a slot,
+ which is what holds back producers that are faster than the system.
+ * Each caller gets a future that completes with the order's outcome. Futures are completed on the sequencer
+ thread, so anything chained onto them with a non async method runs there and holds up every other order.
+ * If the sequencer thread fails with anything but a batch that throws a RuntimeException, it can't be
+ trusted to go on: it closes itself, fails every order it hasn't applied, and refuses any more.
+ */
+public class OrderSequencer implements AutoCloseable {
+    /**
+     * How the sequencer waits for orders, and producers wait for room in the ring
+     */
+    public enum WaitStrategy {
+        /**
+         * keep checking without giving up the CPU. Lowest latency, but burns a core per waiting thread, so
+         only worth it when every producer and the sequencer have a core of their own.
+         */
+        BUSY_SPIN,
+        /**
+         * give up the CPU to other runnable threads between checks
+         */
+        YIELD,
+        /**
+         * park the thread. The sequencer is woken as soon as an order is published, producers check back
+         every few microseconds.
+         */
+        PARK
+    }
+
+    public static final int DEFAULT_RING_SIZE=1024;
+    public static final int DEFAULT_BATCH_SIZE=256;
+    //set in the cursor once the sequencer is closed, so no sequence number can be claimed after that
+    private static final long CLOSED=Long.MIN_VALUE;
+    private static final long PRODUCER_PARK_NANOS=TimeUnit.MICROSECONDS.toNanos(5);
+    private static final long SEQUENCER_PARK_NANOS=TimeUnit.MILLISECONDS.toNanos(1);
+    private final OrderManagementSystem system;
+    private final WaitStrategy waitStrategy;
+    private final int mask;
+    private final int batchSize;
+    private final Order[] orders;
+    private final CompletableFuture<OrderOutcome>[] futures;
+    /**
+     * changes to the system waiting in the ring, in the slots that don't hold an order
+     */
+    private final Change<?>[] changes;
+    /**
+     * the next sequence number to hand out, with CLOSED set once the sequencer is closed
+     */
+    private final AtomicLong cursor;
+    /**
+     * the sequence number each slot was last published with
+     */
+    private final AtomicLongArray published;
+    /**
+     * every sequence number below this one has been applied and its slot can be reused
+     */
+    private volatile long applied;
+    private volatile boolean sequencerParked;
+    /**
+     * what stopped the sequencer, if it failed
+     */
+    private volatile Throwable failure;
+    private final Thread sequencer;
+
+    /**
+     * Starts a sequencer with the default ring and batch sizes
+     * @param system
+     * @param waitStrategy
+     */
+    public OrderSequencer(OrderManagementSystem system, WaitStrategy waitStrategy) {
+        this(system,DEFAULT_RING_SIZE,DEFAULT_BATCH_SIZE,waitStrategy);
+    }
+
+    /**
+     * Starts the sequencer thread
+     * @param system the system to place the orders with
+     * @param ringSize how many orders can be waiting at once, must be a power of two
+     * @param batchSize the most orders placed with one call to placeOrders
+     * @param waitStrategy
+     * @throws IllegalArgumentException if the ring size isn't a power of two or the batch size isn't positive
+     * @throws IllegalStateException if another sequencer owns the system
+     */
+    @SuppressWarnings("unchecked")
+    public OrderSequencer(OrderManagementSystem system, int ringSize, int batchSize, WaitStrategy waitStrategy) throws IllegalArgumentException,IllegalStateException {
+        if(ringSize<=0||Integer.bitCount(ringSize)!=1) {
+            throw new IllegalArgumentException("ring size must be a power of two: "+ringSize);
+        }
+        if(batchSize<=0) {
+            throw new IllegalArgumentException("batch size must be positive: "+batchSize);
+        }
+        this.system=system;
+        this.waitStrategy=waitStrategy;
+        this.mask=ringSize-1;
+        this.batchSize=Math.min(batchSize,ringSize);
+        this.orders=new Order[ringSize];
+        this.futures=(CompletableFuture<OrderOutcome>[])new CompletableFuture<?>[ringSize];
+        this.changes=new Change<?>[ringSize];
+        this.cursor=new AtomicLong();
+        this.published=new AtomicLongArray(ringSize);
+        for(int i=0;i<ringSize;i++) {
+            published.set(i,-1);
+        }
+        this.applied=0;
+        this.sequencer=new Thread(this::run,"order-sequencer");
+        sequencer.setDaemon(true);
+        system.setSequencer(this);
+        sequencer.start();
+    }
+
+    /**
+     * Queue an order to be placed, waiting for room in the ring if it is full
+     * @param order
+     * @return a future that completes with what happened to the order. Accepted orders are marked completed
+     before it does. If placing the batch the order is in throws before the order is applied, the future
+     completes exceptionally; orders in the batch that were applied before that still get their outcome.
+     * @throws IllegalArgumentException if the order is null
+     * @throws IllegalStateException if the sequencer has been closed, or has failed
+     */
+    public CompletableFuture<OrderOutcome> submit(Order order) throws IllegalArgumentException,IllegalStateException {
+        //checked before a slot is claimed, a null in the ring would fail every order batched with it
+        if(order==null) {
+            throw new IllegalArgumentException("order is null");
+        }
+        long sequence=claim();
+        int slot=(int)sequence&mask;
+        CompletableFuture<OrderOutcome> future=new CompletableFuture<>();
+        orders[slot]=order;
+        futures[slot]=future;
+        publish(sequence);
+        return future;
+    }
+
+    /**
+     * Called by the system for an order placed with it from a thread other than the sequencer's: place the
+     order through the sequencer and wait for it
+     * @param order
+     * @return what happened to the order
+     */
+    protected OrderOutcome place(Order order) {
+        CompletableFuture<OrderOutcome> future;
+        try {
+            future=submit(order);
+        }catch(IllegalStateException e) {
+            //stopped, so the system is the caller's to place it with
+            awaitStopped();
+            return system.tryPlaceOrder(order);
+        }
+        return join(future);
+    }
+
+    /**
+     * Called by the system for a batch placed with it from a thread other than the sequencer's: place every
+     order through the sequencer and wait for all of them
+     * @param orders
+     * @param outcomes where to put what happened to each order. If any of them failed, the first failure is
+     thrown once every order is done, leaving the failed ones without an outcome.
+     */
+    protected void place(List<Order> orders, OrderOutcome[] outcomes) {
+        List<CompletableFuture<OrderOutcome>> submitted=new ArrayList<>(orders.size());
+        try {
+            for(Order order:orders) {
+                submitted.add(submit(order));
+            }
+        }catch(IllegalStateException e) {
+            awaitStopped();
+        }
+        RuntimeException failed=null;
+        for(int n=0;n<submitted.size();n++) {
+            try {
+                outcomes[n]=join(submitted.get(n));
+            }catch(RuntimeException e) {
+                failed=failed==null?e:failed;
+            }
+        }
+        for(int n=submitted.size();n<orders.size()&&failed==null;n++) {
+            outcomes[n]=system.tryPlaceOrder(orders.get(n));
+        }
+        if(failed!=null) {
+            throw failed;
+        }
+    }
+
+    /**
+     * Called by the system for a change made to it from a thread other than the sequencer's: make the change
+     on the sequencer thread, between the orders submitted before it and after it, and wait for it
+     * @param change
+     * @return what the change returned
+     */
+    protected <T> T call(Supplier<T> change) {
+        Change<T> c=new Change<>(change);
+        long sequence;
+        try {
+            sequence=claim();
+        }catch(IllegalStateException e) {
+            awaitStopped();
+            return change.get();
+        }
+        changes[(int)sequence&mask]=c;
+        publish(sequence);
+        return join(c.future);
+    }
+
+    /**
+     * @return true if the caller is the sequencer thread
+     */
+    protected boolean isSequencerThread() {
+        return Thread.currentThread()==sequencer;
+    }
+
+    /**
+     * Stop taking orders, wait for the sequencer to place every order already submitted, and stop it
+     */
+    @Override
+    public void close() {
+        markClosed();
+        LockSupport.unpark(sequencer);
+        awaitStopped();
+    }
+
+    /**
+     * @return what stopped the sequencer if it failed, null if it didn't
+     */
+    public Throwable getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * set the closed bit in the cursor, so no sequence number can be claimed after it
+     * @return the first sequence number that was never handed out
+     */
+    private long markClosed() {
+        long c;
+        do {
+            c=cursor.get();
+        } while((c&CLOSED)==0&&!cursor.compareAndSet(c,c|CLOSED));
+        return c&~CLOSED;
+    }
+
+    private void awaitStopped() {
+        boolean interrupted=false;
+        while(sequencer.isAlive()) {
+            try {
+                sequencer.join();
+            }catch(InterruptedException e) {
+                interrupted=true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long claim() {
+        int waits=0;
+        while(true) {
+            long sequence=cursor.get();
+            if((sequence&CLOSED)!=0) {
+                Throwable f=this.failure;
+                throw f==null?new IllegalStateException("the sequencer is closed"):new IllegalStateException("the sequencer failed",f);
+            }
+            //the ring is full until the sequencer is done with the slot's previous order
+            if(sequence-applied>mask) {
+                waitForRoom(waits++);
+                continue;
+            }
+            if(cursor.compareAndSet(sequence,sequence+1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private void publish(long sequence) {
+        //the volatile write makes the slot visible to the sequencer, and orders it before the parked check
+        published.set((int)sequence&mask,sequence);
+        if(sequencerParked) {
+            LockSupport.unpark(sequencer);
+        }
+    }
+
+    private void waitForRoom(int waits) {
+        switch(waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                if(waits<100) {
+                    Thread.onSpinWait();
+                }
+                else {
+                    LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+                }
+        }
+    }
+
+    private void run() {
+        try {
+            applyAll();
+        }catch(Throwable e) {
+            fail(e);
+        }finally {
+            system.setSequencer(null);
+        }
+    }
+
+    /**
+     * Apply everything published, in order, until the sequencer is closed and every order submitted before
+     that has been applied, or until something fails in a way the sequencer can't go on from
+     */
+    private void applyAll() {
+        List<Order> batch=new ArrayList<>(batchSize);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<OrderOutcome>[] completing=(CompletableFuture<OrderOutcome>[])new CompletableFuture<?>[batchSize];
+        OrderOutcome[] outcomes=new OrderOutcome[batchSize];
+        long next=0;
+        while(true) {
+            long end=next;
+            //a batch stops at a change, which is made on its own
+            while(end-next<batchSize&&published.get((int)end&mask)==end&&changes[(int)end&mask]==null) {
+                end++;
+            }
+            if(end==next) {
+                int slot=(int)next&mask;
+                //an order published since the batch was looked for is picked up on the next time round
+                if(published.get(slot)==next&&changes[slot]!=null) {
+                    Change<?> change=changes[slot];
+                    changes[slot]=null;
+                    Throwable failed=change.make();
+                    applied=++next;
+                    if(failed!=null&&!(failed instanceof RuntimeException)) {
+                        fail(failed);
+                        return;
+                    }
+                    continue;
+                }
+                if(published.get(slot)==next) {
+                    continue;
+                }
+                long c=cursor.get();
+                if((c&CLOSED)!=0&&(c&~CLOSED)==next) {
+                    return;
+                }
+                waitForOrders(next);
+                continue;
+            }
+            int count=(int)(end-next);
+            for(long s=next;s<end;s++) {
+                int slot=(int)s&mask;
+                batch.add(orders[slot]);
+                completing[(int)(s-next)]=futures[slot];
+                orders[slot]=null;
+                futures[slot]=null;
+            }
+            Throwable failed=null;
+            try {
+                system.placeOrders(batch,outcomes);
+            }catch(Throwable e) {
+                failed=e;
+            }
+            //hand the slots back before completing, so producers aren't held up by callbacks
+            applied=end;
+            next=end;
+            for(int i=0;i<count;i++) {
+                //an order left without an outcome wasn't applied, the ones before it were
+                if(outcomes[i]!=null) {
+                    completing[i].complete(outcomes[i]);
+                }
+                else {
+                    completing[i].completeExceptionally(failed);
+                }
+                completing[i]=null;
+                outcomes[i]=null;
+            }
+            batch.clear();
+            //a batch that threw a RuntimeException failed on its own, anything else may have left the system
+            //or the sequencer in no state to go on
+            if(failed!=null&&!(failed instanceof RuntimeException)) {
+                fail(failed);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop after a failure the sequencer can't go on from: close, so every submission from now on is refused,
+     and fail every order and change submitted before that which hasn't been applied
+     * @param e what went wrong
+     */
+    private void fail(Throwable e) {
+        this.failure=e;
+        long end=markClosed();
+        for(long s=applied;s<end;s++) {
+            int slot=(int)s&mask;
+            //claimed before the sequencer was closed, so its producer is about to publish it
+            while(published.get(slot)!=s) {
+                Thread.onSpinWait();
+            }
+            if(changes[slot]!=null) {
+                changes[slot].future.completeExceptionally(e);
+                changes[slot]=null;
+            }
+            else {
+                futures[slot].completeExceptionally(e);
+                orders[slot]=null;
+                futures[slot]=null;
+            }
+            applied=s+1;
+        }
+    }
+
+    /**
+     * Wait for a future completed on the sequencer thread, and throw what it failed with as it was thrown there
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }catch(CompletionException e) {
+            Throwable cause=e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw e;
+        }
+    }
+
+    private void waitForOrders(long next) {
+        switch(waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                sequencerParked=true;
+                //check again after announcing the park, a producer that published before it saw the flag
+                if(published.get((int)next&mask)!=next&&(cursor.get()&CLOSED)==0) {
+                    LockSupport.parkNanos(SEQUENCER_PARK_NANOS);
+                }
+                sequencerParked=false;
+        }
+    }
+
+    /**
+     * A change to the system waiting in the ring, with the future its caller waits on
+     */
+    private static final class Change<T> {
+        private final Supplier<T> change;
+        private final CompletableFuture<T> future;
+
+        private Change(Supplier<T> change) {
+            this.change=change;
+            this.future=new CompletableFuture<>();
+        }
+
+        /**
+         * @return what the change threw, null if it didn't
+         */
+        private Throwable make() {
+            try {
+                future.complete(change.get());
+                return null;
+            }catch(Throwable e) {
+                future.completeExceptionally(e);
+                return e;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ import java.util.*;
 public class Product implements Item {
     private String name;
     private double price;
+    private long priceInCents;
     protected int productID;
 
     /**
@@ -13,6 +14,7 @@ public class Product implements Item {
     public Product(String name, double price, int productID) {
         this.name=name;
         this.price=price;
+        this.priceInCents=Math.round(price*100);
         this.productID=productID;
     }
 
@@ -31,6 +33,11 @@ public class Product implements Item {
         return this.price;
     }
 
+    @Override
+    public long getPriceInCents() {
+        return this.priceInCents;
+    }
+
     @Override
     public boolean equals(Object o) {
         //see if it's the same object
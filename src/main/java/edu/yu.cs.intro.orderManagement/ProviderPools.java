@@ -0,0 +1,457 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+/**
+ * Keeps, for every service, a pool of the providers of that service who are free right now, so the order
+ management system never has to scan every provider to staff an order.
+ * Each provider gets a dense ordinal when it is registered. A pool is a doubly linked list threaded through
+ arrays indexed by the provider's position in the pool, so taking a provider out of a pool or putting it
+ back is O(1). A provider who offers several services sits in several pools; taking it out of one takes it
+ out of all of them. Not thread safe, the caller locks.
+ * An order's services are staffed as a bipartite matching between the units of service it asks for and the
+ free providers, see {@link #assign(Service, int)}, so providers who offer several of the order's services
+ are put where they are needed and an order is only turned down if no assignment of free providers covers it.
+ */
+public class ProviderPools {
+    private IntIndex ordinals;
+    private ServiceProvider[] providers;
+    private Pool[][] poolsByProvider;
+    private int[] poolCounts;
+    private int size;
+    /**
+     * pools by service ordinal, see {@link Service#ordinalOf(int)}, so finding a service's pool doesn't hash
+     */
+    private Pool[] pools;
+    /**
+     * scratch for the assignment in progress, all of it stamped with the epoch it was written in so none of
+     it has to be cleared between assignments
+     */
+    private int epoch;
+    private int visitEpoch;
+    private int[] claimStamps;
+    private int[] claimLines;
+    private int[] claimSlots;
+    private int[] visitStamps;
+    private Pool[] linePools;
+    private int[] lineStarts;
+    private int[] lineFilled;
+    private int[] lineVisits;
+    private int lineCount;
+    private int[] slots;
+    private int slotCount;
+
+    protected ProviderPools() {
+        this.ordinals=new IntIndex();
+        this.providers=new ServiceProvider[16];
+        this.poolsByProvider=new Pool[16][];
+        this.poolCounts=new int[16];
+        this.size=0;
+        this.pools=new Pool[16];
+        this.claimStamps=new int[16];
+        this.claimLines=new int[16];
+        this.claimSlots=new int[16];
+        this.visitStamps=new int[16];
+        this.linePools=new Pool[4];
+        this.lineStarts=new int[4];
+        this.lineFilled=new int[4];
+        this.lineVisits=new int[4];
+        this.slots=new int[16];
+    }
+
+    /**
+     * Register the provider, so it can be found by id even before it is a member of any pool
+     * @param provider
+     */
+    protected void add(ServiceProvider provider) {
+        register(provider);
+    }
+
+    /**
+     * @param id
+     * @return the provider registered with the given id, or null if there is none
+     */
+    protected ServiceProvider get(int id) {
+        int ordinal=ordinals.get(id);
+        return ordinal==IntIndex.ABSENT?null:providers[ordinal];
+    }
+
+    /**
+     * Make the provider a member of the pool for the given service. It is put in the pool straight away if
+     it is available.
+     * @param service
+     * @param provider
+     */
+    protected void addMember(Service service, ServiceProvider provider) {
+        int ordinal=register(provider);
+        Pool pool=poolOf(service);
+        if(pool==null) {
+            if(service.ordinal>=pools.length) {
+                pools=Arrays.copyOf(pools,Integer.highestOneBit(service.ordinal)<<1);
+            }
+            pool=new Pool();
+            pools[service.ordinal]=pool;
+        }
+        if(pool.indexOf(ordinal)!=IntIndex.ABSENT) {
+            return;
+        }
+        pool.addMember(ordinal);
+        if(poolCounts[ordinal]==poolsByProvider[ordinal].length) {
+            poolsByProvider[ordinal]=Arrays.copyOf(poolsByProvider[ordinal],poolCounts[ordinal]*2);
+        }
+        poolsByProvider[ordinal][poolCounts[ordinal]++]=pool;
+        if(providers[ordinal].isAvailable()) {
+            pool.link(ordinal);
+        }
+    }
+
+    /**
+     * Take the provider out of the pool for the given service for good, because it doesn't offer the service
+     any more. Its other pools are left as they are.
+     * @param service
+     * @param provider
+     */
+    protected void removeMember(Service service, ServiceProvider provider) {
+        int ordinal=ordinals.get(provider.getId());
+        Pool pool=poolOf(service);
+        if(ordinal==IntIndex.ABSENT||pool==null||pool.indexOf(ordinal)==IntIndex.ABSENT) {
+            return;
+        }
+        pool.removeMember(ordinal);
+        Pool[] memberOf=poolsByProvider[ordinal];
+        int last=poolCounts[ordinal]-1;
+        for(int i=0;i<=last;i++) {
+            if(memberOf[i]==pool) {
+                memberOf[i]=memberOf[last];
+                memberOf[last]=null;
+                poolCounts[ordinal]--;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param service
+     * @return how many providers of the service are free right now
+     */
+    protected int available(Service service) {
+        Pool pool=poolOf(service);
+        return pool==null?0:pool.free;
+    }
+
+    /**
+     * Take the provider that has been free the longest out of the service's pool, and out of every other
+     pool it is in
+     * @param service
+     * @return the provider, or null if nobody is free for the service
+     */
+    protected ServiceProvider take(Service service) {
+        Pool pool=poolOf(service);
+        if(pool==null||pool.free==0) {
+            return null;
+        }
+        int ordinal=pool.members[pool.head];
+        unlinkEverywhere(ordinal);
+        return providers[ordinal];
+    }
+
+    /**
+     * Take the given provider out of all of its pools, whichever service it is needed for
+     * @param provider
+     */
+    protected void remove(ServiceProvider provider) {
+        int ordinal=ordinals.get(provider.getId());
+        if(ordinal!=IntIndex.ABSENT) {
+            unlinkEverywhere(ordinal);
+        }
+    }
+
+    /**
+     * Put a provider that was taken with {@link #take(Service)} back into all of its pools
+     * @param provider
+     */
+    protected void release(ServiceProvider provider) {
+        int ordinal=ordinals.get(provider.getId());
+        if(ordinal==IntIndex.ABSENT) {
+            return;
+        }
+        Pool[] memberOf=poolsByProvider[ordinal];
+        for(int i=0;i<poolCounts[ordinal];i++) {
+            memberOf[i].link(ordinal);
+        }
+    }
+
+    /**
+     * Start assigning free providers to a new order, forgetting the last assignment
+     */
+    protected void startAssignment() {
+        if(++epoch==0) {
+            //the stamps wrapped around, so old ones could pass for new ones
+            Arrays.fill(claimStamps,0);
+            epoch=1;
+        }
+        lineCount=0;
+        slotCount=0;
+    }
+
+    /**
+     * Add a service to the assignment in progress, finding amount free providers for it without taking any
+     of the providers found for the services added before it. Each free provider of the service is tried in
+     the order it became free, which is all it takes unless those providers are already assigned to the
+     order's other services. If there aren't enough left, providers already assigned are moved to other
+     services they offer along augmenting paths, so the service is only turned down if no assignment of the
+     free providers covers it and every service added before it.
+     * Nobody is taken out of the pools until {@link #takeAssigned()}.
+     * @param service
+     * @param amount how many providers the service needs
+     * @return true if the service was staffed, false if it can't be. The assignment in progress shouldn't be
+     used after that.
+     */
+    protected boolean assign(Service service, int amount) {
+        Pool pool=poolOf(service);
+        int line=addLine(pool,amount);
+        if(amount==0) {
+            return true;
+        }
+        if(pool==null||pool.free<amount) {
+            return false;
+        }
+        //greedy: the first free providers nobody else in the order has
+        int start=lineStarts[line];
+        for(int i=pool.head;i!=Pool.NONE&&lineFilled[line]<amount;i=pool.next[i]) {
+            int ordinal=pool.members[i];
+            if(claimStamps[ordinal]!=epoch) {
+                claim(ordinal,line,start+lineFilled[line]++);
+            }
+        }
+        //take providers from the other services whenever they can be replaced by someone else
+        while(lineFilled[line]<amount) {
+            if(++visitEpoch==0) {
+                Arrays.fill(visitStamps,0);
+                Arrays.fill(lineVisits,0);
+                visitEpoch=1;
+            }
+            lineVisits[line]=visitEpoch;
+            if(!augment(line,start+lineFilled[line])) {
+                return false;
+            }
+            lineFilled[line]++;
+        }
+        return true;
+    }
+
+    /**
+     * @return how many providers the assignment in progress holds
+     */
+    protected int assignedCount() {
+        return slotCount;
+    }
+
+    /**
+     * @param i
+     * @return the i'th provider of the assignment in progress, in the order the services were added
+     */
+    protected ServiceProvider assignedAt(int i) {
+        return providers[slots[i]];
+    }
+
+    /**
+     * Take every provider of the assignment in progress out of all of its pools
+     */
+    protected void takeAssigned() {
+        for(int i=0;i<slotCount;i++) {
+            unlinkEverywhere(slots[i]);
+        }
+    }
+
+    private Pool poolOf(Service service) {
+        return service.ordinal<pools.length?pools[service.ordinal]:null;
+    }
+
+    private int addLine(Pool pool, int amount) {
+        if(lineCount==linePools.length) {
+            linePools=Arrays.copyOf(linePools,lineCount*2);
+            lineStarts=Arrays.copyOf(lineStarts,lineCount*2);
+            lineFilled=Arrays.copyOf(lineFilled,lineCount*2);
+            lineVisits=Arrays.copyOf(lineVisits,lineCount*2);
+        }
+        if(slotCount+amount>slots.length) {
+            slots=Arrays.copyOf(slots,Math.max(slots.length*2,slotCount+amount));
+        }
+        int line=lineCount++;
+        linePools[line]=pool;
+        lineStarts[line]=slotCount;
+        lineFilled[line]=0;
+        lineVisits[line]=0;
+        //a line that can't be staffed is never used again, so its slots may as well be counted
+        slotCount+=amount;
+        return line;
+    }
+
+    /**
+     * Find a provider of the line's service for the given slot, either one nobody in the order has, or one
+     that another line can do without because it can find someone else in turn
+     * @return true if the slot was filled
+     */
+    private boolean augment(int line, int slot) {
+        Pool pool=linePools[line];
+        for(int i=pool.head;i!=Pool.NONE;i=pool.next[i]) {
+            int ordinal=pool.members[i];
+            if(visitStamps[ordinal]==visitEpoch) {
+                continue;
+            }
+            visitStamps[ordinal]=visitEpoch;
+            if(claimStamps[ordinal]!=epoch) {
+                claim(ordinal,line,slot);
+                return true;
+            }
+            int other=claimLines[ordinal];
+            if(other!=line&&lineVisits[other]!=visitEpoch) {
+                lineVisits[other]=visitEpoch;
+                if(augment(other,claimSlots[ordinal])) {
+                    claim(ordinal,line,slot);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void claim(int ordinal, int line, int slot) {
+        claimStamps[ordinal]=epoch;
+        claimLines[ordinal]=line;
+        claimSlots[ordinal]=slot;
+        slots[slot]=ordinal;
+    }
+
+    private void unlinkEverywhere(int ordinal) {
+        Pool[] memberOf=poolsByProvider[ordinal];
+        for(int i=0;i<poolCounts[ordinal];i++) {
+            memberOf[i].unlink(ordinal);
+        }
+    }
+
+    private int register(ServiceProvider provider) {
+        int ordinal=ordinals.get(provider.getId());
+        if(ordinal!=IntIndex.ABSENT) {
+            return ordinal;
+        }
+        ordinal=size;
+        if(ordinal==providers.length) {
+            providers=Arrays.copyOf(providers,ordinal*2);
+            poolsByProvider=Arrays.copyOf(poolsByProvider,ordinal*2);
+            poolCounts=Arrays.copyOf(poolCounts,ordinal*2);
+            claimStamps=Arrays.copyOf(claimStamps,ordinal*2);
+            claimLines=Arrays.copyOf(claimLines,ordinal*2);
+            claimSlots=Arrays.copyOf(claimSlots,ordinal*2);
+            visitStamps=Arrays.copyOf(visitStamps,ordinal*2);
+        }
+        providers[ordinal]=provider;
+        poolsByProvider[ordinal]=new Pool[2];
+        ordinals.put(provider.getId(),ordinal);
+        size++;
+        return ordinal;
+    }
+
+    /**
+     * The providers of one service. members holds provider ordinals, and next/prev link the free ones
+     into a list from head to tail by their position in members.
+     */
+    private static final class Pool {
+        private static final int NONE=-1;
+        private IntIndex positions=new IntIndex(4);
+        private int[] members=new int[4];
+        private int[] next=new int[4];
+        private int[] prev=new int[4];
+        private boolean[] linked=new boolean[4];
+        private int count=0;
+        private int head=NONE;
+        private int tail=NONE;
+        private int free=0;
+
+        private int indexOf(int ordinal) {
+            return positions.get(ordinal);
+        }
+
+        private void addMember(int ordinal) {
+            if(count==members.length) {
+                members=Arrays.copyOf(members,count*2);
+                next=Arrays.copyOf(next,count*2);
+                prev=Arrays.copyOf(prev,count*2);
+                linked=Arrays.copyOf(linked,count*2);
+            }
+            members[count]=ordinal;
+            positions.put(ordinal,count);
+            count++;
+        }
+
+        /**
+         * move the last member into the removed member's position, relinking it where it was in the list
+         */
+        private void removeMember(int ordinal) {
+            unlink(ordinal);
+            int i=positions.remove(ordinal);
+            int last=--count;
+            if(i!=last) {
+                int moved=members[last];
+                members[i]=moved;
+                linked[i]=linked[last];
+                if(linked[i]) {
+                    next[i]=next[last];
+                    prev[i]=prev[last];
+                    if(prev[i]==NONE) {
+                        head=i;
+                    }
+                    else {
+                        next[prev[i]]=i;
+                    }
+                    if(next[i]==NONE) {
+                        tail=i;
+                    }
+                    else {
+                        prev[next[i]]=i;
+                    }
+                }
+                positions.put(moved,i);
+            }
+            linked[last]=false;
+        }
+
+        private void link(int ordinal) {
+            int i=positions.get(ordinal);
+            if(i==IntIndex.ABSENT||linked[i]) {
+                return;
+            }
+            next[i]=NONE;
+            prev[i]=tail;
+            if(tail==NONE) {
+                head=i;
+            }
+            else {
+                next[tail]=i;
+            }
+            tail=i;
+            linked[i]=true;
+            free++;
+        }
+
+        private void unlink(int ordinal) {
+            int i=positions.get(ordinal);
+            if(i==IntIndex.ABSENT||!linked[i]) {
+                return;
+            }
+            if(prev[i]==NONE) {
+                head=next[i];
+            }
+            else {
+                next[prev[i]]=next[i];
+            }
+            if(next[i]==NONE) {
+                tail=prev[i];
+            }
+            else {
+                prev[next[i]]=prev[i];
+            }
+            linked[i]=false;
+            free--;
+        }
+    }
+}
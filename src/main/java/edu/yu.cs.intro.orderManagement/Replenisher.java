@@ -0,0 +1,385 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * Restocks products in the background, before orders run them out, so that orders only have to restock
+ inline as a last resort.
+ * Every product can have a low watermark and a reorder quantity. After an order takes a product, its stock
+ level is compared with the watermark, and if it is below, the product is flagged. A worker thread picks up
+ every flagged product in one pass and adds the reorder quantity to each of them (more if that still leaves
+ it below the watermark), then records the whole pass in the journal as a single restock. Products on the
+ "do not restock" list are never restocked: the flags are swept without a lock, but the flagged products are
+ checked again and restocked under the lock {@link OrderManagementSystem#discontinueItem(Item)} takes, so a
+ product discontinued during a pass is either skipped by it, or discontinued after it in the journal too. A
+ pass that finds nothing flagged doesn't take the lock at all.
+ * Flags live in a bitset indexed by the product's stock slot, in pages that never move, so flagging a product
+ from the order path is a single atomic OR.
+ * The counters tell how well the watermarks are tuned: every inline restock an order had to make is one the
+ worker didn't get to first.
+ * Watermarks aren't journaled or checkpointed, so they have to be set again after recovering a system, and
+ like orders, the replenisher should be closed before a {@link Checkpoint} is written.
+ */
+public class Replenisher implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL_MILLIS=10;
+    private static final int PAGE_SHIFT=10;
+    private static final int PAGE_SIZE=1<<PAGE_SHIFT;
+    private static final int PAGE_MASK=PAGE_SIZE-1;
+    private static final VarHandle LONGS=MethodHandles.arrayElementVarHandle(long[].class);
+    private final OrderManagementSystem system;
+    private final StockTable stock;
+    private final long intervalNanos;
+    /**
+     * the watermark and reorder quantity of every product, see {@link #settings(int, int)}
+     */
+    private volatile Page[] pages;
+    private volatile long defaultSettings;
+    private volatile boolean running;
+    private volatile boolean sleeping;
+    private final Thread worker;
+    private final LongAdder linesTaken;
+    private final LongAdder inlineRestocks;
+    private final LongAdder inlineUnits;
+    private final LongAdder backgroundRestocks;
+    private final LongAdder backgroundUnits;
+    private final LongAdder passes;
+    /**
+     * slots the worker swept out of the bitset in the current pass
+     */
+    private int[] due;
+
+    /**
+     * Start restocking the system's products in the background, checking for flagged products at least every
+     {@link #DEFAULT_INTERVAL_MILLIS} milliseconds
+     * @param system
+     */
+    public Replenisher(OrderManagementSystem system) {
+        this(system,DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Start restocking the system's products in the background. Products have no watermark until one is set.
+     * @param system
+     * @param intervalMillis the longest the worker sleeps before it checks for flagged products again. It
+     is woken as soon as a product is flagged, so this only matters if a wakeup is missed.
+     * @throws IllegalArgumentException if the interval isn't positive
+     */
+    public Replenisher(OrderManagementSystem system, long intervalMillis) throws IllegalArgumentException {
+        if(intervalMillis<=0) {
+            throw new IllegalArgumentException("interval must be positive: "+intervalMillis);
+        }
+        this.system=system;
+        this.stock=system.warehouse.stock;
+        this.intervalNanos=TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.pages=new Page[1];
+        this.defaultSettings=0;
+        this.linesTaken=new LongAdder();
+        this.inlineRestocks=new LongAdder();
+        this.inlineUnits=new LongAdder();
+        this.backgroundRestocks=new LongAdder();
+        this.backgroundUnits=new LongAdder();
+        this.passes=new LongAdder();
+        this.due=new int[64];
+        this.running=true;
+        this.worker=new Thread(this::run,"replenisher");
+        worker.setDaemon(true);
+        worker.start();
+        system.setReplenisher(this);
+    }
+
+    /**
+     * Restock the product in the background whenever it falls below the watermark
+     * @param product
+     * @param lowWatermark restock when the stock level is below this
+     * @param reorderQuantity how many units to add at a time
+     * @throws IllegalArgumentException if the product isn't in the warehouse, or either number is negative
+     */
+    public synchronized void setWatermark(Product product, int lowWatermark, int reorderQuantity) throws IllegalArgumentException {
+        int slot=stock.slotOf(product.getItemNumber());
+        if(slot==StockTable.NO_SLOT) {
+            throw new IllegalArgumentException("product "+product.getItemNumber()+" is not in the warehouse");
+        }
+        long settings=settings(lowWatermark,reorderQuantity);
+        Page page=page(slot,true);
+        LONGS.setVolatile(page.settings,slot&PAGE_MASK,settings);
+        //it may be below the new watermark already
+        check(slot);
+    }
+
+    /**
+     * Give every product that doesn't have a watermark of its own this watermark and reorder quantity. Only
+     products taken by an order after this is called are checked against it.
+     * @param lowWatermark restock when the stock level is below this, 0 for no background restocking
+     * @param reorderQuantity how many units to add at a time
+     * @throws IllegalArgumentException if either number is negative
+     */
+    public void setDefaultWatermark(int lowWatermark, int reorderQuantity) throws IllegalArgumentException {
+        this.defaultSettings=lowWatermark==0?0:settings(lowWatermark,reorderQuantity);
+    }
+
+    /**
+     * Stop restocking in the background. Products that are flagged but not restocked yet stay as they are.
+     */
+    @Override
+    public void close() {
+        system.setReplenisher(null);
+        running=false;
+        LockSupport.unpark(worker);
+        boolean interrupted=false;
+        while(worker.isAlive()) {
+            try {
+                worker.join();
+            }catch(InterruptedException e) {
+                interrupted=true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of product lines taken by accepted orders since the replenisher started
+     */
+    public long getLinesTaken() {
+        return linesTaken.sum();
+    }
+
+    /**
+     * @return number of times an order had to restock a product itself
+     */
+    public long getInlineRestocks() {
+        return inlineRestocks.sum();
+    }
+
+    /**
+     * @return units added by those restocks
+     */
+    public long getInlineUnits() {
+        return inlineUnits.sum();
+    }
+
+    /**
+     * @return fraction of product lines taken that needed an inline restock, 0 if nothing was taken
+     */
+    public double getInlineRestockRate() {
+        long lines=linesTaken.sum();
+        return lines==0?0:(double)inlineRestocks.sum()/lines;
+    }
+
+    /**
+     * @return number of products restocked in the background
+     */
+    public long getBackgroundRestocks() {
+        return backgroundRestocks.sum();
+    }
+
+    /**
+     * @return units added by background restocks
+     */
+    public long getBackgroundUnits() {
+        return backgroundUnits.sum();
+    }
+
+    /**
+     * @return number of passes the worker made that restocked something
+     */
+    public long getPasses() {
+        return passes.sum();
+    }
+
+    /**
+     * Called by the order management system once an order is committed: count what it restocked inline
+     and flag every product it took that is now below its watermark
+     * @param reservation the committed order's reservation
+     */
+    protected void ordered(OrderReservation reservation) {
+        linesTaken.add(reservation.productCount);
+        for(int i=0;i<reservation.productCount;i++) {
+            if(reservation.restocked[i]>0) {
+                inlineRestocks.increment();
+                inlineUnits.add(reservation.restocked[i]);
+            }
+            int slot=stock.slotOf(reservation.productNumbers[i]);
+            if(slot!=StockTable.NO_SLOT) {
+                check(slot);
+            }
+        }
+    }
+
+    private void check(int slot) {
+        int watermark=watermarkOf(settingsOf(slot));
+        if(watermark==0||stock.getActual(slot)>=watermark) {
+            return;
+        }
+        Page page=page(slot,false);
+        if(page==null) {
+            page=growTo(slot);
+        }
+        int offset=slot&PAGE_MASK;
+        long bit=1L<<offset;
+        long before=(long)LONGS.getAndBitwiseOr(page.due,offset>>>6,bit);
+        if((before&bit)==0&&sleeping) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void run() {
+        OrderReservation restocks=new OrderReservation();
+        while(running) {
+            int count=sweep();
+            if(count>0) {
+                restocks.clear();
+                Journal journal;
+                long journaled=0;
+                //under the lock discontinueItem takes, so a product can't be discontinued between the check and the
+                //give, and the pass is journaled on the same side of the discontinue as it was applied
+                synchronized(system.serviceLock) {
+                    for(int i=0;i<count;i++) {
+                        restock(due[i],restocks);
+                    }
+                    journal=system.journal;
+                    if(journal!=null&&restocks.productCount>0) {
+                        journaled=journal.logRestock(restocks);
+                    }
+                }
+                if(restocks.productCount>0) {
+                    passes.increment();
+                    if(journal!=null) {
+                        journal.commit(journaled);
+                    }
+                }
+                continue;
+            }
+            sleeping=true;
+            //anything flagged before the flag went up was missed by the pass, so look again before sleeping
+            if(!anyDue()&&running) {
+                LockSupport.parkNanos(intervalNanos);
+            }
+            sleeping=false;
+        }
+    }
+
+    /**
+     * Clear every flag that is set and collect its slot in {@link #due}. Words with nothing flagged are only
+     read, so an idle sweep writes nothing.
+     * @return number of slots collected
+     */
+    private int sweep() {
+        int count=0;
+        Page[] directory=this.pages;
+        for(int p=0;p<directory.length;p++) {
+            Page page=directory[p];
+            if(page==null) {
+                continue;
+            }
+            for(int word=0;word<page.due.length;word++) {
+                if((long)LONGS.getVolatile(page.due,word)==0) {
+                    continue;
+                }
+                long bits=(long)LONGS.getAndSet(page.due,word,0L);
+                while(bits!=0) {
+                    if(count==due.length) {
+                        due=Arrays.copyOf(due,count*2);
+                    }
+                    due[count++]=(p<<PAGE_SHIFT)+(word<<6)+Long.numberOfTrailingZeros(bits);
+                    bits&=bits-1;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void restock(int slot, OrderReservation restocks) {
+        if(!stock.isInCatalog(slot)||stock.isDoNotRestock(slot)) {
+            return;
+        }
+        long settings=settingsOf(slot);
+        int watermark=watermarkOf(settings);
+        int current=stock.getActual(slot);
+        if(current>=watermark) {
+            return;
+        }
+        int units=Math.max(reorderQuantityOf(settings),watermark-current);
+        stock.give(slot,units);
+        restocks.addProduct(stock.productAt(slot).getItemNumber(),0,units);
+        backgroundRestocks.increment();
+        backgroundUnits.add(units);
+    }
+
+    private boolean anyDue() {
+        for(Page page:this.pages) {
+            if(page==null) {
+                continue;
+            }
+            for(int word=0;word<page.due.length;word++) {
+                if((long)LONGS.getVolatile(page.due,word)!=0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the product's own settings, or the default ones if it has none
+     */
+    private long settingsOf(int slot) {
+        Page page=page(slot,false);
+        long settings=page==null?0:(long)LONGS.getVolatile(page.settings,slot&PAGE_MASK);
+        return settings==0?defaultSettings:settings;
+    }
+
+    /**
+     * Pack a watermark and reorder quantity into one long, so they are always read together. The watermark
+     is stored plus one, so that 0 can mean "no settings of its own".
+     */
+    private static long settings(int lowWatermark, int reorderQuantity) {
+        if(lowWatermark<0||reorderQuantity<0) {
+            throw new IllegalArgumentException("watermark and reorder quantity can't be negative");
+        }
+        return ((long)lowWatermark+1)<<32|reorderQuantity;
+    }
+
+    private static int watermarkOf(long settings) {
+        return settings==0?0:(int)((settings>>>32)-1);
+    }
+
+    private static int reorderQuantityOf(long settings) {
+        return (int)settings;
+    }
+
+    private Page page(int slot, boolean create) {
+        Page[] directory=this.pages;
+        int pageNumber=slot>>>PAGE_SHIFT;
+        Page page=pageNumber<directory.length?directory[pageNumber]:null;
+        if(page==null&&create) {
+            page=growTo(slot);
+        }
+        return page;
+    }
+
+    /**
+     * Pages are never copied, only the directory that points at them, so a flag set in a page is never lost
+     */
+    private synchronized Page growTo(int slot) {
+        int pageNumber=slot>>>PAGE_SHIFT;
+        Page[] directory=this.pages;
+        if(pageNumber>=directory.length) {
+            directory=Arrays.copyOf(directory,Math.max(directory.length*2,pageNumber+1));
+        }
+        if(directory[pageNumber]==null) {
+            directory[pageNumber]=new Page();
+        }
+        this.pages=directory;
+        return directory[pageNumber];
+    }
+
+    private static final class Page {
+        private final long[] settings=new long[PAGE_SIZE];
+        private final long[] due=new long[PAGE_SIZE>>>6];
+    }
+}
@@ -8,9 +8,17 @@ import java.util.*;
  */
 public class Service implements Item {
     private double pricePerHour;
+    private long pricePerHourInCents;
     private int numberOfHours;
     protected int serviceID;
     private String description;
+    /**
+     * dense number given to every distinct service id, see {@link #ordinalOf(int)}. Shared by every system
+     in the process and never shrinks. Read without a lock, written only by {@link #assignOrdinal(int)}, which
+     is synchronized, since an IntIndex takes one writer at a time.
+     */
+    private static final IntIndex ORDINALS=new IntIndex();
+    protected final int ordinal;
 
     /**
      * @param pricePerHour
@@ -20,9 +28,61 @@ public class Service implements Item {
      */
     public Service(double pricePerHour, int numberOfHours, int serviceID, String description) {
         this.pricePerHour=pricePerHour;
+        this.pricePerHourInCents=Math.round(pricePerHour*100);
         this.numberOfHours=numberOfHours;
         this.serviceID=serviceID;
         this.description=description;
+        this.ordinal=ordinalOf(serviceID);
+    }
+
+    /**
+     * Number the service ids densely from 0, in the order they are first seen, so a set of services can be
+     kept as a bitset. Every service with the same id gets the same ordinal.
+     * The numbering is process wide: every order management system, shard, import and checkpoint load in
+     the JVM shares it, and an id keeps its ordinal after every service with it is gone. Per system bitsets
+     and arrays indexed by ordinal, like the offered services and the {@link ItemRegistry}, are sized by the
+     highest ordinal they hold, so they grow with the number of distinct service ids the process has ever
+     seen, not just the ones the system knows. Safe to call from any thread.
+     * @param serviceID
+     * @return the ordinal of the service id
+     */
+    protected static int ordinalOf(int serviceID) {
+        int ordinal=ORDINALS.get(serviceID);
+        return ordinal!=IntIndex.ABSENT?ordinal:assignOrdinal(serviceID);
+    }
+
+    /**
+     * Give the service id the next ordinal, unless another thread just did
+     */
+    private static synchronized int assignOrdinal(int serviceID) {
+        int ordinal=ORDINALS.get(serviceID);
+        if(ordinal==IntIndex.ABSENT) {
+            ordinal=ORDINALS.size();
+            ORDINALS.put(serviceID,ordinal);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @param serviceID
+     * @return the ordinal of the service id, or {@link IntIndex#ABSENT} if no service with that id was ever made
+     */
+    protected static int existingOrdinalOf(int serviceID) {
+        return ORDINALS.get(serviceID);
+    }
+
+    /**
+     * @return the price of one billable hour
+     */
+    protected double getPricePerHour() {
+        return this.pricePerHour;
+    }
+
+    /**
+     * @return the price of one billable hour in cents, rounded to the nearest cent
+     */
+    public long getPricePerHourInCents() {
+        return this.pricePerHourInCents;
     }
 
     /**
@@ -47,6 +107,14 @@ public class Service implements Item {
         return this.pricePerHour*this.numberOfHours;
     }
 
+    /**
+     * @return the per hour price in cents multiplied by the number of hours the service takes
+     */
+    @Override
+    public long getPriceInCents() {
+        return this.pricePerHourInCents*this.numberOfHours;
+    }
+
     @Override
     public boolean equals(Object o) {
         //see if it's the same object
@@ -10,34 +10,59 @@ public class ServiceProvider implements Comparable<ServiceProvider>{
     private String name;
     protected int id;
     protected boolean busy;
-    protected int ordersSinceBusy;
+    protected boolean reserved;
+    /**
+     * sequence number of the order the current engagement started in, and the schedule that number
+     belongs to. Only meaningful while busy.
+     */
+    protected long engagedAt;
+    protected EngagementSchedule schedule;
     protected Set<Service> services;
+    private final Set<Service> servicesView;
+    /**
+     * the same services as a bitset over their ordinals, see {@link Service#ordinalOf(int)}. Replaced rather
+     than changed, so it can be read without locking.
+     */
+    private volatile long[] serviceBits;
+    /**
+     * the order management system this provider was last added to, which has to hear about every service it
+     starts or stops offering
+     */
+    protected OrderManagementSystem system;
     /**
      *
      * @param name
      * @param id unique id of the ServiceProvider
-     * @param services set of services this provider can provide
+     * @param services set of services this provider can provide, which is copied
      */
     public ServiceProvider(String name, int id, Set<Service> services) {
         this.name=name;
         this.id=id;
-        this.services=services;
+        this.services=new HashSet<>(services);
+        this.servicesView=Collections.unmodifiableSet(this.services);
+        int highest=0;
+        for(Service s:this.services) {
+            highest=Math.max(highest,s.ordinal);
+        }
+        long[] bits=new long[(highest>>>6)+1];
+        for(Service s:this.services) {
+            bits[s.ordinal>>>6]|=1L<<s.ordinal;
+        }
+        this.serviceBits=bits;
         this.busy=false;
-        this.ordersSinceBusy=0;
+        this.reserved=false;
+        this.engagedAt=0;
+        this.schedule=null;
     }
 
     /**
-     * @return orders elapsed since became busy
+     * @return orders elapsed since became busy, counting the order he was assigned in. Zero if not busy.
      */
     protected int getOrdersSinceBusy() {
-        return this.ordersSinceBusy;
-    }
-
-    /**
-     * @param i
-     */
-    protected void setOrdersSinceBusy(int i) {
-        this.ordersSinceBusy=i;
+        if(busy==false||schedule==null) {
+            return 0;
+        }
+        return schedule.ordersSince(this);
     }
 
     /**
@@ -54,6 +79,32 @@ public class ServiceProvider implements Comparable<ServiceProvider>{
         return this.id;
     }
 
+    /**
+     * @return true if the provider is neither assigned to a job nor reserved for an order in progress
+     */
+    protected boolean isAvailable() {
+        return busy==false&&reserved==false;
+    }
+
+    /**
+     * Hold this provider for an order that hasn't been committed yet. A reserved provider can't be given to
+     another order, but doesn't count as busy until {@link #assignToCustomer()} is called.
+     * @throws IllegalStateException if the provider is busy or already reserved
+     */
+    protected void reserve() throws IllegalStateException {
+        if(!isAvailable()) {
+            throw new IllegalStateException("Already assigned or reserved");
+        }
+        reserved=true;
+    }
+
+    /**
+     * Release the hold taken by {@link #reserve()} because the order it was for didn't go through
+     */
+    protected void cancelReservation() {
+        reserved=false;
+    }
+
     /**
      * Assign this provider to a customer. Record the fact that he is busy.
      * @throws IllegalStateException if the provider is currently assigned to a job
@@ -63,6 +114,7 @@ public class ServiceProvider implements Comparable<ServiceProvider>{
             throw new IllegalStateException("Already assigned to a customer");
         }
         busy=true;
+        reserved=false;
     }
 
     /**
@@ -74,22 +126,76 @@ public class ServiceProvider implements Comparable<ServiceProvider>{
             throw new IllegalStateException ("Not currently assigned to a customer");
         }
         busy=false;
+        schedule=null;
     }
 
     /**
-     * @param s add the given service to the set of services this provider can provide
+     * @param s add the given service to the set of services this provider can provide. The system the
+     provider belongs to starts sending it orders for the service, unless the service is discontinued.
      * @return true if it was added, false if not
      */
     protected boolean addService(Service s) {
-        return this.services.add(s);
+        OrderManagementSystem owner=this.system;
+        if(owner!=null) {
+            return owner.addProvidedService(this,s);
+        }
+        return offer(s);
     }
 
     /**
-     * @param s remove the given service from the set of services this provider can provide
+     * @param s remove the given service from the set of services this provider can provide. The system the
+     provider belongs to stops offering the service if nobody else provides it.
      * @return true if it was removed, false if not
      */
     protected boolean removeService(Service s) {
-        return this.services.remove(s);
+        OrderManagementSystem owner=this.system;
+        if(owner!=null) {
+            return owner.removeProvidedService(this,s);
+        }
+        return withdraw(s);
+    }
+
+    /**
+     * Add the service to this provider only, without telling the system
+     * @param s
+     * @return true if it was added, false if the provider already offered it
+     */
+    protected boolean offer(Service s) {
+        if(!this.services.add(s)) {
+            return false;
+        }
+        this.serviceBits=withBit(this.serviceBits,s.ordinal,true);
+        return true;
+    }
+
+    /**
+     * Remove the service from this provider only, without telling the system
+     * @param s
+     * @return true if it was removed, false if the provider didn't offer it
+     */
+    protected boolean withdraw(Service s) {
+        if(!this.services.remove(s)) {
+            return false;
+        }
+        this.serviceBits=withBit(this.serviceBits,s.ordinal,false);
+        return true;
+    }
+
+    /**
+     * @param s
+     * @return true if this provider can provide the service
+     */
+    public boolean provides(Service s) {
+        return isSet(this.serviceBits,s.ordinal);
+    }
+
+    /**
+     * @param serviceId item number of the service
+     * @return true if this provider can provide the service with that item number
+     */
+    public boolean provides(int serviceId) {
+        int ordinal=Service.existingOrdinalOf(serviceId);
+        return ordinal!=IntIndex.ABSENT&&isSet(this.serviceBits,ordinal);
     }
 
     /**
@@ -102,6 +208,32 @@ public class ServiceProvider implements Comparable<ServiceProvider>{
         return copy;
     }
 
+    /**
+     * @return read only view of the services this provider can provide, which follows any services added or
+     removed later. Nothing is copied, so it shouldn't be iterated while the provider's services are changing;
+     use {@link #getServices()} for a copy to keep.
+     */
+    public Set<Service> getServicesView() {
+        return this.servicesView;
+    }
+
+    private static boolean isSet(long[] bits, int ordinal) {
+        int word=ordinal>>>6;
+        return word<bits.length&&(bits[word]&(1L<<ordinal))!=0;
+    }
+
+    private static long[] withBit(long[] bits, int ordinal, boolean set) {
+        int word=ordinal>>>6;
+        long[] copy=Arrays.copyOf(bits,Math.max(bits.length,word+1));
+        if(set) {
+            copy[word]|=1L<<ordinal;
+        }
+        else {
+            copy[word]&=~(1L<<ordinal);
+        }
+        return copy;
+    }
+
     @Override
     public boolean equals(Object o) {
         //see if it's the same object
@@ -0,0 +1,532 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+/**
+ * Splits the business across several independent order management systems, called shards, each with its
+ own warehouse, service pairing and provider pools, so orders for different shards don't share any state.
+ * Products belong to the shard their item number maps to. Services that share a provider, directly or
+ through other services, are kept in one shard along with every provider of them, so each provider staffs
+ every service it offers, just as it would in a single system. These groups are spread over the shards by
+ how many providers they have. A service nobody provides belongs to the shard its item number maps to.
+ Groups are fixed when the system is built: a provider added later whose services are already in different
+ shards lives in the one that has most of them, and is not available for the others.
+ * Each shard is only ever worked on by one thread at a time. An order whose items all belong to one shard
+ is placed by that shard alone. An order that spans shards locks every shard it touches in shard order,
+ reserves its part in each of them, and only commits once every part is reserved; if any part fails, every
+ shard's reservation is aborted, so no shard is left with stock taken or providers busy for an order that
+ was turned down.
+ * Every shard numbers its orders from one counter they all share, and an order that spans shards gets a
+ single number, so a provider sits out the 3 orders after its own in the whole business, as in a single
+ system. A shard frees the providers that are due before it reserves an order.
+ * Metrics, journals, histories and demand trackers belong to the shards. A shard's history, demand tracker
+ and journal get its part of every order that spans shards, and its metrics count the restocking done for
+ that part. The outcome of an order that spans shards is counted once, by the shard that turned it down, or
+ by the lowest shard it touches if it was accepted. Phase times are only kept for orders placed by a single
+ shard.
+ */
+public class ShardedOrderManagementSystem {
+    private final OrderManagementSystem[] shards;
+    private final ReentrantLock[] locks;
+    /**
+     * the shard of every service some provider offers, by item number. Written holding its own lock.
+     */
+    private final IntIndex serviceShards;
+    /**
+     * number of providers in each shard, to spread new groups of services by. Guarded by serviceShards.
+     */
+    private final int[] providerCounts;
+    /**
+     * the counter every shard numbers its orders from
+     */
+    private final AtomicLong sequence;
+    /**
+     * the latest combined catalog snapshot, see {@link #getCatalogSnapshot()}
+     */
+    private volatile CatalogSnapshot catalog;
+
+    /**
+     * @param products - set of products to populate the warehouses with
+     * @param defaultProductStockLevel - the default number of products to stock for any product
+     * @param serviceProviders - set of service providers and the services they provide
+     * @param shardCount - number of shards to split the business into
+     * @throws IllegalArgumentException if the shard count isn't positive
+     */
+    public ShardedOrderManagementSystem(Set<Product> products, int defaultProductStockLevel,
+                                        Set<ServiceProvider> serviceProviders, int shardCount) throws IllegalArgumentException {
+        if(shardCount<=0) {
+            throw new IllegalArgumentException("shard count must be positive: "+shardCount);
+        }
+        List<Set<Product>> productsByShard=new ArrayList<>();
+        List<Set<ServiceProvider>> providersByShard=new ArrayList<>();
+        for(int i=0;i<shardCount;i++) {
+            productsByShard.add(new HashSet<>());
+            providersByShard.add(new HashSet<>());
+        }
+        this.shards=new OrderManagementSystem[shardCount];
+        this.locks=new ReentrantLock[shardCount];
+        this.serviceShards=new IntIndex();
+        this.providerCounts=new int[shardCount];
+        this.sequence=new AtomicLong();
+        for(Product p:products) {
+            productsByShard.get(shardOf(p.getItemNumber())).add(p);
+        }
+        routeServices(serviceProviders);
+        for(ServiceProvider sp:serviceProviders) {
+            providersByShard.get(shardOf(sp)).add(sp);
+        }
+        for(int i=0;i<shardCount;i++) {
+            shards[i]=new OrderManagementSystem(productsByShard.get(i),defaultProductStockLevel,providersByShard.get(i));
+            //nothing has been ordered yet, so the schedule can still be swapped for one on the shared counter
+            shards[i].schedule=new EngagementSchedule(sequence);
+            locks[i]=new ReentrantLock();
+        }
+    }
+
+    /**
+     * Accept an order, with the same checks and the same exceptions as {@link
+     OrderManagementSystem#placeOrder(Order)}. Services are checked in every shard before products are, so
+     an order that fails on both is reported as failing on services.
+     * @throws IllegalArgumentException if any part of the order for PRODUCTS can’t be fulfilled
+     * @throws IllegalStateException if any part of the order for SERVICES can’t be fulfilled
+     */
+    public void placeOrder(Order order) throws IllegalArgumentException,IllegalStateException {
+        OrderOutcome outcome=tryPlaceOrder(order);
+        if(outcome==OrderOutcome.ACCEPTED) {
+            return;
+        }
+        if(outcome.isServiceRejection()) {
+            throw new IllegalStateException("can't process services requested: "+order.getRejectedItem());
+        }
+        throw new IllegalArgumentException("cant process product requested: "+order.getRejectedItem());
+    }
+
+    /**
+     * Accept an order the same way as {@link #placeOrder(Order)}, but report a rejection by returning it
+     instead of throwing, see {@link OrderManagementSystem#tryPlaceOrder(Order)}
+     * @param order
+     * @return what happened to the order
+     */
+    public OrderOutcome tryPlaceOrder(Order order) {
+        int only=-1;
+        boolean spansShards=false;
+        for(int line=0;line<order.productLineCount()&&!spansShards;line++) {
+            int shard=shardOf(order.productNumberAt(line));
+            spansShards=only>=0&&shard!=only;
+            only=shard;
+        }
+        for(int line=0;line<order.serviceLineCount()&&!spansShards;line++) {
+            int shard=shardOfService(order.serviceNumberAt(line));
+            spansShards=only>=0&&shard!=only;
+            only=shard;
+        }
+        if(spansShards) {
+            return placeAcrossShards(order);
+        }
+        //an empty order goes through shard 0, which completes it like any system would
+        int shard=Math.max(only,0);
+        locks[shard].lock();
+        try {
+            releaseDue(shard);
+            return shards[shard].tryPlaceOrder(order);
+        }finally {
+            locks[shard].unlock();
+        }
+    }
+
+    /**
+     * @return number of shards the business is split into
+     */
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * @param shard
+     * @return the shard, to set metrics, a journal, a history or a demand tracker on. Orders must still be
+     placed through this system, which holds the shard's lock while it works on it.
+     */
+    protected OrderManagementSystem getShard(int shard) {
+        return this.shards[shard];
+    }
+
+    /**
+     * @return get the set of all the products offered/sold by this business, see {@link #getCatalogSnapshot()}
+     */
+    public Set<Product> getProductCatalog() {
+        return getCatalogSnapshot().getProducts();
+    }
+
+    /**
+     * @return get the set of all the Services offered/sold by this business, see {@link #getCatalogSnapshot()}
+     */
+    public Set<Service> getOfferedServices() {
+        return getCatalogSnapshot().getServices();
+    }
+
+    /**
+     * Get the products and services on offer in every shard, without taking any lock, and without copying
+     anything unless some shard's catalog changed since the last call
+     * @return immutable snapshot of the whole catalog. Its version is the sum of the shards' versions.
+     */
+    public CatalogSnapshot getCatalogSnapshot() {
+        CatalogSnapshot snapshot=this.catalog;
+        //every shard's version only goes up, so the sum only stays the same if none of them changed
+        long version=0;
+        for(OrderManagementSystem shard:shards) {
+            version+=shard.getCatalogSnapshot().getVersion();
+        }
+        if(snapshot!=null&&snapshot.getVersion()==version) {
+            return snapshot;
+        }
+        synchronized(this.shards) {
+            CatalogSnapshot[] parts=new CatalogSnapshot[shards.length];
+            version=0;
+            for(int i=0;i<shards.length;i++) {
+                parts[i]=shards[i].getCatalogSnapshot();
+                version+=parts[i].getVersion();
+            }
+            snapshot=this.catalog;
+            if(snapshot!=null&&snapshot.getVersion()==version) {
+                return snapshot;
+            }
+            Set<Product> products=new HashSet<>();
+            Set<Service> services=new HashSet<>();
+            for(int i=0;i<shards.length;i++) {
+                products.addAll(parts[i].getProducts());
+                //a shard also lists services of other shards that its providers offer, which it never staffs
+                for(Service s:parts[i].getServices()) {
+                    if(shardOfService(s.getItemNumber())==i) {
+                        services.add(s);
+                    }
+                }
+            }
+            snapshot=new CatalogSnapshot(version,products,services);
+            this.catalog=snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * Adds new Products to the warehouses of the shards they belong to
+     * @param products the products to add
+     * @return set of products that were actually added
+     */
+    protected Set<Product> addNewProducts(Collection<Product> products) {
+        List<List<Product>> productsByShard=new ArrayList<>();
+        for(int i=0;i<shards.length;i++) {
+            productsByShard.add(new ArrayList<>());
+        }
+        for(Product p:products) {
+            productsByShard.get(shardOf(p.getItemNumber())).add(p);
+        }
+        Set<Product> productsAdded=new HashSet<>();
+        for(int i=0;i<shards.length;i++) {
+            if(productsByShard.get(i).isEmpty()) {
+                continue;
+            }
+            locks[i].lock();
+            try {
+                productsAdded.addAll(shards[i].addNewProducts(productsByShard.get(i)));
+            }finally {
+                locks[i].unlock();
+            }
+        }
+        return productsAdded;
+    }
+
+    /**
+     * Adds an additional ServiceProvider to the shard that has most of its services. Services of its that
+     no provider offered yet join that shard too.
+     * @param provider the provider to add
+     */
+    protected void addServiceProvider(ServiceProvider provider) {
+        int shard;
+        synchronized(serviceShards) {
+            shard=shardOf(provider);
+            for(Service s:provider.services) {
+                if(serviceShards.get(s.getItemNumber())==IntIndex.ABSENT) {
+                    serviceShards.put(s.getItemNumber(),shard);
+                }
+            }
+            providerCounts[shard]++;
+        }
+        locks[shard].lock();
+        try {
+            shards[shard].addServiceProvider(provider);
+        }finally {
+            locks[shard].unlock();
+        }
+    }
+
+    /**
+     * Discontinue Item in the shard it belongs to, see {@link OrderManagementSystem#discontinueItem(Item)}.
+     A discontinued service is also kept from being offered by providers added to other shards later.
+     * @param item the item to discontinue
+     */
+    protected void discontinueItem(Item item) {
+        int owner=shardOf(item.getItemNumber());
+        for(int i=0;i<shards.length;i++) {
+            if(i!=owner&&item instanceof Product) {
+                continue;
+            }
+            locks[i].lock();
+            try {
+                shards[i].discontinueItem(item);
+            }finally {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Set the default product stock level for the given product
+     * @param prod
+     * @param level
+     */
+    protected void setDefaultProductStockLevel(Product prod, int level) {
+        int shard=shardOf(prod.getItemNumber());
+        locks[shard].lock();
+        try {
+            shards[shard].setDefaultProductStockLevel(prod,level);
+        }finally {
+            locks[shard].unlock();
+        }
+    }
+
+    /**
+     * @param itemNumber
+     * @return the shard the product or service with the given item number belongs to
+     */
+    protected int shardOf(int itemNumber) {
+        return Math.floorMod(itemNumber,shards.length);
+    }
+
+    /**
+     * @param itemNumber
+     * @return the shard the service with the given item number belongs to, see {@link
+     #routeServices(Collection)}
+     */
+    protected int shardOfService(int itemNumber) {
+        int shard=serviceShards.get(itemNumber);
+        return shard==IntIndex.ABSENT?shardOf(itemNumber):shard;
+    }
+
+    /**
+     * @param provider
+     * @return the shard that has most of the provider's services, the lowest numbered one on a tie. Once
+     the system is built that is the shard that has all of them, unless the provider was added later.
+     */
+    protected int shardOf(ServiceProvider provider) {
+        if(provider.services.isEmpty()) {
+            return Math.floorMod(provider.getId(),shards.length);
+        }
+        int[] owned=new int[shards.length];
+        int best=0;
+        for(Service s:provider.services) {
+            int shard=shardOfService(s.getItemNumber());
+            owned[shard]++;
+            if(owned[shard]>owned[best]||(owned[shard]==owned[best]&&shard<best)) {
+                best=shard;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Put every group of services that share providers in one shard: groups with the most providers first,
+     each in the shard that has the fewest providers so far
+     * @param serviceProviders
+     */
+    private void routeServices(Collection<ServiceProvider> serviceProviders) {
+        //union find over item numbers, every provider joins the groups of all of its services
+        Map<Integer, Integer> parent=new HashMap<>();
+        for(ServiceProvider sp:serviceProviders) {
+            Integer first=null;
+            for(Service s:sp.services) {
+                int root=root(parent,s.getItemNumber());
+                if(first==null) {
+                    first=root;
+                }
+                else if(root!=first) {
+                    parent.put(root,first);
+                }
+            }
+        }
+        Map<Integer, List<Integer>> groups=new HashMap<>();
+        for(Integer itemNumber:parent.keySet()) {
+            groups.computeIfAbsent(root(parent,itemNumber),k->new ArrayList<>()).add(itemNumber);
+        }
+        Map<Integer, Integer> providersInGroup=new HashMap<>();
+        for(ServiceProvider sp:serviceProviders) {
+            if(!sp.services.isEmpty()) {
+                providersInGroup.merge(root(parent,sp.services.iterator().next().getItemNumber()),1,Integer::sum);
+            }
+        }
+        List<Integer> roots=new ArrayList<>(groups.keySet());
+        //biggest first, then by item number, so the same providers always give the same shards
+        roots.sort(Comparator.comparing((Integer root)->-providersInGroup.get(root)).thenComparing(root->Collections.min(groups.get(root))));
+        synchronized(serviceShards) {
+            for(Integer root:roots) {
+                int shard=0;
+                for(int i=1;i<shards.length;i++) {
+                    if(providerCounts[i]<providerCounts[shard]) {
+                        shard=i;
+                    }
+                }
+                providerCounts[shard]+=providersInGroup.get(root);
+                for(int itemNumber:groups.get(root)) {
+                    serviceShards.put(itemNumber,shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the item number at the root of the item's group, with the path to it shortened
+     */
+    private static int root(Map<Integer, Integer> parent, int itemNumber) {
+        int root=itemNumber;
+        Integer up;
+        while((up=parent.putIfAbsent(root,root))!=null&&up!=root) {
+            root=up;
+        }
+        //point everything on the way straight at the root
+        while(itemNumber!=root) {
+            itemNumber=parent.put(itemNumber,root);
+        }
+        return root;
+    }
+
+    /**
+     * Free the shard's providers whose engagement ended with the latest order in any shard. Must be called
+     holding the shard's lock.
+     * @param shard
+     */
+    private void releaseDue(int shard) {
+        OrderManagementSystem system=shards[shard];
+        if(system.schedule.hasEngagements()) {
+            synchronized(system.serviceLock) {
+                system.releaseDue();
+            }
+        }
+    }
+
+    /**
+     * Split the order into a part per shard, reserve every part holding all of their locks, and commit only
+     if every part was reserved
+     * @param order
+     * @return what happened to the order
+     */
+    private OrderOutcome placeAcrossShards(Order order) {
+        Order[] parts=new Order[shards.length];
+        for(int line=0;line<order.productLineCount();line++) {
+            partFor(parts,shardOf(order.productNumberAt(line))).addToOrder(order.productAt(line),order.productQuantityAt(line));
+        }
+        for(int line=0;line<order.serviceLineCount();line++) {
+            partFor(parts,shardOfService(order.serviceNumberAt(line))).addToOrder(order.serviceAt(line),order.serviceQuantityAt(line));
+        }
+        OrderReservation[] reservations=new OrderReservation[shards.length];
+        long[] journaled=new long[shards.length];
+        //always in shard order, so two orders spanning the same shards can't deadlock
+        for(int i=0;i<shards.length;i++) {
+            if(parts[i]!=null) {
+                locks[i].lock();
+            }
+        }
+        try {
+            //prepare: services in every shard first, then products, as placeOrder checks them. Services are
+            //checked everywhere before any provider is set aside, so an order turned down for them leaves every
+            //free pool in the order it was in, as a single system would
+            for(int i=0;i<shards.length;i++) {
+                if(parts[i]==null) {
+                    continue;
+                }
+                reservations[i]=new OrderReservation();
+                OrderOutcome outcome;
+                releaseDue(i);
+                synchronized(shards[i].serviceLock) {
+                    outcome=shards[i].checkServices(parts[i],reservations[i]);
+                }
+                if(outcome!=OrderOutcome.ACCEPTED) {
+                    return rejectAll(order,outcome,i,reservations);
+                }
+            }
+            for(int i=0;i<shards.length;i++) {
+                if(parts[i]==null) {
+                    continue;
+                }
+                OrderOutcome outcome;
+                synchronized(shards[i].serviceLock) {
+                    outcome=shards[i].reserveServices(parts[i],reservations[i]);
+                }
+                if(outcome!=OrderOutcome.ACCEPTED) {
+                    return rejectAll(order,outcome,i,reservations);
+                }
+            }
+            for(int i=0;i<shards.length;i++) {
+                if(parts[i]==null) {
+                    continue;
+                }
+                OrderOutcome outcome=shards[i].reserveProducts(parts[i],reservations[i]);
+                if(outcome!=OrderOutcome.ACCEPTED) {
+                    return rejectAll(order,outcome,i,reservations);
+                }
+            }
+            //commit: every part is reserved, so none of these can fail. The parts are one order, so one number
+            long orderSequence=sequence.incrementAndGet();
+            boolean counted=false;
+            for(int i=0;i<shards.length;i++) {
+                if(parts[i]!=null) {
+                    if(!counted) {
+                        shards[i].recordOutcome(OrderOutcome.ACCEPTED,0);
+                        counted=true;
+                    }
+                    shards[i].recordRestocks(reservations[i]);
+                    journaled[i]=shards[i].commit(reservations[i],orderSequence);
+                }
+            }
+            order.setRejectedItem(0);
+            order.setCompleted(true);
+            return OrderOutcome.ACCEPTED;
+        }finally {
+            for(int i=shards.length-1;i>=0;i--) {
+                if(parts[i]!=null) {
+                    locks[i].unlock();
+                }
+            }
+            //force each shard's journal once its locks are let go, as tryPlaceOrder does
+            for(int i=0;i<shards.length;i++) {
+                Journal journal=shards[i].journal;
+                if(journaled[i]!=0&&journal!=null) {
+                    journal.commit(journaled[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn the order down: the shard that couldn't reserve its part counts the outcome, every shard counts
+     the restocking done for its part, and every part is aborted
+     * @return the outcome
+     */
+    private OrderOutcome rejectAll(Order order, OrderOutcome outcome, int failedShard, OrderReservation[] reservations) {
+        int failedItem=reservations[failedShard].failedItem;
+        order.setRejectedItem(failedItem);
+        shards[failedShard].recordOutcome(outcome,failedItem);
+        for(int i=0;i<shards.length;i++) {
+            if(reservations[i]!=null) {
+                shards[i].recordRestocks(reservations[i]);
+                shards[i].abort(reservations[i]);
+            }
+        }
+        return outcome;
+    }
+
+    private static Order partFor(Order[] parts, int shard) {
+        if(parts[shard]==null) {
+            parts[shard]=new Order();
+        }
+        return parts[shard];
+    }
+}
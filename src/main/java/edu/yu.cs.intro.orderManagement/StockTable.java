@@ -0,0 +1,502 @@
+package edu.yu.cs.intro.orderManagement;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * Stock engine behind the Warehouse. Every product the warehouse knows about gets a dense slot, and
+ the per product data is kept in parallel arrays indexed by that slot instead of in maps keyed by Product.
+ * A product can have a slot without being in the catalog, e.g. if it was discontinued or given a default
+ stock level before it was ever stocked.
+ *
+ * The arrays are split into fixed size pages that never move once allocated, so stock counters can be
+ changed with compare-and-set from any number of threads while new products are being added. Changes to
+ the catalog itself (adding products, flags) are serialized on the table. In padded mode each stock counter
+ sits on its own cache line so that threads working on different products never contend.
+ * Which products are in stock is kept in a bitset over the slots, with a count, so that listing them
+ doesn't have to look at every product. A bit only changes when a stock level crosses zero: whoever moves a
+ level across zero brings the bit in line with the level, checking the level again afterwards in case another
+ thread moved it back in the meantime.
+ */
+public class StockTable {
+    /**
+     * returned by {@link #slotOf(int)} when there is no slot for the item number
+     */
+    public static final int NO_SLOT=IntIndex.ABSENT;
+    /**
+     * returned by {@link #restockTarget(int, int, int)} when restocking wouldn't change anything
+     */
+    public static final int NO_RESTOCK=-1;
+    private static final int PAGE_SHIFT=10;
+    private static final int PAGE_SIZE=1<<PAGE_SHIFT;
+    private static final int PAGE_MASK=PAGE_SIZE-1;
+    /**
+     * 16 ints is 64 bytes, the cache line size on the hardware we run on
+     */
+    private static final int PADDED_STRIDE_SHIFT=4;
+    private static final byte IN_CATALOG=1;
+    private static final byte DO_NOT_RESTOCK=2;
+    private static final VarHandle INTS=MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle BYTES=MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle LONGS=MethodHandles.arrayElementVarHandle(long[].class);
+    private final IntIndex slotIndex;
+    private final int strideShift;
+    private volatile Page[] pages;
+    private volatile int size;
+    private volatile int catalogSize;
+    private final AtomicInteger inStockCount;
+
+    protected StockTable() {
+        this(16,false);
+    }
+
+    /**
+     * @param expectedProducts number of products to size the table for
+     * @param padded true to give every stock counter its own cache line
+     */
+    protected StockTable(int expectedProducts, boolean padded) {
+        this.slotIndex=new IntIndex(Math.max(expectedProducts,16));
+        this.strideShift=padded?PADDED_STRIDE_SHIFT:0;
+        this.pages=new Page[Math.max(1,(expectedProducts+PAGE_MASK)>>>PAGE_SHIFT)];
+        this.size=0;
+        this.catalogSize=0;
+        this.inStockCount=new AtomicInteger();
+    }
+
+    /**
+     * @param itemNumber
+     * @return the slot of the product with the given item number, or {@link #NO_SLOT} if it has none
+     */
+    protected int slotOf(int itemNumber) {
+        return slotIndex.get(itemNumber);
+    }
+
+    /**
+     * @param itemNumber
+     * @return the slot of the product if it is in the catalog, otherwise {@link #NO_SLOT}
+     */
+    protected int catalogSlotOf(int itemNumber) {
+        int slot=slotIndex.get(itemNumber);
+        if(slot==NO_SLOT||!isInCatalog(slot)) {
+            return NO_SLOT;
+        }
+        return slot;
+    }
+
+    /**
+     * @param product
+     * @return the slot of the product, giving it a new one if it doesn't have one yet
+     */
+    protected synchronized int register(Product product) {
+        int slot=slotIndex.get(product.getItemNumber());
+        if(slot!=NO_SLOT) {
+            return slot;
+        }
+        slot=size;
+        Page page=pageForNewSlot(slot);
+        page.products[slot&PAGE_MASK]=product;
+        //publishing the slot in the index is what makes the product visible to readers
+        slotIndex.put(product.getItemNumber(),slot);
+        size=slot+1;
+        return slot;
+    }
+
+    /**
+     * Put the product in the catalog at the given stock level, which also becomes its default level
+     * @param product
+     * @param stockLevel
+     * @return the product's slot
+     */
+    protected synchronized int addToCatalog(Product product, int stockLevel) {
+        int slot=register(product);
+        Page page=page(slot);
+        int offset=slot&PAGE_MASK;
+        page.products[offset]=product;
+        INTS.setVolatile(page.actual,offset<<strideShift,stockLevel);
+        updateInStock(page,offset);
+        INTS.setVolatile(page.defaultLevel,offset,stockLevel);
+        byte flags=page.flags[offset];
+        if((flags&IN_CATALOG)==0) {
+            BYTES.setVolatile(page.flags,offset,(byte)(flags|IN_CATALOG));
+            catalogSize=catalogSize+1;
+        }
+        return slot;
+    }
+
+    /**
+     * Fill an empty table in one pass, e.g. when loading a checkpoint. Slot i gets products[i] with the
+     stock levels and flags at position i of the other arrays.
+     * @param products
+     * @param actual stock levels
+     * @param defaultLevels default stock levels
+     * @param inCatalog
+     * @param doNotRestock
+     * @param count number of products
+     * @throws IllegalStateException if the table isn't empty
+     * @throws IllegalArgumentException if two products have the same item number
+     */
+    protected synchronized void restore(Product[] products, int[] actual, int[] defaultLevels, boolean[] inCatalog,
+                                        boolean[] doNotRestock, int count) throws IllegalStateException,IllegalArgumentException {
+        if(size!=0) {
+            throw new IllegalStateException("can only restore into an empty stock table");
+        }
+        int inCatalogCount=0;
+        int inStock=0;
+        for(int first=0;first<count;first+=PAGE_SIZE) {
+            Page page=pageForNewSlot(first);
+            int length=Math.min(PAGE_SIZE,count-first);
+            System.arraycopy(products,first,page.products,0,length);
+            System.arraycopy(defaultLevels,first,page.defaultLevel,0,length);
+            for(int offset=0;offset<length;offset++) {
+                page.actual[offset<<strideShift]=actual[first+offset];
+                if(actual[first+offset]>0) {
+                    page.inStock[offset>>>6]|=1L<<offset;
+                    inStock++;
+                }
+                byte flags=0;
+                if(inCatalog[first+offset]) {
+                    flags|=IN_CATALOG;
+                    inCatalogCount++;
+                }
+                if(doNotRestock[first+offset]) {
+                    flags|=DO_NOT_RESTOCK;
+                }
+                page.flags[offset]=flags;
+            }
+        }
+        for(int slot=0;slot<count;slot++) {
+            int itemNumber=products[slot].getItemNumber();
+            if(slotIndex.get(itemNumber)!=NO_SLOT) {
+                throw new IllegalArgumentException("product "+itemNumber+" is in the table twice");
+            }
+            slotIndex.put(itemNumber,slot);
+        }
+        catalogSize=inCatalogCount;
+        inStockCount.set(inStock);
+        //publishing the size last is what makes the slots visible to catalog scans
+        size=count;
+    }
+
+    /**
+     * @param slot
+     * @return the product in the given slot
+     */
+    protected Product productAt(int slot) {
+        return page(slot).products[slot&PAGE_MASK];
+    }
+
+    /**
+     * @param slot
+     * @return true if the product in the slot is in the catalog
+     */
+    protected boolean isInCatalog(int slot) {
+        return (flags(slot)&IN_CATALOG)!=0;
+    }
+
+    /**
+     * @param slot
+     * @return true if the product in the slot is on the "do not restock" list
+     */
+    protected boolean isDoNotRestock(int slot) {
+        return (flags(slot)&DO_NOT_RESTOCK)!=0;
+    }
+
+    /**
+     * put the product in the slot on the "do not restock" list
+     * @param slot
+     */
+    protected synchronized void setDoNotRestock(int slot) {
+        Page page=page(slot);
+        int offset=slot&PAGE_MASK;
+        BYTES.setVolatile(page.flags,offset,(byte)(page.flags[offset]|DO_NOT_RESTOCK));
+    }
+
+    /**
+     * @param slot
+     * @return current stock level of the product in the slot
+     */
+    protected int getActual(int slot) {
+        return (int)INTS.getVolatile(page(slot).actual,(slot&PAGE_MASK)<<strideShift);
+    }
+
+    /**
+     * @param slot
+     * @return default stock level of the product in the slot
+     */
+    protected int getDefault(int slot) {
+        return (int)INTS.getVolatile(page(slot).defaultLevel,slot&PAGE_MASK);
+    }
+
+    /**
+     * @param slot
+     * @param level
+     * @return the old default level
+     */
+    protected int setDefault(int slot, int level) {
+        return (int)INTS.getAndSet(page(slot).defaultLevel,slot&PAGE_MASK,level);
+    }
+
+    /**
+     * Take quantity units out of stock, but only if that many are there
+     * @param slot
+     * @param quantity
+     * @return true if the stock was lowered, false if there were fewer than quantity in stock
+     */
+    protected boolean tryTake(int slot, int quantity) {
+        Page page=page(slot);
+        int[] counters=page.actual;
+        int offset=slot&PAGE_MASK;
+        int index=offset<<strideShift;
+        while(true) {
+            int current=(int)INTS.getVolatile(counters,index);
+            if(current<quantity) {
+                return false;
+            }
+            if(INTS.compareAndSet(counters,index,current,current-quantity)) {
+                if(current==quantity&&quantity>0) {
+                    updateInStock(page,offset);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take as many units as are there, up to quantity, in one atomic step
+     * @param slot
+     * @param quantity
+     * @return how many units were taken
+     */
+    protected int takeUpTo(int slot, int quantity) {
+        Page page=page(slot);
+        int[] counters=page.actual;
+        int offset=slot&PAGE_MASK;
+        int index=offset<<strideShift;
+        while(true) {
+            int current=(int)INTS.getVolatile(counters,index);
+            int taken=Math.min(current,quantity);
+            if(taken<=0) {
+                return 0;
+            }
+            if(INTS.compareAndSet(counters,index,current,current-taken)) {
+                if(taken==current) {
+                    updateInStock(page,offset);
+                }
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * {@link #takeUpTo(int, int)} for a caller that is the only thread taking stock, like the sequencer that
+     owns the system. Everyone else only puts stock back or raises it, so the units seen are still there and
+     they can be taken with one atomic add instead of a compare and set loop.
+     * @param slot
+     * @param quantity
+     * @return how many units were taken
+     */
+    protected int takeUpToAsOnlyTaker(int slot, int quantity) {
+        Page page=page(slot);
+        int offset=slot&PAGE_MASK;
+        int index=offset<<strideShift;
+        int taken=Math.min((int)INTS.getVolatile(page.actual,index),quantity);
+        if(taken<=0) {
+            return 0;
+        }
+        int before=(int)INTS.getAndAdd(page.actual,index,-taken);
+        if(before==taken) {
+            updateInStock(page,offset);
+        }
+        return taken;
+    }
+
+    /**
+     * Put units back into stock, e.g. when an order that took them is undone
+     * @param slot
+     * @param quantity
+     */
+    protected void give(int slot, int quantity) {
+        Page page=page(slot);
+        int offset=slot&PAGE_MASK;
+        int before=(int)INTS.getAndAdd(page.actual,offset<<strideShift,quantity);
+        if((before>0)!=(before+quantity>0)) {
+            updateInStock(page,offset);
+        }
+    }
+
+    /**
+     * Restock the product in the slot: raise it to the minimum if that is above both the current and the
+     default level, otherwise to the default level if that is above both the current level and the minimum.
+     * @param slot
+     * @param minimum
+     * @return how many units were added, 0 if the stock level wasn't changed
+     */
+    protected int raise(int slot, int minimum) {
+        Page page=page(slot);
+        int offset=slot&PAGE_MASK;
+        int index=offset<<strideShift;
+        while(true) {
+            int current=(int)INTS.getVolatile(page.actual,index);
+            int defaultStock=(int)INTS.getVolatile(page.defaultLevel,offset);
+            int target=restockTarget(current,defaultStock,minimum);
+            if(target==NO_RESTOCK) {
+                return 0;
+            }
+            if(INTS.compareAndSet(page.actual,index,current,target)) {
+                if(current<=0&&target>0) {
+                    updateInStock(page,offset);
+                }
+                return target-current;
+            }
+        }
+    }
+
+    /**
+     * The level {@link #raise(int, int)} restocks to
+     * @param current
+     * @param defaultStock
+     * @param minimum
+     * @return the new stock level, or {@link #NO_RESTOCK} if the level stays as it is
+     */
+    protected static int restockTarget(int current, int defaultStock, int minimum) {
+        if(minimum>current&&minimum>defaultStock) {
+            return minimum;
+        }
+        if(defaultStock>current&&defaultStock>minimum) {
+            return defaultStock;
+        }
+        return NO_RESTOCK;
+    }
+
+    /**
+     * @return number of slots in use, including products that aren't in the catalog
+     */
+    protected int size() {
+        return this.size;
+    }
+
+    /**
+     * @return number of products in the catalog
+     */
+    protected int catalogSize() {
+        return this.catalogSize;
+    }
+
+    /**
+     * @param from
+     * @return the first slot at or after from that is in the catalog, or -1 if there is none
+     */
+    protected int nextCatalogSlot(int from) {
+        int end=this.size;
+        for(int slot=from;slot<end;slot++) {
+            if(isInCatalog(slot)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot
+     * @return true if the product in the slot has any stock
+     */
+    protected boolean isInStock(int slot) {
+        int offset=slot&PAGE_MASK;
+        return ((long)LONGS.getVolatile(page(slot).inStock,offset>>>6)&(1L<<offset))!=0;
+    }
+
+    /**
+     * @return number of products with any stock
+     */
+    protected int inStockCount() {
+        return this.inStockCount.get();
+    }
+
+    /**
+     * Skips over products that are out of stock 64 at a time
+     * @param from
+     * @return the first slot at or after from whose product has any stock, or -1 if there is none
+     */
+    protected int nextInStockSlot(int from) {
+        int end=this.size;
+        Page[] directory=this.pages;
+        int slot=from;
+        while(slot<end) {
+            Page page=directory[slot>>>PAGE_SHIFT];
+            int offset=slot&PAGE_MASK;
+            int word=offset>>>6;
+            long bits=(long)LONGS.getVolatile(page.inStock,word)&(-1L<<offset);
+            while(bits==0&&++word<page.inStock.length) {
+                bits=(long)LONGS.getVolatile(page.inStock,word);
+            }
+            if(bits!=0) {
+                int found=(slot&~PAGE_MASK)+(word<<6)+Long.numberOfTrailingZeros(bits);
+                return found<end?found:-1;
+            }
+            slot=(slot&~PAGE_MASK)+PAGE_SIZE;
+        }
+        return -1;
+    }
+
+    /**
+     * Bring the slot's in stock bit in line with its stock level, after the level crossed zero
+     */
+    private void updateInStock(Page page, int offset) {
+        int index=offset<<strideShift;
+        int word=offset>>>6;
+        long bit=1L<<offset;
+        boolean inStock;
+        do {
+            inStock=(int)INTS.getVolatile(page.actual,index)>0;
+            if(inStock) {
+                if(((long)LONGS.getAndBitwiseOr(page.inStock,word,bit)&bit)==0) {
+                    inStockCount.incrementAndGet();
+                }
+            }
+            else if(((long)LONGS.getAndBitwiseAnd(page.inStock,word,~bit)&bit)!=0) {
+                inStockCount.decrementAndGet();
+            }
+        } while(inStock!=(int)INTS.getVolatile(page.actual,index)>0);
+    }
+
+    private byte flags(int slot) {
+        return (byte)BYTES.getVolatile(page(slot).flags,slot&PAGE_MASK);
+    }
+
+    private Page page(int slot) {
+        return pages[slot>>>PAGE_SHIFT];
+    }
+
+    /**
+     * only called with the table locked. Pages are never copied, only the directory that points at them,
+     so a thread holding a page keeps working on the live counters.
+     */
+    private Page pageForNewSlot(int slot) {
+        int pageNumber=slot>>>PAGE_SHIFT;
+        Page[] directory=this.pages;
+        if(pageNumber==directory.length) {
+            directory=Arrays.copyOf(directory,directory.length*2);
+        }
+        if(directory[pageNumber]==null) {
+            directory[pageNumber]=new Page(strideShift);
+        }
+        this.pages=directory;
+        return directory[pageNumber];
+    }
+
+    private static final class Page {
+        private final Product[] products;
+        private final int[] actual;
+        private final int[] defaultLevel;
+        private final byte[] flags;
+        private final long[] inStock;
+
+        private Page(int strideShift) {
+            this.products=new Product[PAGE_SIZE];
+            this.actual=new int[PAGE_SIZE<<strideShift];
+            this.defaultLevel=new int[PAGE_SIZE];
+            this.flags=new byte[PAGE_SIZE];
+            this.inStock=new long[PAGE_SIZE>>>6];
+        }
+    }
+}
@@ -4,32 +4,103 @@ import java.util.*;
  * Stocks products, fulfills product orders, manages stock of products.
  */
 public class Warehouse {
+    /**
+     * returned by {@link #fulfillOrRestock(int, int)} when the order couldn't be fulfilled
+     */
+    protected static final int NOT_FULFILLED=-1;
     /**
      * create a warehouse, initialize all the instance variables
      */
-    protected Map<Product, Integer> defaultStockLevels;
-    protected Map<Product, Integer> actualStockLevels;
-    protected Set<Product> doNotRestock;
+    protected StockTable stock;
+    private Set<Product> catalogView;
+    private Set<Product> inStockView;
 
     protected Warehouse() {
-        defaultStockLevels= new HashMap<>();
-        actualStockLevels= new HashMap<>();
-        doNotRestock= new HashSet<>();
+        this(false);
+    }
+
+    /**
+     * @param concurrent true if many threads will be placing orders at once. Every product's stock
+     counter then gets its own cache line, so orders for different products never contend.
+     */
+    protected Warehouse(boolean concurrent) {
+        this(16,concurrent);
+    }
+
+    /**
+     * @param expectedProducts number of products to size the warehouse for
+     * @param concurrent see {@link #Warehouse(boolean)}
+     */
+    protected Warehouse(int expectedProducts, boolean concurrent) {
+        stock= new StockTable(expectedProducts,concurrent);
+        catalogView= new CatalogView();
+        inStockView= new InStockView();
     }
 
     /**
-     * @return all unique Products stocked in the warehouse
+     * @return all unique Products stocked in the warehouse, as a new set. Only looks at the products in
+     stock, see {@link #getProductsInStock()} for a view that doesn't copy them.
      */
     protected Set<Product> getAllProductsInCatalog() {
-        Set<Product> productsInStock= new HashSet<>();
-        for(Product p: actualStockLevels.keySet()) {
-            if(actualStockLevels.get(p)>0) {
-                productsInStock.add(p);
-            }
+        Set<Product> productsInStock= new HashSet<>(Math.max(16,(int)(stock.inStockCount()/.75f)+1));
+        for(int slot=stock.nextInStockSlot(0);slot>=0;slot=stock.nextInStockSlot(slot+1)) {
+            productsInStock.add(stock.productAt(slot));
         }
         return productsInStock;
     }
 
+    /**
+     * @return live, read only view of the products that are in stock right now. Its size and contains
+     are O(1), and iterating it skips over products that are out of stock without looking at each of them.
+     */
+    protected Set<Product> getProductsInStock() {
+        return this.inStockView;
+    }
+
+    /**
+     * @param productNumber
+     * @return true if the product is in the catalog and has any stock
+     */
+    protected boolean isInStock(int productNumber) {
+        int slot=stock.catalogSlotOf(productNumber);
+        return slot!=StockTable.NO_SLOT&&stock.isInStock(slot);
+    }
+
+    /**
+     * @param productNumber
+     * @return the warehouse's instance of the product with the given item number, whether or not it is in
+     the catalog, or null if the warehouse has never heard of it
+     */
+    protected Product getProduct(int productNumber) {
+        int slot=stock.slotOf(productNumber);
+        return slot==StockTable.NO_SLOT?null:stock.productAt(slot);
+    }
+
+    /**
+     * @return number of products with any stock
+     */
+    protected int getInStockCount() {
+        return stock.inStockCount();
+    }
+
+    /**
+     * @return new set of every product in the catalog, whether or not it is in stock
+     */
+    protected Set<Product> copyCatalog() {
+        Set<Product> catalog=new HashSet<>(Math.max(16,(int)(stock.catalogSize()/.75f)+1));
+        for(int slot=stock.nextCatalogSlot(0);slot>=0;slot=stock.nextCatalogSlot(slot+1)) {
+            catalog.add(stock.productAt(slot));
+        }
+        return catalog;
+    }
+
+    /**
+     * @return read only view of every product in the catalog, whether or not it is in stock
+     */
+    protected Set<Product> getCatalog() {
+        return this.catalogView;
+    }
+
     /**
      * Add a product to the warehouse, at the given stock level.
      * @param product
@@ -39,11 +110,27 @@ public class Warehouse {
     product is already in the warehouse
      */
     protected void addNewProductToWarehouse(Product product, int desiredStockLevel) throws IllegalArgumentException {
-        if(doNotRestock.contains(product)||(actualStockLevels.keySet().contains(product))) {
+        if(!tryAddNewProduct(product,desiredStockLevel)) {
             throw new IllegalArgumentException("cannot add product to warehouse");
         }
-        actualStockLevels.put(product,desiredStockLevel);
-        defaultStockLevels.put(product,desiredStockLevel);
+    }
+
+    /**
+     * Add a product to the warehouse, at the given stock level, the same way as {@link
+     #addNewProductToWarehouse(Product, int)}, but report a product that can't be added instead of throwing
+     * @param product
+     * @param desiredStockLevel
+     * @return false if the product is in the "do not restock" set or already in the warehouse
+     */
+    protected boolean tryAddNewProduct(Product product, int desiredStockLevel) {
+        synchronized(stock) {
+            int slot=stock.slotOf(product.getItemNumber());
+            if(slot!=StockTable.NO_SLOT&&(stock.isDoNotRestock(slot)||stock.isInCatalog(slot))) {
+                return false;
+            }
+            stock.addToCatalog(product,desiredStockLevel);
+            return true;
+        }
     }
 
     /**
@@ -55,22 +142,11 @@ public class Warehouse {
     not in the catalog
      */
     protected void restock(int productNumber, int minimum) throws IllegalArgumentException {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
-            }
-        }
-        if(p==null||doNotRestock.contains(p)) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT||stock.isDoNotRestock(slot)) {
             throw new IllegalArgumentException("cannot restock product");
         }
-        int currentStock=actualStockLevels.get(p);
-        if(minimum>currentStock&&minimum>defaultStockLevels.get(p)) {
-            actualStockLevels.put(p,minimum);
-        }
-        else if(defaultStockLevels.get(p)>currentStock&&defaultStockLevels.get(p)>minimum) {
-            actualStockLevels.put(p,defaultStockLevels.get(p));
-        }
+        stock.raise(slot,minimum);
     }
 
     /**
@@ -83,34 +159,46 @@ public class Warehouse {
     not in the catalog
      */
     protected int setDefaultStockLevel(int productNumber, int quantity) throws IllegalArgumentException {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
-            }
-        }
-        if(p==null||doNotRestock.contains(p)) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT||stock.isDoNotRestock(slot)) {
             throw new IllegalArgumentException("cannot restock product");
         }
-        int oldStockDefault=defaultStockLevels.get(p);
-        defaultStockLevels.put(p,quantity);
-        return oldStockDefault;
+        return stock.setDefault(slot,quantity);
     }
+
+    /**
+     * Set the default stock level for the given product, even if it isn't in the catalog yet. If it is
+     added later, it will be stocked at this level.
+     * @param product
+     * @param quantity
+     */
+    protected void setDefaultStockLevel(Product product, int quantity) {
+        stock.setDefault(stock.register(product),quantity);
+    }
+
+    /**
+     * @param productNumber
+     * @param otherwise
+     * @return the default stock level recorded for the product, or otherwise if none was ever recorded
+     */
+    protected int getDefaultStockLevel(int productNumber, int otherwise) {
+        int slot=stock.slotOf(productNumber);
+        if(slot==StockTable.NO_SLOT) {
+            return otherwise;
+        }
+        return stock.getDefault(slot);
+    }
+
     /**
      * @param productNumber
      * @return how many of the given product we have in stock, or zero if it is not stocked
      */
     protected int getStockLevel(int productNumber) {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
-            }
-        }
-        if(p==null) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT) {
             return 0;
         }
-        return actualStockLevels.get(p);
+        return stock.getActual(slot);
     }
 
     /**
@@ -118,16 +206,7 @@ public class Warehouse {
      * @return true if the given item number is in the warehouse's catalog, false if not
      */
     protected boolean isInCatalog(int itemNumber) {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==itemNumber) {
-                p=product;
-            }
-        }
-        if(p==null) {
-            return false;
-        }
-        return true;
+        return stock.catalogSlotOf(itemNumber)!=StockTable.NO_SLOT;
     }
 
     /**
@@ -136,13 +215,8 @@ public class Warehouse {
      * @return false if it's not in catalog or is in the "do not restock" set. Otherwise true.
      */
     protected boolean isRestockable(int itemNumber) {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==itemNumber) {
-                p=product;
-            }
-        }
-        if(p==null||doNotRestock.contains(p)) {
+        int slot=stock.catalogSlotOf(itemNumber);
+        if(slot==StockTable.NO_SLOT||stock.isDoNotRestock(slot)) {
             return false;
         }
         return true;
@@ -152,16 +226,24 @@ public class Warehouse {
      * add the given product to the "do not restock" set
      * @param productNumber
      * @return the current actual stock level of the product
+     * @throws IllegalArgumentException if the product is not in the catalog
      */
-    protected int doNotRestock(int productNumber) {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
-            }
+    protected int doNotRestock(int productNumber) throws IllegalArgumentException {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT) {
+            throw new IllegalArgumentException("product is not in the catalog");
         }
-        doNotRestock.add(p);
-        return actualStockLevels.get(p);
+        stock.setDoNotRestock(slot);
+        return stock.getActual(slot);
+    }
+
+    /**
+     * add the given product to the "do not restock" set, even if it isn't in the catalog. It can then
+     never be added to the warehouse.
+     * @param product
+     */
+    protected void doNotRestock(Product product) {
+        stock.setDoNotRestock(stock.register(product));
     }
 
     /**
@@ -172,13 +254,8 @@ public class Warehouse {
     products in the catalog. Otherwise true.
      */
     protected boolean canFulfill(int productNumber, int quantity) {
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
-            }
-        }
-        if(p==null||actualStockLevels.get(p)<quantity) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT||stock.getActual(slot)<quantity) {
             return false;
         }
         return true;
@@ -192,15 +269,142 @@ public class Warehouse {
      * @throws IllegalArgumentException if {@link #canFulfill(int, int)} returns false
      */
     protected void fulfill(int productNumber, int quantity) throws IllegalArgumentException {
-        if(!canFulfill(productNumber,quantity)) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT||!stock.tryTake(slot,quantity)) {
             throw new IllegalArgumentException("cannot fulfill requested order");
         }
-        Product p=null;
-        for(Product product: actualStockLevels.keySet()) {
-            if(product.getItemNumber()==productNumber) {
-                p=product;
+    }
+
+    /**
+     * Fulfill an order for the given amount of the given product, restocking it first if there isn't enough
+     in stock and it is restockable. Safe to call while other threads are fulfilling or restocking the same
+     product: the check and the decrement happen as one atomic step.
+     * @param productNumber
+     * @param quantity
+     * @return how many units restocking added on the way (0 if there was enough in stock), or
+     {@link #NOT_FULFILLED} if the product isn't in the catalog or there weren't enough in stock and it
+     couldn't be restocked
+     */
+    protected int fulfillOrRestock(int productNumber, int quantity) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot==StockTable.NO_SLOT) {
+            return NOT_FULFILLED;
+        }
+        int restocked=0;
+        while(!stock.tryTake(slot,quantity)) {
+            //another thread can take the restocked units before we do, so keep going while restocking helps
+            int added=stock.isDoNotRestock(slot)?0:stock.raise(slot,quantity);
+            if(added==0) {
+                return NOT_FULFILLED;
+            }
+            restocked+=added;
+        }
+        return restocked;
+    }
+
+    /**
+     * Put back stock taken by {@link #fulfill(int, int)} or {@link #fulfillOrRestock(int, int)}, e.g.
+     because the rest of the order it was for could not be fulfilled
+     * @param productNumber
+     * @param quantity
+     */
+    protected void returnToStock(int productNumber, int quantity) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot!=StockTable.NO_SLOT) {
+            stock.give(slot,quantity);
+        }
+    }
+
+    /**
+     * Change the stock level of a product by the given amount, without any checks. Used to play back stock
+     changes that were already checked when they first happened.
+     * @param productNumber
+     * @param change
+     */
+    protected void applyStockChange(int productNumber, int change) {
+        int slot=stock.catalogSlotOf(productNumber);
+        if(slot!=StockTable.NO_SLOT) {
+            stock.give(slot,change);
+        }
+    }
+
+    /**
+     * Live, read only view of the products in the catalog, backed by the stock table's slots
+     */
+    private class CatalogView extends AbstractSet<Product> {
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Product)) {
+                return false;
             }
+            return stock.catalogSlotOf(((Product)o).getItemNumber())!=StockTable.NO_SLOT;
+        }
+
+        @Override
+        public int size() {
+            return stock.catalogSize();
+        }
+
+        @Override
+        public Iterator<Product> iterator() {
+            return new Iterator<Product>() {
+                private int next=stock.nextCatalogSlot(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next>=0;
+                }
+
+                @Override
+                public Product next() {
+                    if(next<0) {
+                        throw new NoSuchElementException();
+                    }
+                    Product p=stock.productAt(next);
+                    next=stock.nextCatalogSlot(next+1);
+                    return p;
+                }
+            };
+        }
+    }
+
+    /**
+     * Live, read only view of the products in stock, backed by the stock table's in stock bitset
+     */
+    private class InStockView extends AbstractSet<Product> {
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Product)) {
+                return false;
+            }
+            return isInStock(((Product)o).getItemNumber());
+        }
+
+        @Override
+        public int size() {
+            return stock.inStockCount();
+        }
+
+        @Override
+        public Iterator<Product> iterator() {
+            return new Iterator<Product>() {
+                private int next=stock.nextInStockSlot(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next>=0;
+                }
+
+                @Override
+                public Product next() {
+                    if(next<0) {
+                        throw new NoSuchElementException();
+                    }
+                    Product p=stock.productAt(next);
+                    next=stock.nextInStockSlot(next+1);
+                    return p;
+                }
+            };
         }
-        actualStockLevels.put(p,actualStockLevels.get(p)-quantity);
     }
-}
\ No newline at end of file
+}
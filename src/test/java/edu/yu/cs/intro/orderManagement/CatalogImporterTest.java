@@ -0,0 +1,223 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Importing the CSV and the binary form of a catalog builds the same system as the constructor does, and a
+ malformed, truncated or corrupt file is refused
+ */
+public class CatalogImporterTest {
+    private static final int LEVEL=4;
+    @TempDir
+    Path directory;
+    private final List<Product> products=new ArrayList<>();
+    private final List<Service> services=new ArrayList<>();
+    private final List<ServiceProvider> providers=new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        Random random=new Random(21);
+        //enough rows that the CSV is parsed in several chunks
+        for(int i=0;i<20000;i++) {
+            int cents=1+random.nextInt(100000);
+            products.add(new Product("product, size "+i,cents/100.0,3*i+1));
+        }
+        for(int i=0;i<40;i++) {
+            services.add(new Service((1+random.nextInt(10000))/100.0,1+random.nextInt(8),100000+i,"service, kind "+i));
+        }
+        for(int id=1;id<=200;id++) {
+            Set<Service> offered=new HashSet<>();
+            for(int k=random.nextInt(4);k>0;k--) {
+                offered.add(services.get(random.nextInt(services.size())));
+            }
+            providers.add(new ServiceProvider("provider, number "+id,id,offered));
+        }
+    }
+
+    @Test
+    public void csvAndBinaryBuildTheSameSystem() throws IOException {
+        CatalogImporter.ImportReport csv=CatalogImporter.importCatalog(writeProductsCsv(),writeServicesCsv(),writeProvidersCsv(),LEVEL);
+        CatalogImporter.ImportReport binary=CatalogImporter.importCatalog(writeProductsBinary(),writeServicesBinary(),writeProvidersBinary(),LEVEL);
+        assertEquals(products.size(),csv.getProducts());
+        assertEquals(providers.size(),csv.getProviders());
+        assertEquals(0,csv.getDuplicates());
+        OrderManagementSystem expected=new OrderManagementSystem(new HashSet<>(products),LEVEL,new HashSet<>(providers));
+        assertSameCatalog(expected,csv.getSystem());
+        assertSameCatalog(expected,binary.getSystem());
+    }
+
+    @Test
+    public void duplicateRowsAreSkippedAndTheFirstOneKept() throws IOException {
+        Path file=directory.resolve("products.csv");
+        Files.write(file,Arrays.asList("# item,name,price","1,first,1.50","2,second,2.00","1,again,9.99",""));
+        CatalogImporter.ImportReport report=CatalogImporter.importCatalog(file,writeServicesCsv(),writeProvidersCsv(),LEVEL);
+        assertEquals(2,report.getProducts());
+        assertEquals(1,report.getDuplicates());
+        Product first=null;
+        for(Product p:report.getSystem().getProductCatalog()) {
+            if(p.getItemNumber()==1) {
+                first=p;
+            }
+        }
+        assertEquals("first",first.getDescription());
+        assertEquals(1.5,first.getPrice());
+        assertEquals(LEVEL,report.getSystem().warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void malformedCsvRowsAreRefused() throws IOException {
+        Path services=writeServicesCsv();
+        Path providers=writeProvidersCsv();
+        for(String row: new String[]{"1,no price","x,bad number,1.00","1,bad price,1.x"}) {
+            Path file=directory.resolve("products.csv");
+            Files.write(file,Arrays.asList("2,fine,1.00",row));
+            assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(file,services,providers,LEVEL),row);
+        }
+        Path products=writeProductsCsv();
+        Path badService=directory.resolve("bad-services.csv");
+        Files.write(badService,Collections.singletonList("100000,12.50,description without hours"));
+        assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,badService,providers,LEVEL));
+        Path unknownService=directory.resolve("bad-providers.csv");
+        Files.write(unknownService,Collections.singletonList("1,someone,100000;99"));
+        assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,services,unknownService,LEVEL));
+    }
+
+    @Test
+    public void truncatedBinaryFilesAreRefused() throws IOException {
+        Path services=writeServicesBinary();
+        byte[] bytes=Files.readAllBytes(writeProvidersBinary());
+        Path products=writeProductsBinary();
+        for(int length: new int[]{10,13,bytes.length/3,bytes.length/2,bytes.length-1}) {
+            Path file=directory.resolve("providers"+length);
+            Files.write(file,Arrays.copyOf(bytes,length));
+            assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,services,file,LEVEL),"length "+length);
+        }
+    }
+
+    @Test
+    public void corruptBinaryFilesAreRefused() throws IOException {
+        Path products=writeProductsBinary();
+        Path services=writeServicesBinary();
+        byte[] bytes=Files.readAllBytes(writeProvidersBinary());
+        //the row count follows the magic, the version and the kind
+        for(int count: new int[]{-1,Integer.MAX_VALUE,providers.size()+1}) {
+            Path file=directory.resolve("count"+count);
+            Files.write(file,ByteBuffer.wrap(bytes.clone()).putInt(9,count).array());
+            assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,services,file,LEVEL),"count "+count);
+        }
+        Path version=directory.resolve("version");
+        Files.write(version,ByteBuffer.wrap(bytes.clone()).putInt(4,CatalogImporter.VERSION+1).array());
+        assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,services,version,LEVEL));
+        //a services file where providers belong
+        assertThrows(IllegalArgumentException.class,()->CatalogImporter.importCatalog(products,services,services,LEVEL));
+    }
+
+    private void assertSameCatalog(OrderManagementSystem expected, OrderManagementSystem actual) {
+        Map<Integer, Product> catalog=new HashMap<>();
+        for(Product p:actual.getProductCatalog()) {
+            catalog.put(p.getItemNumber(),p);
+        }
+        assertEquals(expected.getProductCatalog().size(),catalog.size());
+        for(Product p:expected.getProductCatalog()) {
+            Product q=catalog.get(p.getItemNumber());
+            assertNotNull(q,"product "+p.getItemNumber());
+            assertEquals(p.getDescription(),q.getDescription());
+            assertEquals(p.getPrice(),q.getPrice(),"price of "+p.getItemNumber());
+            assertEquals(expected.warehouse.getStockLevel(p.getItemNumber()),actual.warehouse.getStockLevel(p.getItemNumber()));
+            assertEquals(expected.warehouse.getDefaultStockLevel(p.getItemNumber(),-1),actual.warehouse.getDefaultStockLevel(p.getItemNumber(),-1));
+        }
+        Map<Integer, Service> offered=new HashMap<>();
+        for(Service s:actual.getOfferedServices()) {
+            offered.put(s.getItemNumber(),s);
+        }
+        assertEquals(expected.getOfferedServices().size(),offered.size());
+        for(Service s:expected.getOfferedServices()) {
+            Service t=offered.get(s.getItemNumber());
+            assertNotNull(t,"service "+s.getItemNumber());
+            assertEquals(s.getDescription(),t.getDescription());
+            assertEquals(s.getPricePerHour(),t.getPricePerHour());
+            assertEquals(s.getNumberOfHours(),t.getNumberOfHours());
+        }
+        assertEquals(expected.serviceProviders.size(),actual.serviceProviders.size());
+        for(ServiceProvider x:expected.serviceProviders) {
+            ServiceProvider y=providerOf(actual,x.getId());
+            assertNotNull(y,"provider "+x.getId());
+            assertEquals(x.getName(),y.getName());
+            assertEquals(x.services,y.services,"provider "+x.getId()+" services");
+        }
+        for(Service s:expected.getOfferedServices()) {
+            assertEquals(expected.freeProviders.available(s),actual.freeProviders.available(s),"free providers of "+s.getItemNumber());
+        }
+    }
+
+    private static ServiceProvider providerOf(OrderManagementSystem system, int id) {
+        for(ServiceProvider sp:system.serviceProviders) {
+            if(sp.getId()==id) {
+                return sp;
+            }
+        }
+        return null;
+    }
+
+    private Path writeProductsCsv() throws IOException {
+        List<String> lines=new ArrayList<>();
+        lines.add("# itemNumber,name,price");
+        for(Product p:products) {
+            lines.add(p.getItemNumber()+","+p.getDescription()+","+p.getPrice());
+        }
+        return write("products.csv",lines);
+    }
+
+    private Path writeServicesCsv() throws IOException {
+        List<String> lines=new ArrayList<>();
+        for(Service s:services) {
+            lines.add(s.getItemNumber()+","+s.getPricePerHour()+","+s.getNumberOfHours()+","+s.getDescription());
+        }
+        return write("services.csv",lines);
+    }
+
+    private Path writeProvidersCsv() throws IOException {
+        List<String> lines=new ArrayList<>();
+        int row=0;
+        for(ServiceProvider sp:providers) {
+            StringBuilder refs=new StringBuilder();
+            for(Service s:sp.services) {
+                //both separators
+                refs.append(refs.length()==0?"":row%2==0?" ":";").append(s.getItemNumber());
+            }
+            lines.add(sp.getId()+","+sp.getName()+","+refs);
+            row++;
+        }
+        return write("providers.csv",lines);
+    }
+
+    private Path write(String name, List<String> lines) throws IOException {
+        Path file=directory.resolve(name);
+        Files.write(file,String.join("\r\n",lines).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private Path writeProductsBinary() {
+        Path file=directory.resolve("products.bin");
+        CatalogImporter.writeProducts(products,file);
+        return file;
+    }
+
+    private Path writeServicesBinary() {
+        Path file=directory.resolve("services.bin");
+        CatalogImporter.writeServices(services,file);
+        return file;
+    }
+
+    private Path writeProvidersBinary() {
+        Path file=directory.resolve("providers.bin");
+        CatalogImporter.writeProviders(providers,file);
+        return file;
+    }
+}
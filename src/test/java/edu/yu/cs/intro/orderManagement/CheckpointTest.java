@@ -0,0 +1,94 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Loading a checkpoint brings back the system it was written from, and a truncated or corrupted checkpoint
+ is refused
+ */
+public class CheckpointTest {
+    @TempDir
+    Path directory;
+    private final Systems systems=new Systems(30,6);
+
+    @Test
+    public void loadRestoresTheCheckpointedSystem() {
+        for(long seed=0;seed<40;seed++) {
+            Random random=new Random(seed);
+            OrderManagementSystem original=systems.build(seed);
+            systems.drive(original,random,20+random.nextInt(200));
+            Path file=directory.resolve("seed"+seed);
+            Checkpoint.write(original,file);
+            systems.assertSameState(original,Checkpoint.load(file));
+        }
+    }
+
+    @Test
+    public void writeReplacesAnEarlierCheckpoint() {
+        Random random=new Random(7);
+        OrderManagementSystem original=systems.build(7);
+        Path file=directory.resolve("checkpoint");
+        Checkpoint.write(original,file);
+        systems.drive(original,random,100);
+        Checkpoint.write(original,file);
+        systems.assertSameState(original,Checkpoint.load(file));
+        assertFalse(Files.exists(directory.resolve("checkpoint.partial")));
+    }
+
+    @Test
+    public void truncatedCheckpointIsRefused() throws IOException {
+        byte[] bytes=checkpoint();
+        for(int length: new int[]{0,4,8,12,bytes.length/2,bytes.length-5,bytes.length-1}) {
+            Path file=directory.resolve("truncated"+length);
+            Files.write(file,Arrays.copyOf(bytes,length));
+            assertThrows(IllegalArgumentException.class,()->Checkpoint.load(file),"length "+length);
+        }
+    }
+
+    @Test
+    public void corruptedCheckpointIsRefused() throws IOException {
+        byte[] bytes=checkpoint();
+        //past the magic and version, every byte is covered by the checksum
+        for(int i=8;i<bytes.length;i+=7) {
+            byte[] corrupt=bytes.clone();
+            corrupt[i]^=0x40;
+            Path file=directory.resolve("corrupt"+i);
+            Files.write(file,corrupt);
+            assertThrows(IllegalArgumentException.class,()->Checkpoint.load(file),"byte "+i);
+        }
+    }
+
+    @Test
+    public void trailingBytesAreRefused() throws IOException {
+        byte[] bytes=checkpoint();
+        Path file=directory.resolve("longer");
+        Files.write(file,Arrays.copyOf(bytes,bytes.length+4));
+        assertThrows(IllegalArgumentException.class,()->Checkpoint.load(file));
+    }
+
+    @Test
+    public void otherFilesAreRefused() throws IOException {
+        Path notACheckpoint=directory.resolve("text");
+        Files.write(notACheckpoint,"products.csv".getBytes());
+        assertThrows(IllegalArgumentException.class,()->Checkpoint.load(notACheckpoint));
+        Path future=directory.resolve("future");
+        Files.write(future,ByteBuffer.wrap(checkpoint()).putInt(4,Checkpoint.VERSION+1).array());
+        assertThrows(IllegalArgumentException.class,()->Checkpoint.load(future));
+        //version 1 had no checksum, so it is never loaded
+        Path unchecked=directory.resolve("unchecked");
+        Files.write(unchecked,ByteBuffer.wrap(checkpoint()).putInt(4,1).array());
+        assertThrows(IllegalArgumentException.class,()->Checkpoint.load(unchecked));
+    }
+
+    private byte[] checkpoint() throws IOException {
+        OrderManagementSystem system=systems.build(3);
+        systems.drive(system,new Random(3),60);
+        Path file=directory.resolve("original");
+        Checkpoint.write(system,file);
+        return Files.readAllBytes(file);
+    }
+}
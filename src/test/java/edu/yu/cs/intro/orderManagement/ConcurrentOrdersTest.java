@@ -0,0 +1,121 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Orders placed from many threads at once take exactly the stock they were accepted for, and never more
+ than there is of a product that can't be restocked
+ */
+public class ConcurrentOrdersTest {
+    private static final int THREADS=8;
+
+    @Test
+    public void stockIsConservedAcrossThreads() throws InterruptedException {
+        List<Product> products=new ArrayList<>();
+        for(int i=1;i<=5;i++) {
+            products.add(new Product("p"+i,1.0,i));
+        }
+        Product unknown=new Product("unknown",1.0,99);
+        //high enough that nothing is restocked, so the stock only changes by what orders take
+        int level=1_000_000;
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(products),level,new HashSet<>());
+        long[][] taken=new long[THREADS][products.size()+1];
+        int[] rejected=new int[THREADS];
+        run(thread->{
+            Random random=new Random(thread);
+            for(int n=0;n<5000;n++) {
+                Order order=new Order();
+                int[] quantities=new int[products.size()+1];
+                //few products, so threads keep taking the same ones
+                for(int line=1+random.nextInt(3);line>0;line--) {
+                    Product p=products.get(random.nextInt(products.size()));
+                    if(quantities[p.getItemNumber()]==0) {
+                        quantities[p.getItemNumber()]=1+random.nextInt(5);
+                        order.addToOrder(p,quantities[p.getItemNumber()]);
+                    }
+                }
+                boolean turnedDown=random.nextInt(10)==0;
+                if(turnedDown) {
+                    order.addToOrder(unknown,1);
+                }
+                try {
+                    system.placeOrder(order);
+                    assertFalse(turnedDown);
+                    for(int i=1;i<quantities.length;i++) {
+                        taken[thread][i]+=quantities[i];
+                    }
+                }catch(IllegalArgumentException e) {
+                    assertTrue(turnedDown);
+                    rejected[thread]++;
+                }
+            }
+        });
+        for(Product p:products) {
+            long total=0;
+            for(int thread=0;thread<THREADS;thread++) {
+                total+=taken[thread][p.getItemNumber()];
+            }
+            assertEquals(level-total,system.warehouse.getStockLevel(p.getItemNumber()),"stock of "+p.getItemNumber());
+        }
+        assertTrue(Arrays.stream(rejected).sum()>0);
+    }
+
+    @Test
+    public void productThatCantBeRestockedIsNeverOversold() throws InterruptedException {
+        Product scarce=new Product("scarce",1.0,1);
+        int level=1000;
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(Collections.singleton(scarce)),level,new HashSet<>());
+        system.warehouse.doNotRestock(1);
+        AtomicInteger accepted=new AtomicInteger();
+        run(thread->{
+            for(int n=0;n<500;n++) {
+                Order order=new Order();
+                order.addToOrder(scarce,1);
+                try {
+                    system.placeOrder(order);
+                    accepted.incrementAndGet();
+                }catch(IllegalArgumentException e) {
+                    //sold out
+                }
+            }
+        });
+        assertEquals(level,accepted.get());
+        assertEquals(0,system.warehouse.getStockLevel(1));
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * run the work on every thread at once, and rethrow the first failure
+     */
+    private static void run(Work work) throws InterruptedException {
+        CountDownLatch start=new CountDownLatch(1);
+        Throwable[] failures=new Throwable[THREADS];
+        Thread[] threads=new Thread[THREADS];
+        for(int t=0;t<THREADS;t++) {
+            int thread=t;
+            threads[t]=new Thread(()->{
+                try {
+                    start.await();
+                    work.run(thread);
+                }catch(Throwable e) {
+                    failures[thread]=e;
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for(Thread t:threads) {
+            t.join();
+        }
+        for(Throwable failure:failures) {
+            if(failure!=null) {
+                fail(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Estimates are never below the true decayed count, every period halves them, and default levels are
+ suggested from them within the policy's bounds
+ */
+public class DemandTrackerTest {
+    //periods only end when a test ends them
+    private static final long PERIOD_MILLIS=3_600_000;
+    private final List<Product> products=new ArrayList<>();
+    private DemandTracker tracker;
+
+    @AfterEach
+    public void tearDown() {
+        if(tracker!=null) {
+            tracker.close();
+        }
+    }
+
+    @Test
+    public void estimateIsNeverBelowTheTrueCount() {
+        OrderManagementSystem system=system(200,1000);
+        //a narrow sketch, so many products share every counter
+        this.tracker=new DemandTracker(system,PERIOD_MILLIS,4,8);
+        Random random=new Random(25);
+        long[] counts=new long[products.size()+1];
+        boolean overestimated=false;
+        for(int period=0;period<5;period++) {
+            for(int n=0;n<500;n++) {
+                Order order=new Order();
+                Product p=products.get(random.nextInt(products.size()));
+                int quantity=1+random.nextInt(9);
+                order.addToOrder(p,quantity);
+                system.placeOrder(order);
+                counts[p.getItemNumber()]+=quantity;
+            }
+            for(Product p:products) {
+                long estimate=tracker.getEstimate(p.getItemNumber());
+                assertTrue(estimate>=counts[p.getItemNumber()],"product "+p.getItemNumber()+" period "+period);
+                overestimated|=estimate>counts[p.getItemNumber()];
+            }
+            tracker.endPeriod();
+            for(int i=1;i<counts.length;i++) {
+                counts[i]-=counts[i]>>>1;
+            }
+        }
+        assertTrue(overestimated);
+        assertEquals(5,tracker.getPeriods());
+    }
+
+    @Test
+    public void everyPeriodHalvesTheEstimate() {
+        OrderManagementSystem system=system(1,10);
+        this.tracker=new DemandTracker(system,PERIOD_MILLIS,DemandTracker.DEFAULT_WIDTH,8);
+        place(system,products.get(0),40);
+        //nothing else shares its counters, so the estimate is exact
+        for(long expected: new long[]{40,20,10,5,3,2,1,1}) {
+            assertEquals(expected,tracker.getEstimate(1));
+            tracker.endPeriod();
+        }
+    }
+
+    @Test
+    public void levelsAreSuggestedFromDemandWithinThePolicy() {
+        OrderManagementSystem system=system(4,10);
+        this.tracker=new DemandTracker(system,PERIOD_MILLIS,DemandTracker.DEFAULT_WIDTH,8);
+        tracker.setPolicy(2,10,100);
+        place(system,products.get(0),40);
+        place(system,products.get(1),10);
+        place(system,products.get(2),1000);
+        //nothing until a full period has been seen
+        assertTrue(tracker.suggestDefaultLevels().isEmpty());
+        system.discontinueItem(products.get(1));
+        tracker.endPeriod();
+        //40 units settle at 20 after a period, which is a period's sales, times 2 periods of cover. The
+        //third product is held to the maximum, the second is discontinued and the fourth didn't sell
+        Map<Product, Integer> expected=new HashMap<>();
+        expected.put(products.get(0),20);
+        expected.put(products.get(2),100);
+        assertEquals(expected,tracker.suggestDefaultLevels());
+        assertEquals(2,tracker.applySuggestions());
+        assertEquals(20,system.warehouse.getDefaultStockLevel(1,-1));
+        assertEquals(100,system.warehouse.getDefaultStockLevel(3,-1));
+        assertEquals(10,system.warehouse.getDefaultStockLevel(4,-1));
+        assertTrue(tracker.suggestDefaultLevels().isEmpty());
+        assertEquals(Arrays.asList(products.get(2),products.get(0),products.get(1)),tracker.getHotProducts());
+    }
+
+    @Test
+    public void autoApplySetsLevelsAtTheEndOfAPeriod() {
+        OrderManagementSystem system=system(2,10);
+        this.tracker=new DemandTracker(system,PERIOD_MILLIS,DemandTracker.DEFAULT_WIDTH,8);
+        tracker.setAutoApply(true);
+        place(system,products.get(0),100);
+        tracker.endPeriod();
+        //suggestions are worked out before the counts are halved, so an estimate of 100 gives 100
+        assertEquals(100,system.warehouse.getDefaultStockLevel(1,-1));
+        assertEquals(10,system.warehouse.getDefaultStockLevel(2,-1));
+    }
+
+    private OrderManagementSystem system(int productCount, int level) {
+        for(int i=1;i<=productCount;i++) {
+            products.add(new Product("p"+i,1.0,i));
+        }
+        return new OrderManagementSystem(new HashSet<>(products),level,new HashSet<>());
+    }
+
+    private static void place(OrderManagementSystem system, Product product, int quantity) {
+        Order order=new Order();
+        order.addToOrder(product,quantity);
+        system.placeOrder(order);
+    }
+}
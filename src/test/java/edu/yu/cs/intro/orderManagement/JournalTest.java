@@ -0,0 +1,150 @@
+package edu.yu.cs.intro.orderManagement;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Replaying a journal into a freshly built system brings back the journaled one, and a torn or corrupted
+ tail ends the replay at the last record that checks out
+ */
+public class JournalTest {
+    private static final int HEADER=8;
+    @TempDir
+    Path directory;
+    private final Systems systems=new Systems(30,6);
+
+    @Test
+    public void replayRestoresTheJournaledSystem() throws IOException {
+        for(long seed=0;seed<40;seed++) {
+            Path dir=Files.createDirectory(directory.resolve("seed"+seed));
+            Random random=new Random(seed);
+            OrderManagementSystem original=systems.build(seed);
+            //small segments in some runs, so records span several files
+            int segmentSize=random.nextBoolean()?1024:1<<20;
+            Journal journal=Journal.open(dir,segmentSize,random.nextBoolean());
+            original.setJournal(journal);
+            for(int part=0;part<3;part++) {
+                systems.drive(original,random,20+random.nextInt(60));
+                //reopening starts a new segment
+                journal.close();
+                journal=Journal.open(dir,segmentSize,random.nextBoolean());
+                original.setJournal(journal);
+            }
+            journal.close();
+            original.setJournal(null);
+            OrderManagementSystem recovered=systems.build(seed);
+            assertTrue(Journal.replay(dir,recovered)>0);
+            systems.assertSameState(original,recovered);
+        }
+    }
+
+    @Test
+    public void replayStopsAtATruncatedRecord() throws IOException {
+        Path segment=journalOrders(5);
+        List<Integer> starts=recordStarts(segment);
+        int last=starts.get(starts.size()-1);
+        try(FileChannel channel=FileChannel.open(segment,StandardOpenOption.WRITE)) {
+            channel.truncate(last+HEADER+3);
+        }
+        assertEquals(6,stockAfterReplay());
+    }
+
+    @Test
+    public void replayStopsAtACorruptedRecord() throws IOException {
+        Path segment=journalOrders(5);
+        List<Integer> starts=recordStarts(segment);
+        flipByte(segment,starts.get(3)+HEADER+2);
+        //the fourth order and everything after it is dropped
+        assertEquals(7,stockAfterReplay());
+    }
+
+    @Test
+    public void replayStopsAtAZeroedLength() throws IOException {
+        Path segment=journalOrders(5);
+        List<Integer> starts=recordStarts(segment);
+        try(FileChannel channel=FileChannel.open(segment,StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4),starts.get(4));
+        }
+        assertEquals(6,stockAfterReplay());
+    }
+
+    @Test
+    public void segmentWrittenAfterATornTailIsStillReplayed() throws IOException {
+        Path segment=journalOrders(5);
+        List<Integer> starts=recordStarts(segment);
+        flipByte(segment,starts.get(4)+HEADER+2);
+        OrderManagementSystem system=singleProductSystem();
+        Journal.replay(directory,system);
+        Journal journal=Journal.open(directory);
+        system.setJournal(journal);
+        placeOrders(system,2);
+        journal.close();
+        system.setJournal(null);
+        assertEquals(4,system.warehouse.getStockLevel(1));
+        assertEquals(4,stockAfterReplay());
+    }
+
+    @Test
+    public void replayIntoAJournalingSystemIsRefused() {
+        OrderManagementSystem system=singleProductSystem();
+        Journal journal=Journal.open(directory);
+        system.setJournal(journal);
+        assertThrows(IllegalStateException.class,()->Journal.replay(directory,system));
+        journal.close();
+    }
+
+    /**
+     * Journal the given number of orders, each taking one unit of a product stocked at 10
+     * @return the segment they were written to
+     */
+    private Path journalOrders(int count) throws IOException {
+        OrderManagementSystem system=singleProductSystem();
+        Journal journal=Journal.open(directory);
+        system.setJournal(journal);
+        placeOrders(system,count);
+        journal.close();
+        try(DirectoryStream<Path> files=Files.newDirectoryStream(directory)) {
+            return files.iterator().next();
+        }
+    }
+
+    private static OrderManagementSystem singleProductSystem() {
+        return new OrderManagementSystem(new HashSet<>(Collections.singleton(new Product("p",1.0,1))),10,new HashSet<>());
+    }
+
+    private static void placeOrders(OrderManagementSystem system, int count) {
+        for(int i=0;i<count;i++) {
+            Order order=new Order();
+            order.addToOrder(new Product("p",1.0,1),1);
+            system.placeOrder(order);
+        }
+    }
+
+    private int stockAfterReplay() {
+        OrderManagementSystem system=singleProductSystem();
+        Journal.replay(directory,system);
+        return system.warehouse.getStockLevel(1);
+    }
+
+    /**
+     * @return where each record in the segment starts, following the length of every record
+     */
+    private static List<Integer> recordStarts(Path segment) throws IOException {
+        ByteBuffer in=ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> starts=new ArrayList<>();
+        for(int at=0;at+HEADER<=in.limit()&&in.getInt(at)>0;at+=HEADER+in.getInt(at)) {
+            starts.add(at);
+        }
+        return starts;
+    }
+
+    private static void flipByte(Path file, int position) throws IOException {
+        byte[] bytes=Files.readAllBytes(file);
+        bytes[position]^=0x5A;
+        Files.write(file,bytes);
+    }
+}
@@ -0,0 +1,150 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * The history keeps every accepted order, and its queries answer what a scan over all the records does
+ */
+public class OrderHistoryTest {
+    private final Systems systems=new Systems(30,6);
+
+    @Test
+    public void recordsAreTheAcceptedOrders() {
+        Random random=new Random(24);
+        OrderManagementSystem system=systems.build(24);
+        //small segments, so records and postings span many of them
+        system.setHistory(new OrderHistory(1024));
+        List<Order> accepted=new ArrayList<>();
+        for(int n=0;n<500;n++) {
+            Order order=systems.order(random);
+            if(system.tryPlaceOrder(order)==OrderOutcome.ACCEPTED) {
+                accepted.add(order);
+            }
+        }
+        List<OrderRecord> records=system.history.orders(Long.MIN_VALUE,Long.MAX_VALUE).collect(Collectors.toList());
+        assertFalse(accepted.isEmpty());
+        assertEquals(accepted.size(),system.history.size());
+        assertEquals(accepted.size(),records.size());
+        long last=Long.MIN_VALUE;
+        for(int i=0;i<records.size();i++) {
+            OrderRecord record=records.get(i);
+            Order order=accepted.get(i);
+            //one thread placing orders appends them in sequence order
+            assertTrue(record.getSequence()>last);
+            last=record.getSequence();
+            Map<Integer, Integer> products=new HashMap<>();
+            for(int line=0;line<order.productLineCount();line++) {
+                products.merge(order.productNumberAt(line),order.productQuantityAt(line),Integer::sum);
+            }
+            Map<Integer, Integer> services=new HashMap<>();
+            int providers=0;
+            for(int line=0;line<order.serviceLineCount();line++) {
+                services.merge(order.serviceNumberAt(line),order.serviceQuantityAt(line),Integer::sum);
+                providers+=order.serviceQuantityAt(line);
+            }
+            assertEquals(products,productsOf(record),"record "+i);
+            assertEquals(services,servicesOf(record),"record "+i);
+            assertEquals(providers,record.getProviderIds().length,"record "+i);
+            for(int id: record.getProviderIds()) {
+                Set<Integer> offered=new HashSet<>();
+                for(Service s:system.getServiceProvider(id).services) {
+                    offered.add(s.getItemNumber());
+                }
+                offered.retainAll(services.keySet());
+                assertFalse(offered.isEmpty(),"provider "+id+" of record "+i);
+            }
+        }
+    }
+
+    @Test
+    public void queriesMatchAScanOfEveryRecord() {
+        for(long seed=0;seed<10;seed++) {
+            Random random=new Random(seed);
+            OrderManagementSystem system=systems.build(seed);
+            system.setHistory(new OrderHistory(1024));
+            //queries between orders, so the postings lists are caught up a bit at a time
+            for(int part=0;part<4;part++) {
+                systems.drive(system,random,50+random.nextInt(100));
+                List<OrderRecord> records=system.history.orders(Long.MIN_VALUE,Long.MAX_VALUE).collect(Collectors.toList());
+                long from=1+random.nextInt((int)system.schedule.getSequence()+1);
+                long to=from+random.nextInt(100);
+                for(Product p:systems.products) {
+                    int n=p.getItemNumber();
+                    List<Long> expected=new ArrayList<>();
+                    long units=0;
+                    for(OrderRecord record:records) {
+                        Integer quantity=productsOf(record).get(n);
+                        if(quantity!=null) {
+                            expected.add(record.getSequence());
+                            units+=record.getSequence()>=from&&record.getSequence()<=to?quantity:0;
+                        }
+                    }
+                    assertEquals(expected,boxed(system.history.ordersWithProduct(n).toArray()),"orders with "+n);
+                    assertEquals(units,system.history.unitsSold(n,from,to),"units of "+n);
+                }
+                for(Service s:systems.services) {
+                    int n=s.getItemNumber();
+                    List<Long> expected=new ArrayList<>();
+                    long units=0;
+                    for(OrderRecord record:records) {
+                        Integer quantity=servicesOf(record).get(n);
+                        if(quantity!=null) {
+                            expected.add(record.getSequence());
+                            units+=record.getSequence()>=from&&record.getSequence()<=to?quantity:0;
+                        }
+                    }
+                    assertEquals(expected,boxed(system.history.ordersWithService(n).toArray()),"orders with "+n);
+                    assertEquals(units,system.history.serviceUnitsSold(n,from,to),"units of "+n);
+                }
+                for(ServiceProvider sp:system.serviceProviders) {
+                    List<Long> expected=new ArrayList<>();
+                    long count=0;
+                    for(OrderRecord record:records) {
+                        boolean served=false;
+                        for(int id: record.getProviderIds()) {
+                            served|=id==sp.getId();
+                        }
+                        if(served) {
+                            expected.add(record.getSequence());
+                            count+=record.getSequence()>=from&&record.getSequence()<=to?1:0;
+                        }
+                    }
+                    assertEquals(expected,boxed(system.history.ordersServedBy(sp.getId()).toArray()),"orders served by "+sp.getId());
+                    assertEquals(count,system.history.countOrdersServedBy(sp.getId(),from,to),"orders served by "+sp.getId());
+                }
+                List<Long> inRange=new ArrayList<>();
+                for(OrderRecord record:records) {
+                    if(record.getSequence()>=from&&record.getSequence()<=to) {
+                        inRange.add(record.getSequence());
+                    }
+                }
+                assertEquals(inRange,system.history.orders(from,to).map(OrderRecord::getSequence).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    private static Map<Integer, Integer> productsOf(OrderRecord record) {
+        Map<Integer, Integer> products=new HashMap<>();
+        for(int line=0;line<record.productLineCount();line++) {
+            products.merge(record.productNumberAt(line),record.productQuantityAt(line),Integer::sum);
+        }
+        return products;
+    }
+
+    private static Map<Integer, Integer> servicesOf(OrderRecord record) {
+        Map<Integer, Integer> services=new HashMap<>();
+        for(int line=0;line<record.serviceLineCount();line++) {
+            services.merge(record.serviceNumberAt(line),record.serviceQuantityAt(line),Integer::sum);
+        }
+        return services;
+    }
+
+    private static List<Long> boxed(long[] values) {
+        List<Long> list=new ArrayList<>();
+        for(long v:values) {
+            list.add(v);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,231 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * The sequencer applies one producer's orders in the order they were submitted, holds producers back when the
+ ring is full, places everything submitted before it closes, and fails only the orders a failed batch didn't
+ apply. While it runs, orders and changes made on the system from other threads go through it, and an error
+ stops it for good.
+ */
+public class OrderSequencerTest {
+    private final Product product=new Product("p",1.0,1);
+
+    @Test
+    public void ordersFromOneProducerAreAppliedInTheOrderSubmitted() throws Exception {
+        for(OrderSequencer.WaitStrategy strategy:OrderSequencer.WaitStrategy.values()) {
+            //stock that can't be restocked, so the first 50 orders take it all and the rest are turned down
+            OrderManagementSystem system=system(50);
+            system.warehouse.doNotRestock(1);
+            List<Order> orders=new ArrayList<>();
+            List<CompletableFuture<OrderOutcome>> futures=new ArrayList<>();
+            try(OrderSequencer sequencer=new OrderSequencer(system,16,4,strategy)) {
+                for(int n=0;n<80;n++) {
+                    orders.add(order(1));
+                    futures.add(sequencer.submit(orders.get(n)));
+                }
+            }
+            for(int n=0;n<80;n++) {
+                OrderOutcome expected=n<50?OrderOutcome.ACCEPTED:OrderOutcome.OUT_OF_STOCK;
+                assertEquals(expected,futures.get(n).get(),strategy+" order "+n);
+                assertEquals(n<50,orders.get(n).isCompleted());
+            }
+            assertEquals(0,system.warehouse.getStockLevel(1));
+        }
+    }
+
+    @Test
+    public void fullRingHoldsBackProducers() throws Exception {
+        CountDownLatch gate=new CountDownLatch(1);
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),1000,new HashSet<>()) {
+            @Override
+            protected void placeOrders(List<Order> orders, OrderOutcome[] outcomes) {
+                try {
+                    gate.await();
+                }catch(InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.placeOrders(orders,outcomes);
+            }
+        };
+        OrderSequencer sequencer=new OrderSequencer(system,4,1,OrderSequencer.WaitStrategy.PARK);
+        List<CompletableFuture<OrderOutcome>> futures=new ArrayList<>();
+        //the first order holds up the sequencer, the ring takes three more behind it
+        for(int n=0;n<4;n++) {
+            futures.add(sequencer.submit(order(1)));
+        }
+        CompletableFuture<CompletableFuture<OrderOutcome>> fifth=CompletableFuture.supplyAsync(()->sequencer.submit(order(1)));
+        Thread.sleep(200);
+        assertFalse(fifth.isDone());
+        gate.countDown();
+        futures.add(fifth.get(10,TimeUnit.SECONDS));
+        sequencer.close();
+        for(CompletableFuture<OrderOutcome> future:futures) {
+            assertEquals(OrderOutcome.ACCEPTED,future.get());
+        }
+        assertEquals(995,system.warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void closePlacesEverythingSubmittedBeforeIt() throws Exception {
+        int producers=4;
+        int perProducer=2000;
+        OrderManagementSystem system=system(1_000_000);
+        OrderSequencer sequencer=new OrderSequencer(system,64,16,OrderSequencer.WaitStrategy.PARK);
+        List<CompletableFuture<OrderOutcome>> futures=Collections.synchronizedList(new ArrayList<>());
+        ExecutorService pool=Executors.newFixedThreadPool(producers);
+        List<Future<?>> done=new ArrayList<>();
+        for(int p=0;p<producers;p++) {
+            done.add(pool.submit(()->{
+                for(int n=0;n<perProducer;n++) {
+                    futures.add(sequencer.submit(order(2)));
+                }
+            }));
+        }
+        for(Future<?> f:done) {
+            f.get();
+        }
+        pool.shutdown();
+        sequencer.close();
+        assertEquals(producers*perProducer,futures.size());
+        for(CompletableFuture<OrderOutcome> future:futures) {
+            assertTrue(future.isDone());
+            assertEquals(OrderOutcome.ACCEPTED,future.get());
+        }
+        assertEquals(1_000_000-2*producers*perProducer,system.warehouse.getStockLevel(1));
+        assertThrows(IllegalStateException.class,()->sequencer.submit(order(1)));
+        assertThrows(IllegalArgumentException.class,()->sequencer.submit(null));
+    }
+
+    @Test
+    public void failedBatchFailsOnlyTheOrdersItDidNotApply() throws Exception {
+        CountDownLatch entered=new CountDownLatch(1);
+        CountDownLatch gate=new CountDownLatch(1);
+        AtomicInteger calls=new AtomicInteger();
+        IllegalStateException failure=new IllegalStateException("disk full");
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),1000,new HashSet<>()) {
+            @Override
+            protected void placeOrders(List<Order> orders, OrderOutcome[] outcomes) {
+                int call=calls.incrementAndGet();
+                if(call==1) {
+                    entered.countDown();
+                    try {
+                        gate.await();
+                    }catch(InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                if(call==2) {
+                    //apply the first two of the batch, then fail
+                    super.placeOrders(orders.subList(0,2),outcomes);
+                    throw failure;
+                }
+                super.placeOrders(orders,outcomes);
+            }
+        };
+        OrderSequencer sequencer=new OrderSequencer(system,16,16,OrderSequencer.WaitStrategy.PARK);
+        CompletableFuture<OrderOutcome> first=sequencer.submit(order(1));
+        entered.await();
+        //these wait behind the first one, so the sequencer picks them up as one batch
+        List<CompletableFuture<OrderOutcome>> batch=new ArrayList<>();
+        for(int n=0;n<5;n++) {
+            batch.add(sequencer.submit(order(1)));
+        }
+        gate.countDown();
+        assertEquals(OrderOutcome.ACCEPTED,first.get(10,TimeUnit.SECONDS));
+        assertEquals(OrderOutcome.ACCEPTED,batch.get(0).get(10,TimeUnit.SECONDS));
+        assertEquals(OrderOutcome.ACCEPTED,batch.get(1).get(10,TimeUnit.SECONDS));
+        for(int n=2;n<5;n++) {
+            ExecutionException e=assertThrows(ExecutionException.class,batch.get(n)::get);
+            assertSame(failure,e.getCause());
+        }
+        //the sequencer carries on after a failed batch
+        assertEquals(OrderOutcome.ACCEPTED,sequencer.submit(order(1)).get(10,TimeUnit.SECONDS));
+        sequencer.close();
+        assertEquals(996,system.warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void ordersAndChangesFromOtherThreadsGoThroughTheSequencer() throws Exception {
+        Set<String> placedOn=Collections.synchronizedSet(new HashSet<>());
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),10,new HashSet<>()) {
+            @Override
+            protected void placeOrders(List<Order> orders, OrderOutcome[] outcomes) {
+                placedOn.add(Thread.currentThread().getName());
+                super.placeOrders(orders,outcomes);
+            }
+        };
+        OrderSequencer sequencer=new OrderSequencer(system,16,4,OrderSequencer.WaitStrategy.PARK);
+        assertThrows(IllegalStateException.class,()->new OrderSequencer(system,16,4,OrderSequencer.WaitStrategy.PARK));
+        Order first=order(4);
+        system.placeOrder(first);
+        assertTrue(first.isCompleted());
+        system.discontinueItem(product);
+        //discontinued, so there is no restocking past the 6 left
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(order(7)));
+        system.placeOrder(order(6));
+        assertEquals(Collections.singleton("order-sequencer"),placedOn);
+        sequencer.close();
+        //the system is the caller's again once the sequencer is closed
+        assertEquals(OrderOutcome.OUT_OF_STOCK,system.tryPlaceOrder(order(1)));
+        new OrderSequencer(system,16,4,OrderSequencer.WaitStrategy.PARK).close();
+    }
+
+    @Test
+    public void errorStopsTheSequencerAndFailsEverythingItDidNotApply() throws Exception {
+        CountDownLatch entered=new CountDownLatch(1);
+        CountDownLatch gate=new CountDownLatch(1);
+        AtomicInteger calls=new AtomicInteger();
+        AssertionError failure=new AssertionError("corrupted");
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),1000,new HashSet<>()) {
+            @Override
+            protected void placeOrders(List<Order> orders, OrderOutcome[] outcomes) {
+                int call=calls.incrementAndGet();
+                if(call==1) {
+                    entered.countDown();
+                    try {
+                        gate.await();
+                    }catch(InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                if(call==2) {
+                    throw failure;
+                }
+                super.placeOrders(orders,outcomes);
+            }
+        };
+        OrderSequencer sequencer=new OrderSequencer(system,16,16,OrderSequencer.WaitStrategy.PARK);
+        CompletableFuture<OrderOutcome> first=sequencer.submit(order(1));
+        entered.await();
+        List<CompletableFuture<OrderOutcome>> failed=new ArrayList<>();
+        for(int n=0;n<5;n++) {
+            failed.add(sequencer.submit(order(1)));
+        }
+        gate.countDown();
+        assertEquals(OrderOutcome.ACCEPTED,first.get(10,TimeUnit.SECONDS));
+        for(CompletableFuture<OrderOutcome> future:failed) {
+            ExecutionException e=assertThrows(ExecutionException.class,()->future.get(10,TimeUnit.SECONDS));
+            assertSame(failure,e.getCause());
+        }
+        sequencer.close();
+        assertSame(failure,sequencer.getFailure());
+        IllegalStateException refused=assertThrows(IllegalStateException.class,()->sequencer.submit(order(1)));
+        assertSame(failure,refused.getCause());
+        //the failed sequencer no longer owns the system
+        assertEquals(OrderOutcome.ACCEPTED,system.tryPlaceOrder(order(1)));
+        assertEquals(998,system.warehouse.getStockLevel(1));
+    }
+
+    private OrderManagementSystem system(int level) {
+        return new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),level,new HashSet<>());
+    }
+
+    private Order order(int quantity) {
+        Order order=new Order();
+        order.addToOrder(product,quantity);
+        return order;
+    }
+}
@@ -0,0 +1,122 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Placing a batch gives every order the same outcome as placing the orders one at a time
+ */
+public class PlaceOrdersTest {
+    private static final int PRODUCTS=12;
+    private static final int SERVICES=4;
+    private final List<Product> products=new ArrayList<>();
+    private final List<Service> services=new ArrayList<>();
+
+    public PlaceOrdersTest() {
+        for(int i=1;i<=PRODUCTS;i++) {
+            products.add(new Product("p"+i,1.5,i));
+        }
+        for(int i=1;i<=SERVICES;i++) {
+            services.add(new Service(2.5,2,100+i,"s"+i));
+        }
+    }
+
+    @Test
+    public void batchMatchesSequentialPlacement() {
+        for(long seed=0;seed<50;seed++) {
+            OrderManagementSystem sequential=system(seed);
+            OrderManagementSystem batched=system(seed);
+            Random random=new Random(seed);
+            for(int round=0;round<10;round++) {
+                int size=1+random.nextInt(20);
+                long ordersSeed=random.nextLong();
+                List<Order> one=orders(new Random(ordersSeed),size);
+                List<Order> other=orders(new Random(ordersSeed),size);
+                OrderOutcome[] outcomes=batched.placeOrders(other);
+                for(int n=0;n<size;n++) {
+                    assertEquals(placeOne(sequential,one.get(n)),kindOf(outcomes[n]),"seed "+seed+" round "+round+" order "+n);
+                    assertEquals(one.get(n).isCompleted(),other.get(n).isCompleted());
+                }
+                assertSameState(sequential,batched,"seed "+seed+" round "+round);
+            }
+        }
+    }
+
+    @Test
+    public void emptyBatchDoesNothing() {
+        OrderManagementSystem system=system(1);
+        assertEquals(0,system.placeOrders(new ArrayList<>()).length);
+        assertEquals(3,system.warehouse.getStockLevel(1));
+    }
+
+    /**
+     * @return how placeOrder took the order: accepted, or turned down for a service or for a product
+     */
+    private static String placeOne(OrderManagementSystem system, Order order) {
+        try {
+            system.placeOrder(order);
+            return "accepted";
+        }catch(IllegalStateException e) {
+            return "service";
+        }catch(IllegalArgumentException e) {
+            return "product";
+        }
+    }
+
+    private static String kindOf(OrderOutcome outcome) {
+        switch(outcome) {
+            case ACCEPTED:
+                return "accepted";
+            case UNKNOWN_SERVICE:
+            case NO_FREE_PROVIDER:
+                return "service";
+            default:
+                return "product";
+        }
+    }
+
+    private OrderManagementSystem system(long seed) {
+        Random random=new Random(seed);
+        Set<ServiceProvider> providers=new HashSet<>();
+        for(int id=1;id<=5;id++) {
+            Set<Service> offered=new HashSet<>();
+            for(int k=1+random.nextInt(2);k>0;k--) {
+                offered.add(services.get(random.nextInt(SERVICES)));
+            }
+            providers.add(new ServiceProvider("sp"+id,id,offered));
+        }
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(products.subList(0,PRODUCTS-2)),3,providers);
+        system.discontinueItem(products.get(0));
+        return system;
+    }
+
+    /**
+     * Orders of up to four lines, some for products outside the catalog or that can't be restocked
+     */
+    private List<Order> orders(Random random, int count) {
+        List<Order> orders=new ArrayList<>();
+        for(int n=0;n<count;n++) {
+            Order order=new Order();
+            for(int lines=1+random.nextInt(4);lines>0;lines--) {
+                if(random.nextInt(3)==0) {
+                    order.addToOrder(services.get(random.nextInt(SERVICES)),1+random.nextInt(2));
+                }
+                else {
+                    order.addToOrder(products.get(random.nextInt(PRODUCTS)),1+random.nextInt(6));
+                }
+            }
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    private void assertSameState(OrderManagementSystem expected, OrderManagementSystem actual, String where) {
+        for(Product p:products) {
+            assertEquals(expected.warehouse.getStockLevel(p.getItemNumber()),actual.warehouse.getStockLevel(p.getItemNumber()),
+                    where+" stock of "+p.getItemNumber());
+        }
+        for(Service s:services) {
+            assertEquals(expected.freeProviders.available(s),actual.freeProviders.available(s),where+" providers of "+s.getItemNumber());
+        }
+        assertEquals(expected.schedule.getSequence(),actual.schedule.getSequence(),where+" sequence");
+    }
+}
@@ -0,0 +1,141 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Staffing an order finds an assignment of free providers whenever there is one, including where handing
+ each service the first free provider of it would leave a later service without anyone
+ */
+public class ProviderMatchingTest {
+    private final Service s1=new Service(10.0,1,201,"s1");
+    private final Service s2=new Service(10.0,1,202,"s2");
+    private final Service s3=new Service(10.0,1,203,"s3");
+
+    @Test
+    public void providerOfBothServicesIsMovedToTheOneOnlyItOffers() {
+        ServiceProvider both=new ServiceProvider("both",1,new HashSet<>(Arrays.asList(s1,s2)));
+        ServiceProvider onlyFirst=new ServiceProvider("only s1",2,new HashSet<>(Collections.singleton(s1)));
+        ProviderPools pools=new ProviderPools();
+        //both is first in the pool for s1, so greedily it would be used up there
+        pools.addMember(s1,both);
+        pools.addMember(s2,both);
+        pools.addMember(s1,onlyFirst);
+        pools.startAssignment();
+        assertTrue(pools.assign(s1,1));
+        assertTrue(pools.assign(s2,1));
+        assertEquals(2,pools.assignedCount());
+        assertSame(onlyFirst,pools.assignedAt(0));
+        assertSame(both,pools.assignedAt(1));
+        pools.takeAssigned();
+        assertEquals(0,pools.available(s1));
+        assertEquals(0,pools.available(s2));
+    }
+
+    @Test
+    public void chainOfMovesIsFound() {
+        //s3 can only get a provider once the one offering s2 and s3 hands s2 to the one offering s1 and s2
+        ServiceProvider a=new ServiceProvider("a",1,new HashSet<>(Arrays.asList(s1,s2)));
+        ServiceProvider b=new ServiceProvider("b",2,new HashSet<>(Arrays.asList(s2,s3)));
+        ServiceProvider c=new ServiceProvider("c",3,new HashSet<>(Collections.singleton(s1)));
+        ProviderPools pools=new ProviderPools();
+        pools.addMember(s1,a);
+        pools.addMember(s2,a);
+        pools.addMember(s2,b);
+        pools.addMember(s3,b);
+        pools.addMember(s1,c);
+        pools.startAssignment();
+        assertTrue(pools.assign(s1,1));
+        assertTrue(pools.assign(s2,1));
+        assertTrue(pools.assign(s3,1));
+        assertSame(c,pools.assignedAt(0));
+        assertSame(a,pools.assignedAt(1));
+        assertSame(b,pools.assignedAt(2));
+    }
+
+    @Test
+    public void orderIsAcceptedWheneverItsProvidersCanBeMatched() {
+        ServiceProvider both=new ServiceProvider("both",1,new HashSet<>(Arrays.asList(s1,s2)));
+        ServiceProvider onlyFirst=new ServiceProvider("only s1",2,new HashSet<>(Collections.singleton(s1)));
+        OrderManagementSystem system=new OrderManagementSystem(new HashSet<>(),3,
+                new HashSet<>(Arrays.asList(both,onlyFirst)));
+        Order order=new Order();
+        order.addToOrder(s1,1);
+        order.addToOrder(s2,1);
+        assertEquals(OrderOutcome.ACCEPTED,system.tryPlaceOrder(order));
+        assertFalse(both.isAvailable());
+        assertFalse(onlyFirst.isAvailable());
+    }
+
+    @Test
+    public void assignmentSucceedsExactlyWhenOneExists() {
+        List<Service> services=Arrays.asList(s1,s2,s3);
+        Random random=new Random(6);
+        int turnedDown=0;
+        for(int n=0;n<2000;n++) {
+            List<ServiceProvider> providers=new ArrayList<>();
+            ProviderPools pools=new ProviderPools();
+            int count=1+random.nextInt(6);
+            for(int id=1;id<=count;id++) {
+                Set<Service> offered=new HashSet<>();
+                for(Service s:services) {
+                    if(random.nextInt(2)==0) {
+                        offered.add(s);
+                    }
+                }
+                ServiceProvider provider=new ServiceProvider("p"+id,id,offered);
+                providers.add(provider);
+                for(Service s:offered) {
+                    pools.addMember(s,provider);
+                }
+            }
+            int[] amounts=new int[services.size()];
+            for(int i=0;i<amounts.length;i++) {
+                amounts[i]=random.nextInt(3);
+            }
+            boolean staffed=true;
+            pools.startAssignment();
+            for(int i=0;i<services.size()&&staffed;i++) {
+                staffed=pools.assign(services.get(i),amounts[i]);
+            }
+            assertEquals(canStaff(providers,services,amounts,0,new int[amounts.length]),staffed,"case "+n);
+            if(!staffed) {
+                turnedDown++;
+                continue;
+            }
+            //every provider assigned offers its service, and none is assigned twice
+            Set<ServiceProvider> seen=new HashSet<>();
+            int slot=0;
+            for(int i=0;i<services.size();i++) {
+                for(int k=0;k<amounts[i];k++,slot++) {
+                    ServiceProvider provider=pools.assignedAt(slot);
+                    assertTrue(provider.services.contains(services.get(i)),"case "+n);
+                    assertTrue(seen.add(provider),"case "+n);
+                }
+            }
+        }
+        assertTrue(turnedDown>0);
+    }
+
+    /**
+     * brute force: try every way of giving each provider one of the services or none
+     */
+    private static boolean canStaff(List<ServiceProvider> providers, List<Service> services, int[] amounts, int next, int[] filled) {
+        if(next==providers.size()) {
+            return Arrays.equals(amounts,filled);
+        }
+        if(canStaff(providers,services,amounts,next+1,filled)) {
+            return true;
+        }
+        for(int i=0;i<services.size();i++) {
+            if(filled[i]<amounts[i]&&providers.get(next).services.contains(services.get(i))) {
+                filled[i]++;
+                boolean found=canStaff(providers,services,amounts,next+1,filled);
+                filled[i]--;
+                if(found) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Providers are taken out of their service's pool when an order is accepted, and only then, and every
+ provider can be found by id
+ */
+public class ProviderPoolsTest {
+    private Product product;
+    private Service service;
+    private ServiceProvider first;
+    private ServiceProvider second;
+    private OrderManagementSystem system;
+
+    @BeforeEach
+    public void setUp() {
+        this.product=new Product("p",1.0,1);
+        this.service=new Service(10.0,2,100,"s");
+        this.first=new ServiceProvider("a",1,new HashSet<>(Collections.singleton(service)));
+        this.second=new ServiceProvider("b",2,new HashSet<>(Collections.singleton(service)));
+        this.system=new OrderManagementSystem(new HashSet<>(Collections.singleton(product)),3,
+                new HashSet<>(Arrays.asList(first,second)));
+    }
+
+    @Test
+    public void orderRejectedForAProductHandsBackItsProviders() {
+        Order order=new Order();
+        order.addToOrder(service,2);
+        order.addToOrder(new Product("unknown",1.0,99),1);
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(order));
+        assertEquals(2,system.freeProviders.available(service));
+        assertTrue(first.isAvailable());
+        assertTrue(second.isAvailable());
+    }
+
+    @Test
+    public void orderNeedingMoreProvidersThanAreFreeTakesNone() {
+        Order order=new Order();
+        order.addToOrder(service,3);
+        assertThrows(IllegalStateException.class,()->system.placeOrder(order));
+        assertEquals(2,system.freeProviders.available(service));
+        assertTrue(first.isAvailable());
+        assertTrue(second.isAvailable());
+    }
+
+    @Test
+    public void acceptedOrderKeepsItsProviderForThreeMoreOrders() {
+        Order order=new Order();
+        order.addToOrder(service,1);
+        system.placeOrder(order);
+        for(int i=0;i<3;i++) {
+            assertEquals(1,system.freeProviders.available(service));
+            Order other=new Order();
+            other.addToOrder(product,1);
+            system.placeOrder(other);
+        }
+        assertEquals(2,system.freeProviders.available(service));
+        assertTrue(first.isAvailable()&&second.isAvailable());
+    }
+
+    @Test
+    public void busyProviderIsSkippedForAnotherOrder() {
+        Order order=new Order();
+        order.addToOrder(service,1);
+        system.placeOrder(order);
+        Order next=new Order();
+        next.addToOrder(service,1);
+        system.placeOrder(next);
+        assertEquals(0,system.freeProviders.available(service));
+        assertFalse(first.isAvailable()||second.isAvailable());
+        Order third=new Order();
+        third.addToOrder(service,1);
+        assertThrows(IllegalStateException.class,()->system.placeOrder(third));
+    }
+
+    @Test
+    public void everyProviderIsFoundById() {
+        ServiceProvider idle=new ServiceProvider("c",3,new HashSet<>());
+        system.addServiceProvider(idle);
+        assertSame(first,system.getServiceProvider(1));
+        assertSame(second,system.getServiceProvider(2));
+        //offers nothing, so it isn't in any pool
+        assertSame(idle,system.getServiceProvider(3));
+        assertNull(system.getServiceProvider(4));
+    }
+}
@@ -0,0 +1,100 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Products an order takes below their watermark are restocked in the background, discontinued ones never are,
+ and the counters tell background restocks from the ones orders had to make themselves
+ */
+public class ReplenisherTest {
+    private static final int LEVEL=10;
+    private final Product p1=new Product("p1",1.0,1);
+    private final Product p2=new Product("p2",1.0,2);
+    private OrderManagementSystem system;
+    private Replenisher replenisher;
+
+    @BeforeEach
+    public void setUp() {
+        this.system=new OrderManagementSystem(new HashSet<>(Arrays.asList(p1,p2)),LEVEL,new HashSet<>());
+        this.replenisher=new Replenisher(system,5);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        replenisher.close();
+    }
+
+    @Test
+    public void productBelowItsWatermarkIsRestockedInTheBackground() throws InterruptedException {
+        replenisher.setWatermark(p1,5,20);
+        place(p1,6);
+        awaitStock(p1,24);
+        assertEquals(1,replenisher.getLinesTaken());
+        assertEquals(1,replenisher.getBackgroundRestocks());
+        assertEquals(20,replenisher.getBackgroundUnits());
+        assertEquals(1,replenisher.getPasses());
+        assertEquals(0,replenisher.getInlineRestocks());
+        //more than there is, so the order restocks inline and leaves nothing, which is below the watermark again
+        place(p1,30);
+        assertEquals(1,replenisher.getInlineRestocks());
+        assertTrue(replenisher.getInlineUnits()>=6);
+        assertEquals(0.5,replenisher.getInlineRestockRate());
+        awaitStock(p1,20);
+        assertEquals(2,replenisher.getBackgroundRestocks());
+        assertEquals(40,replenisher.getBackgroundUnits());
+        //above the watermark, so not flagged
+        place(p1,2);
+        Thread.sleep(50);
+        assertEquals(18,system.warehouse.getStockLevel(1));
+        assertEquals(2,replenisher.getBackgroundRestocks());
+    }
+
+    @Test
+    public void settingAWatermarkFlagsAProductAlreadyBelowIt() throws InterruptedException {
+        place(p1,8);
+        assertEquals(2,system.warehouse.getStockLevel(1));
+        //the reorder quantity alone would leave it below the watermark
+        replenisher.setWatermark(p1,9,3);
+        awaitStock(p1,9);
+    }
+
+    @Test
+    public void defaultWatermarkCoversProductsWithoutTheirOwn() throws InterruptedException {
+        replenisher.setDefaultWatermark(5,20);
+        replenisher.setWatermark(p1,0,0);
+        place(p1,8);
+        place(p2,8);
+        awaitStock(p2,22);
+        assertEquals(2,system.warehouse.getStockLevel(1));
+        assertEquals(1,replenisher.getBackgroundRestocks());
+    }
+
+    @Test
+    public void discontinuedProductIsNeverRestocked() throws InterruptedException {
+        system.discontinueItem(p1);
+        place(p1,8);
+        replenisher.setWatermark(p1,5,20);
+        //p2 is flagged after p1, so once it is restocked a pass has been through p1 too
+        place(p2,8);
+        replenisher.setWatermark(p2,5,20);
+        awaitStock(p2,22);
+        assertEquals(2,system.warehouse.getStockLevel(1));
+        assertEquals(1,replenisher.getBackgroundRestocks());
+    }
+
+    private void place(Product product, int quantity) {
+        Order order=new Order();
+        order.addToOrder(product,quantity);
+        system.placeOrder(order);
+    }
+
+    private void awaitStock(Product product, int level) throws InterruptedException {
+        long deadline=System.nanoTime()+10_000_000_000L;
+        while(system.warehouse.getStockLevel(product.getItemNumber())!=level&&System.nanoTime()<deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(level,system.warehouse.getStockLevel(product.getItemNumber()),"stock of "+product.getItemNumber());
+    }
+}
@@ -0,0 +1,100 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * An order that is turned down part way leaves the stock as it found it, apart from restocking
+ */
+public class ReservationTest {
+    private Product p1;
+    private Product p2;
+    private Product unknown;
+    private OrderManagementSystem system;
+
+    @BeforeEach
+    public void setUp() {
+        this.p1=new Product("p1",1.0,1);
+        this.p2=new Product("p2",2.0,2);
+        this.unknown=new Product("unknown",3.0,99);
+        this.system=new OrderManagementSystem(new HashSet<>(Arrays.asList(p1,p2)),3,new HashSet<>());
+    }
+
+    @Test
+    public void acceptedOrderTakesStock() {
+        Order order=new Order();
+        order.addToOrder(p1,2);
+        system.placeOrder(order);
+        assertTrue(order.isCompleted());
+        assertEquals(1,system.warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void rejectedOrderHandsBackStockOfEveryLine() {
+        Order order=new Order();
+        order.addToOrder(p1,2);
+        order.addToOrder(p2,3);
+        order.addToOrder(unknown,1);
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(order));
+        assertFalse(order.isCompleted());
+        assertEquals(3,system.warehouse.getStockLevel(1));
+        assertEquals(3,system.warehouse.getStockLevel(2));
+    }
+
+    @Test
+    public void abortAfterReservingProductsRestoresStock() {
+        Order order=new Order();
+        order.addToOrder(p1,1);
+        order.addToOrder(p2,2);
+        OrderReservation reservation=new OrderReservation();
+        assertEquals(OrderOutcome.ACCEPTED,system.reserveProducts(order,reservation));
+        assertEquals(2,system.warehouse.getStockLevel(1));
+        assertEquals(1,system.warehouse.getStockLevel(2));
+        system.abort(reservation);
+        assertEquals(3,system.warehouse.getStockLevel(1));
+        assertEquals(3,system.warehouse.getStockLevel(2));
+    }
+
+    @Test
+    public void restockingDoneForAnAbortedReservationStays() {
+        Order order=new Order();
+        order.addToOrder(p1,5);
+        OrderReservation reservation=new OrderReservation();
+        assertEquals(OrderOutcome.ACCEPTED,system.reserveProducts(order,reservation));
+        assertEquals(0,system.warehouse.getStockLevel(1));
+        system.abort(reservation);
+        assertEquals(5,system.warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void productsAreCheckedBeforeAnyAreTaken() {
+        Order order=new Order();
+        order.addToOrder(p1,5);
+        order.addToOrder(unknown,1);
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(order));
+        assertEquals(3,system.warehouse.getStockLevel(1));
+    }
+
+    @Test
+    public void turnedDownServiceHandsBackTheProvidersReservedBeforeIt() {
+        Service plentiful=new Service(10.0,1,101,"plentiful");
+        Service scarce=new Service(10.0,1,102,"scarce");
+        ServiceProvider first=new ServiceProvider("first",1,new HashSet<>(Collections.singleton(plentiful)));
+        ServiceProvider second=new ServiceProvider("second",2,new HashSet<>(Collections.singleton(scarce)));
+        OrderManagementSystem staffed=new OrderManagementSystem(new HashSet<>(Collections.singleton(p1)),3,
+                new HashSet<>(Arrays.asList(first,second)));
+        Order order=new Order();
+        order.addToOrder(plentiful,1);
+        order.addToOrder(scarce,2);
+        assertThrows(IllegalStateException.class,()->staffed.placeOrder(order));
+        assertTrue(first.isAvailable());
+        assertTrue(second.isAvailable());
+        //both can still be booked
+        Order next=new Order();
+        next.addToOrder(plentiful,1);
+        next.addToOrder(scarce,1);
+        staffed.placeOrder(next);
+        assertFalse(first.isAvailable());
+        assertFalse(second.isAvailable());
+    }
+}
@@ -0,0 +1,176 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * An order that spans shards either takes its part in every shard or, when it is turned down, leaves every
+ shard as it found it, and the shards together accept exactly the orders a single system would
+ */
+public class ShardedOrderManagementSystemTest {
+    private static final int SHARDS=3;
+    private static final int LEVEL=20;
+    private final List<Product> products=new ArrayList<>();
+    private final List<Service> services=new ArrayList<>();
+    private final List<ServiceProvider> providers=new ArrayList<>();
+    private ShardedOrderManagementSystem system;
+
+    @BeforeEach
+    public void setUp() {
+        for(int i=1;i<=12;i++) {
+            products.add(new Product("p"+i,1.0,i));
+        }
+        //one provider per service, so services run out quickly
+        for(int i=0;i<6;i++) {
+            Service s=new Service(10.0,2,30+i,"s"+i);
+            services.add(s);
+            providers.add(new ServiceProvider("sp"+i,i+1,new HashSet<>(Collections.singleton(s))));
+        }
+        this.system=new ShardedOrderManagementSystem(new HashSet<>(products),LEVEL,new HashSet<>(providers),SHARDS);
+        //discontinued products are never restocked, so what is left of them shows in which orders they take
+        for(Product p:products) {
+            system.discontinueItem(p);
+        }
+    }
+
+    @Test
+    public void unknownProductInOneShardLeavesTheOthersUntouched() {
+        Order order=new Order();
+        order.addToOrder(products.get(0),5);
+        order.addToOrder(products.get(1),5);
+        order.addToOrder(services.get(0),1);
+        order.addToOrder(new Product("unknown",1.0,99),1);
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(order));
+        assertFalse(order.isCompleted());
+        assertTrue(providers.get(0).isAvailable());
+        assertStockLeft(products.get(0),LEVEL);
+        assertStockLeft(products.get(1),LEVEL);
+    }
+
+    @Test
+    public void busyProviderInOneShardLeavesTheOthersUntouched() {
+        Order first=new Order();
+        first.addToOrder(services.get(1),1);
+        system.placeOrder(first);
+        Order order=new Order();
+        order.addToOrder(products.get(0),5);
+        order.addToOrder(products.get(2),5);
+        order.addToOrder(services.get(0),1);
+        order.addToOrder(services.get(1),1);
+        assertThrows(IllegalStateException.class,()->system.placeOrder(order));
+        assertTrue(providers.get(0).isAvailable());
+        assertStockLeft(products.get(0),LEVEL);
+        assertStockLeft(products.get(2),LEVEL);
+    }
+
+    @Test
+    public void acceptedOrderTakesItsPartInEveryShard() {
+        Order order=new Order();
+        for(int i=0;i<SHARDS;i++) {
+            order.addToOrder(products.get(i),i+1);
+        }
+        order.addToOrder(services.get(0),1);
+        system.placeOrder(order);
+        assertTrue(order.isCompleted());
+        assertFalse(providers.get(0).isAvailable());
+        for(int i=0;i<SHARDS;i++) {
+            assertStockLeft(products.get(i),LEVEL-i-1);
+        }
+    }
+
+    @Test
+    public void providerStaffsEveryServiceItOffers() {
+        //item numbers 1 and 2 map to different shards, the provider keeps them together
+        Service first=new Service(10.0,2,1,"first");
+        Service second=new Service(10.0,2,2,"second");
+        ServiceProvider both=new ServiceProvider("both",1,new HashSet<>(Arrays.asList(first,second)));
+        ShardedOrderManagementSystem system=new ShardedOrderManagementSystem(new HashSet<>(products),LEVEL,new HashSet<>(Collections.singleton(both)),SHARDS);
+        assertEquals(system.shardOfService(1),system.shardOfService(2));
+        Order order=new Order();
+        order.addToOrder(second,1);
+        order.addToOrder(products.get(0),1);
+        system.placeOrder(order);
+        assertFalse(both.isAvailable());
+        //busy for the 3 orders after its own, wherever they are placed
+        for(int i=0;i<3;i++) {
+            Order busy=new Order();
+            busy.addToOrder(first,1);
+            assertEquals(OrderOutcome.NO_FREE_PROVIDER,system.tryPlaceOrder(busy));
+            Order other=new Order();
+            other.addToOrder(products.get(i+1),1);
+            system.placeOrder(other);
+        }
+        Order free=new Order();
+        free.addToOrder(first,1);
+        assertEquals(OrderOutcome.ACCEPTED,system.tryPlaceOrder(free));
+    }
+
+    @Test
+    public void acceptsTheSameOrdersAsASingleSystem() {
+        List<Service> offered=new ArrayList<>();
+        for(int i=0;i<12;i++) {
+            offered.add(new Service(10.0,2,100+i,"s"+i));
+        }
+        OrderManagementSystem single=new OrderManagementSystem(new HashSet<>(products),5,providers(offered));
+        ShardedOrderManagementSystem sharded=new ShardedOrderManagementSystem(new HashSet<>(products),5,providers(offered),SHARDS);
+        //discontinued products run out, so some orders are turned down for products too
+        for(int i=0;i<products.size();i+=4) {
+            single.discontinueItem(products.get(i));
+            sharded.discontinueItem(products.get(i));
+        }
+        Random random=new Random(14);
+        Map<OrderOutcome, Integer> outcomes=new EnumMap<>(OrderOutcome.class);
+        for(int n=0;n<2000;n++) {
+            long seed=random.nextLong();
+            OrderOutcome expected=single.tryPlaceOrder(randomOrder(new Random(seed),offered));
+            assertEquals(expected,sharded.tryPlaceOrder(randomOrder(new Random(seed),offered)),"order "+n);
+            outcomes.merge(expected,1,Integer::sum);
+        }
+        assertTrue(outcomes.getOrDefault(OrderOutcome.ACCEPTED,0)>500,outcomes.toString());
+        assertTrue(outcomes.getOrDefault(OrderOutcome.NO_FREE_PROVIDER,0)>100,outcomes.toString());
+        assertTrue(outcomes.getOrDefault(OrderOutcome.OUT_OF_STOCK,0)>10,outcomes.toString());
+    }
+
+    /**
+     * Four groups of three services, each staffed by three providers offering two of the group's services.
+     The services of a group have item numbers that map to every shard.
+     */
+    private static Set<ServiceProvider> providers(List<Service> services) {
+        Set<ServiceProvider> providers=new HashSet<>();
+        for(int group=0;group<4;group++) {
+            for(int k=0;k<3;k++) {
+                Set<Service> offers=new HashSet<>();
+                offers.add(services.get(group+4*k));
+                offers.add(services.get(group+4*((k+1)%3)));
+                providers.add(new ServiceProvider("sp"+group+k,1+group*3+k,offers));
+            }
+        }
+        return providers;
+    }
+
+    private Order randomOrder(Random random, List<Service> services) {
+        Order order=new Order();
+        int lines=1+random.nextInt(4);
+        for(int line=0;line<lines;line++) {
+            if(random.nextBoolean()) {
+                order.addToOrder(products.get(random.nextInt(products.size())),1+random.nextInt(3));
+            }
+            else {
+                order.addToOrder(services.get(random.nextInt(services.size())),1+random.nextInt(2));
+            }
+        }
+        return order;
+    }
+
+    /**
+     * An order for exactly the given quantity is accepted, and after it nothing more of the product is
+     */
+    private void assertStockLeft(Product product, int quantity) {
+        Order all=new Order();
+        all.addToOrder(product,quantity);
+        system.placeOrder(all);
+        Order more=new Order();
+        more.addToOrder(product,1);
+        assertThrows(IllegalArgumentException.class,()->system.placeOrder(more),"more of "+product.getItemNumber());
+    }
+}
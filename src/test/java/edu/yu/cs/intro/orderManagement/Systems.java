@@ -0,0 +1,128 @@
+package edu.yu.cs.intro.orderManagement;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Builds random systems and drives them with random changes, for tests that compare a system with one
+ recovered from it
+ */
+class Systems {
+    protected final List<Product> products=new ArrayList<>();
+    protected final List<Service> services=new ArrayList<>();
+
+    protected Systems(int productCount, int serviceCount) {
+        for(int i=1;i<=productCount;i++) {
+            products.add(new Product("product "+i,1.5,i));
+        }
+        for(int i=1;i<=serviceCount;i++) {
+            services.add(new Service(2.5,2,100+i,"service "+i));
+        }
+    }
+
+    /**
+     * @return a system with some of the products and providers offering one or two of the services,
+     the same one every time for the same seed
+     */
+    protected OrderManagementSystem build(long seed) {
+        Random random=new Random(seed);
+        int productCount=products.size()/2+random.nextInt(products.size()/2);
+        Set<ServiceProvider> providers=new HashSet<>();
+        for(int id=1;id<=2+random.nextInt(6);id++) {
+            Set<Service> offered=new HashSet<>();
+            for(int k=1+random.nextInt(2);k>0;k--) {
+                offered.add(services.get(random.nextInt(services.size())));
+            }
+            providers.add(new ServiceProvider("provider "+id,id,offered));
+        }
+        return new OrderManagementSystem(new HashSet<>(products.subList(0,productCount)),3,providers);
+    }
+
+    protected Order order(Random random) {
+        Order order=new Order();
+        for(int lines=1+random.nextInt(4);lines>0;lines--) {
+            if(random.nextInt(3)==0) {
+                order.addToOrder(services.get(random.nextInt(services.size())),1+random.nextInt(2));
+            }
+            else {
+                order.addToOrder(products.get(random.nextInt(products.size())),1+random.nextInt(6));
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Make the given number of random changes: mostly orders, singly and in batches, and now and then a
+     discontinued item, a new default level, new products or a new provider
+     */
+    protected void drive(OrderManagementSystem system, Random random, int steps) {
+        for(int step=0;step<steps;step++) {
+            int op=random.nextInt(20);
+            if(op==0) {
+                system.discontinueItem(random.nextBoolean()?products.get(random.nextInt(products.size())):services.get(random.nextInt(services.size())));
+            }
+            else if(op==1) {
+                system.setDefaultProductStockLevel(products.get(random.nextInt(products.size())),random.nextInt(8));
+            }
+            else if(op==2) {
+                system.addNewProducts(Arrays.asList(products.get(random.nextInt(products.size())),products.get(random.nextInt(products.size()))));
+            }
+            else if(op==3) {
+                Set<Service> offered=new HashSet<>(Collections.singleton(services.get(random.nextInt(services.size()))));
+                system.addServiceProvider(new ServiceProvider("new "+step,1000+step,offered));
+            }
+            else if(op==4) {
+                List<Order> batch=new ArrayList<>();
+                for(int k=1+random.nextInt(10);k>0;k--) {
+                    batch.add(order(random));
+                }
+                system.placeOrders(batch);
+            }
+            else {
+                try {
+                    system.placeOrder(order(random));
+                }catch(IllegalArgumentException|IllegalStateException e) {
+                    //turned down, which is journaled as nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Everything recovery has to bring back: stock, catalog, default levels, offered services, who is busy
+     and until when, and the order numbering
+     */
+    protected void assertSameState(OrderManagementSystem expected, OrderManagementSystem actual) {
+        for(Product p:products) {
+            int n=p.getItemNumber();
+            assertEquals(expected.warehouse.getStockLevel(n),actual.warehouse.getStockLevel(n),"stock of "+n);
+            assertEquals(expected.warehouse.isInCatalog(n),actual.warehouse.isInCatalog(n),"catalog has "+n);
+            assertEquals(expected.warehouse.isRestockable(n),actual.warehouse.isRestockable(n),"restockable "+n);
+            assertEquals(expected.warehouse.getDefaultStockLevel(n,-1),actual.warehouse.getDefaultStockLevel(n,-1),"default level of "+n);
+        }
+        assertEquals(expected.getProductCatalog(),actual.getProductCatalog());
+        assertEquals(expected.getOfferedServices(),actual.getOfferedServices());
+        assertEquals(expected.doNotOffer,actual.doNotOffer);
+        assertEquals(expected.serviceProviders.size(),actual.serviceProviders.size());
+        for(ServiceProvider x:expected.serviceProviders) {
+            ServiceProvider y=providerOf(actual,x.getId());
+            assertNotNull(y,"provider "+x.getId());
+            assertEquals(x.busy,y.busy,"provider "+x.getId()+" busy");
+            if(x.busy) {
+                assertEquals(x.engagedAt,y.engagedAt,"provider "+x.getId()+" engaged at");
+            }
+            assertEquals(x.services,y.services,"provider "+x.getId()+" services");
+        }
+        assertEquals(expected.schedule.getSequence(),actual.schedule.getSequence(),"sequence");
+        for(Service s:expected.getOfferedServices()) {
+            assertEquals(expected.freeProviders.available(s),actual.freeProviders.available(s),"free providers of "+s.getItemNumber());
+        }
+    }
+
+    private static ServiceProvider providerOf(OrderManagementSystem system, int id) {
+        for(ServiceProvider sp:system.serviceProviders) {
+            if(sp.getId()==id) {
+                return sp;
+            }
+        }
+        return null;
+    }
+}